@@ -0,0 +1,72 @@
+package io.sisu.paysim;
+
+import org.neo4j.driver.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.paysim.base.Transaction;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a batch of Transactions into Query parameters, per batch. Run with the {@code
+ * gc} profiler (the default in build.gradle) to see the allocation rate of each encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EncodingBenchmark {
+  @Param({"1000", "5000"})
+  public int batchSize;
+
+  private List<Transaction> transactions;
+  private TxBatch batch;
+
+  @Setup
+  public void setup() {
+    transactions = Fixtures.sampleTransactions(batchSize);
+    batch = Fixtures.sampleBatch(transactions);
+  }
+
+  @Benchmark
+  public void propsFromTx(Blackhole bh) {
+    for (Transaction t : transactions) {
+      bh.consume(MapEncoding.propsFromTx(t));
+    }
+  }
+
+  @Benchmark
+  public Query mapNodeQuery() {
+    return MapEncoding.compileNodeTransactionQuery(transactions);
+  }
+
+  @Benchmark
+  public Query mapPerformedQuery() {
+    return MapEncoding.compileBulkTransactionQuery(
+        MapEncoding.BULK_TX_PERFORMED_QUERY_STRING, transactions);
+  }
+
+  @Benchmark
+  public TxBatch columnarBatch() {
+    TxBatch copy = new TxBatch(transactions.size());
+    transactions.forEach(copy::add);
+    return copy;
+  }
+
+  @Benchmark
+  public Query columnarNodeQuery() {
+    return BatchEncoder.compileNodeQuery(batch);
+  }
+
+  @Benchmark
+  public Query columnarCombinedQuery() {
+    return BatchEncoder.compileCombinedQuery(batch);
+  }
+}
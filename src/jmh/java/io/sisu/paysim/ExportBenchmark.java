@@ -0,0 +1,93 @@
+package io.sisu.paysim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/** Cost of writing one batch of Transactions with each of the {@code csv} command's writers. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExportBenchmark {
+  @Param({"5000"})
+  public int batchSize;
+
+  private TxBatch batch;
+  private Path dir;
+  private CsvWriter plain;
+  private CsvWriter gzip;
+  private CsvWriter asyncGzip;
+  private ArrowTable arrowTable;
+
+  private static final OutputStream DISCARD =
+      new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+      };
+
+  @Setup
+  public void setup() throws IOException {
+    batch = Fixtures.sampleBatch(batchSize);
+    dir = Files.createTempDirectory("paysim-jmh");
+  }
+
+  @Setup(Level.Iteration)
+  public void open() throws IOException {
+    plain = new CsvWriter(DISCARD);
+    gzip = new CsvWriter(new GZIPOutputStream(DISCARD, 1 << 16));
+    asyncGzip = new CsvWriter(new AsyncGzipOutputStream(dir.resolve("transactions.csv.gz")));
+    arrowTable = ArrowExport.newTransactionTable(dir.resolve("transactions.arrow"));
+  }
+
+  @TearDown(Level.Iteration)
+  public void close() throws IOException {
+    plain.close();
+    gzip.close();
+    asyncGzip.close();
+    arrowTable.close();
+  }
+
+  @TearDown
+  public void cleanup() throws IOException {
+    Files.deleteIfExists(dir.resolve("transactions.csv.gz"));
+    Files.deleteIfExists(dir.resolve("transactions.arrow"));
+    Files.deleteIfExists(dir);
+  }
+
+  @Benchmark
+  public void csv() throws IOException {
+    CsvExport.writeTransactions(plain, batch);
+  }
+
+  @Benchmark
+  public void csvGzip() throws IOException {
+    CsvExport.writeTransactions(gzip, batch);
+  }
+
+  @Benchmark
+  public void csvAsyncGzip() throws IOException {
+    CsvExport.writeTransactions(asyncGzip, batch);
+  }
+
+  @Benchmark
+  public void arrow() throws IOException {
+    ArrowExport.writeTransactions(arrowTable, batch);
+  }
+}
@@ -0,0 +1,51 @@
+package io.sisu.paysim;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.paysim.IteratingPaySim;
+import org.paysim.base.Transaction;
+import org.paysim.parameters.Parameters;
+
+import java.util.concurrent.TimeUnit;
+
+/** How many Transactions per second the consuming thread can pull out of an IteratingPaySim. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SimulationBenchmark {
+  @Param({"1000", "50000"})
+  public int queueDepth;
+
+  private IteratingPaySim sim;
+
+  @Setup(Level.Iteration)
+  public void start() {
+    sim = new IteratingPaySim(new Parameters(Config.DEFAULT_PROPERTIES_FILE), queueDepth);
+    sim.run();
+  }
+
+  @TearDown(Level.Iteration)
+  public void stop() {
+    try {
+      sim.abort();
+    } catch (IllegalStateException ise) {
+      // already finished
+    }
+  }
+
+  @Benchmark
+  public Transaction next() {
+    if (!sim.hasNext()) {
+      throw new IllegalStateException("simulation finished mid-iteration, raise nbSteps");
+    }
+    return sim.next();
+  }
+}
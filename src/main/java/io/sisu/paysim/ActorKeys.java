@@ -0,0 +1,140 @@
+package io.sisu.paysim;
+
+/**
+ * A client-side dictionary from actor id to a compact integer key, so the load can address actor
+ * nodes by a number instead of their string id.
+ *
+ * <p>Actors are numbered in the order they're added: the starting population first, as written
+ * up front in actors-first mode, then any actor the Transaction stream brings in later (i.e.
+ * Mules) as it first shows up. The stream is deterministic, so a resumed or incremental load that
+ * follows it from the start hands out the same keys again.
+ *
+ * <p>Keys are interleaved by shard like globalSteps and negated, so they never collide with another
+ * shard's actors or with a Transaction's key, which is its (non-negative) globalStep.
+ *
+ * <p>Like {@link TxChains}, this is an open-addressing hash map, here from id to a primitive int.
+ * Not thread-safe: only the thread consuming the stream may {@link #intern} actors, and writers
+ * only see the keys copied into a {@link TxBatch}.
+ */
+public class ActorKeys {
+  private static final int NONE = -1;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private final Shard shard;
+  private String[] ids;
+  private int[] numbers;
+  private int size = 0;
+  private int population = 0;
+
+  public ActorKeys(Shard shard) {
+    this(shard, 16);
+  }
+
+  public ActorKeys(Shard shard, int expectedActors) {
+    this.shard = shard;
+    int capacity = Integer.highestOneBit(Math.max((int) (expectedActors / LOAD_FACTOR), 16) - 1);
+    allocate(capacity << 1);
+  }
+
+  private void allocate(int capacity) {
+    ids = new String[capacity];
+    numbers = new int[capacity];
+  }
+
+  private int slot(String[] table, String id) {
+    final int mask = table.length - 1;
+    int i = mix(id.hashCode()) & mask;
+    while (table[i] != null && !table[i].equals(id)) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private long key(int number) {
+    return -shard.globalStep(number) - 1;
+  }
+
+  private int number(String id) {
+    final int i = slot(ids, id);
+    return ids[i] == null ? NONE : numbers[i];
+  }
+
+  /**
+   * Look up an actor's key, numbering it if it's new.
+   *
+   * @param id globally unique id of the actor
+   * @return the actor's key
+   */
+  public long intern(String id) {
+    int i = slot(ids, id);
+    if (ids[i] == null) {
+      if (size + 1 > ids.length * LOAD_FACTOR) {
+        grow();
+        i = slot(ids, id);
+      }
+      ids[i] = id;
+      numbers[i] = size++;
+    }
+    return key(numbers[i]);
+  }
+
+  /**
+   * Look up the key of an actor that's already been added.
+   *
+   * @param id globally unique id of the actor
+   * @return the actor's key
+   * @throws IllegalArgumentException if the actor is unknown
+   */
+  public long key(String id) {
+    final int number = number(id);
+    if (number == NONE) {
+      throw new IllegalArgumentException("no key for actor " + id);
+    }
+    return key(number);
+  }
+
+  /** Mark every actor added so far as the starting population, already in the graph. */
+  public void sealPopulation() {
+    population = size;
+  }
+
+  /** @return whether the actor with this id is part of the starting population */
+  public boolean isWritten(String id) {
+    final int number = number(id);
+    return number != NONE && number < population;
+  }
+
+  /**
+   * Like {@link #isWritten(String)}, but from a key alone, so it's safe from any thread once the
+   * population is sealed.
+   */
+  public boolean isWritten(long key) {
+    return (-key - 1 - shard.index) / shard.count < population;
+  }
+
+  private void grow() {
+    final String[] oldIds = ids;
+    final int[] oldNumbers = numbers;
+    allocate(oldIds.length << 1);
+    for (int j = 0; j < oldIds.length; j++) {
+      if (oldIds[j] != null) {
+        int i = slot(ids, oldIds[j]);
+        ids[i] = oldIds[j];
+        numbers[i] = oldNumbers[j];
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+}
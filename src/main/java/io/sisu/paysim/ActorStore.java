@@ -0,0 +1,185 @@
+package io.sisu.paysim;
+
+import org.paysim.actors.Client;
+import org.paysim.identity.ClientIdentity;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compact, append-only table of actor Strings kept off the Java heap.
+ *
+ * <p>Each row's values are stored back to back as UTF-8, each prefixed with its 2-byte length, in
+ * direct buffers allocated a chunk at a time. Only an offset per row stays on the heap, so millions
+ * of Clients cost a few bytes of heap each instead of a graph of objects and Strings. Values are
+ * decoded into new Strings when read.
+ *
+ * <p>Rows are added from a single thread. Once added, they can be read from any number of threads.
+ */
+public class ActorStore {
+  // Columns of a store made by ofClients()
+  public static final int ID = 0;
+  public static final int NAME = 1;
+  public static final int SSN = 2;
+  public static final int EMAIL = 3;
+  public static final int PHONE_NUMBER = 4;
+  static final int CLIENT_COLUMNS = 5;
+
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+  private static final int NULL_LENGTH = 0xffff;
+
+  private final int columns;
+  private final int chunkSize;
+  private final List<ByteBuffer> chunks = new ArrayList<>();
+  private long[] rows = new long[1024];
+  private int size = 0;
+
+  public ActorStore(int columns) {
+    this(columns, DEFAULT_CHUNK_SIZE);
+  }
+
+  public ActorStore(int columns, int chunkSize) {
+    if (columns < 1) {
+      throw new IllegalArgumentException("a store needs at least one column");
+    }
+    this.columns = columns;
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * Copy the ids and identities of Clients into a new store, in the same order.
+   *
+   * @param clients Clients
+   * @param shard shard the Clients come from
+   * @return ActorStore with the columns {@link #ID}, {@link #NAME}, {@link #SSN}, {@link #EMAIL}
+   *     and {@link #PHONE_NUMBER}
+   */
+  public static ActorStore ofClients(List<Client> clients, Shard shard) {
+    final ActorStore store = new ActorStore(CLIENT_COLUMNS);
+    for (Client client : clients) {
+      final ClientIdentity identity = client.getClientIdentity();
+      store.add(
+          shard.id(client.getId()),
+          identity.name,
+          identity.ssn,
+          identity.email,
+          identity.phoneNumber);
+    }
+    return store;
+  }
+
+  /**
+   * Append a row.
+   *
+   * @param values one value per column, any of which may be null
+   * @return index of the new row
+   */
+  public int add(String... values) {
+    if (values.length != columns) {
+      throw new IllegalArgumentException(
+          String.format("expected %d values, got %d", columns, values.length));
+    }
+    final byte[][] encoded = new byte[columns][];
+    int length = 0;
+    for (int i = 0; i < columns; i++) {
+      if (values[i] != null) {
+        encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+        if (encoded[i].length >= NULL_LENGTH) {
+          throw new IllegalArgumentException("value too long to store: " + values[i]);
+        }
+        length += encoded[i].length;
+      }
+      length += 2;
+    }
+    if (length > chunkSize) {
+      throw new IllegalArgumentException("row too long to store: " + Arrays.toString(values));
+    }
+
+    ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+    if (chunk == null || chunk.remaining() < length) {
+      chunk = ByteBuffer.allocateDirect(chunkSize);
+      chunks.add(chunk);
+    }
+    if (size == rows.length) {
+      rows = Arrays.copyOf(rows, rows.length * 2);
+    }
+    rows[size] = (long) (chunks.size() - 1) * chunkSize + chunk.position();
+    for (byte[] value : encoded) {
+      if (value == null) {
+        chunk.putShort((short) NULL_LENGTH);
+      } else {
+        chunk.putShort((short) value.length);
+        chunk.put(value);
+      }
+    }
+    return size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Absolute position of a value's length prefix in its chunk.
+  private int position(ByteBuffer chunk, int row, int column) {
+    if (row < 0 || row >= size || column < 0 || column >= columns) {
+      throw new IndexOutOfBoundsException(String.format("row %d, column %d", row, column));
+    }
+    int position = (int) (rows[row] % chunkSize);
+    for (int i = 0; i < column; i++) {
+      final int length = chunk.getShort(position) & 0xffff;
+      position += 2 + (length == NULL_LENGTH ? 0 : length);
+    }
+    return position;
+  }
+
+  private ByteBuffer chunk(int row) {
+    return chunks.get((int) (rows[row] / chunkSize));
+  }
+
+  /**
+   * Read a value.
+   *
+   * @param row row index
+   * @param column column index
+   * @return the value, or null
+   */
+  public String get(int row, int column) {
+    final ByteBuffer chunk = chunk(row);
+    final int position = position(chunk, row, column);
+    final int length = chunk.getShort(position) & 0xffff;
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    // Bulk read through a duplicate, which has its own position, so readers never disturb each
+    // other.
+    final byte[] bytes = new byte[length];
+    final ByteBuffer view = chunk.duplicate();
+    view.position(position + 2);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Hash a value's bytes without decoding it. Equal values always have equal hashes.
+   *
+   * @param row row index
+   * @param column column index
+   * @return hash of the value
+   */
+  public int hash(int row, int column) {
+    final ByteBuffer chunk = chunk(row);
+    final int position = position(chunk, row, column);
+    final int length = chunk.getShort(position) & 0xffff;
+    if (length == NULL_LENGTH) {
+      return 0;
+    }
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + chunk.get(position + 2 + i);
+    }
+    return hash;
+  }
+}
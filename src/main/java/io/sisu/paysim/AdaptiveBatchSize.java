@@ -0,0 +1,274 @@
+package io.sisu.paysim;
+
+import org.neo4j.driver.exceptions.Neo4jException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+
+/**
+ * Picks the size of the next batch for a phase of a load from how long recent batches took to
+ * commit, so a load runs close to its best throughput without hand-tuning {@code --batchSize}.
+ *
+ * <p>Batches that commit well under the target latency grow the size by up to 25% at a time, and
+ * batches that overshoot it shrink the size in proportion, by up to half. A batch that fails
+ * because the server ran out of heap or transaction memory halves the size straight away and is
+ * written again in smaller slices. The size stays within {@code [min, max]}, widened to include the
+ * initial size if need be.
+ */
+public class AdaptiveBatchSize {
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveBatchSize.class);
+
+  // Commits between LOW_WATER and 100% of the target are left alone, so the size doesn't flap.
+  private static final double LOW_WATER = 0.8;
+  private static final double MAX_GROWTH = 1.25;
+  private static final double MAX_SHRINK = 0.5;
+
+  /** Writes the rows {@code [from, to)} of a batch in a single transaction. */
+  public interface RangeWriter {
+    void write(int from, int to);
+  }
+
+  /** Writes the rows {@code [from, to)} of a batch in a single transaction, without blocking. */
+  public interface AsyncRangeWriter {
+    CompletionStage<?> write(int from, int to);
+  }
+
+  private final String name;
+  private final int min;
+  private final int max;
+  private final long targetNanos;
+  private volatile int size;
+
+  /**
+   * @param name phase name, for logging
+   * @param initial starting batch size
+   * @param min smallest batch size
+   * @param max largest batch size
+   * @param targetMillis commit latency to aim for, or 0 to only shrink on memory errors
+   */
+  public AdaptiveBatchSize(String name, int initial, int min, int max, long targetMillis) {
+    if (initial < 1 || min < 1 || max < min) {
+      throw new IllegalArgumentException(
+          String.format("invalid batch size %d or limits [%d, %d]", initial, min, max));
+    }
+    this.name = name;
+    this.min = Math.min(min, initial);
+    this.max = Math.max(max, initial);
+    this.targetNanos = targetMillis * 1_000_000;
+    this.size = initial;
+  }
+
+  /**
+   * Create a controller for a phase from the load's config.
+   *
+   * @param config Config
+   * @param name phase name, for logging
+   * @param initial starting batch size
+   * @return AdaptiveBatchSize
+   */
+  public static AdaptiveBatchSize of(Config config, String name, int initial) {
+    return new AdaptiveBatchSize(
+        name,
+        Math.max(initial, 1),
+        config.minBatchSize,
+        config.maxBatchSize,
+        config.targetCommitMillis);
+  }
+
+  /** @return the size to use for the next batch */
+  public int get() {
+    return size;
+  }
+
+  private int clamp(long n) {
+    return (int) Math.max(min, Math.min(max, n));
+  }
+
+  /**
+   * Adjust the size from a batch that committed.
+   *
+   * @param batchSize number of rows in the batch
+   * @param startNanos {@link System#nanoTime()} when the batch started
+   */
+  public void committed(int batchSize, long startNanos) {
+    committed(batchSize, startNanos, 1);
+  }
+
+  /**
+   * Adjust the size from a batch that committed in several transactions, one after another, each
+   * holding the whole batch.
+   *
+   * @param batchSize number of rows in the batch
+   * @param startNanos {@link System#nanoTime()} when the batch started
+   * @param commits number of transactions the batch was committed in
+   */
+  public synchronized void committed(int batchSize, long startNanos, int commits) {
+    final long elapsed = Math.max((System.nanoTime() - startNanos) / commits, 1);
+    // A short trailing batch, or one built before the last change, says little about the current
+    // size.
+    if (targetNanos == 0 || batchSize < size / 2) {
+      return;
+    }
+    final double ratio = (double) targetNanos / elapsed;
+    final int next;
+    if (ratio < 1) {
+      next = clamp((long) (size * Math.max(ratio, MAX_SHRINK)));
+    } else if (ratio > 1 / LOW_WATER) {
+      next = clamp((long) Math.ceil(size * Math.min(ratio, MAX_GROWTH)));
+    } else {
+      return;
+    }
+    if (next != size) {
+      logger.debug(
+          "{} batch of {} committed in {}ms, batch size now {}",
+          name,
+          batchSize,
+          elapsed / 1_000_000,
+          next);
+      size = next;
+    }
+  }
+
+  /**
+   * Halve the size after a batch ran out of memory.
+   *
+   * @param failedSize number of rows in the batch that failed
+   * @return size of the slices to write the failed batch in, or 0 if it's already as small as it
+   *     can be
+   */
+  public synchronized int shrink(int failedSize) {
+    final int next = clamp(Math.min(size, failedSize) / 2);
+    if (next >= failedSize) {
+      return 0;
+    }
+    if (next < size) {
+      logger.warn("{} batch of {} ran out of memory, batch size now {}", name, failedSize, next);
+      size = next;
+    }
+    return next;
+  }
+
+  /**
+   * Whether a failure means the transaction needed more memory than the server would give it, or
+   * ran for so long that it timed out, i.e. it would likely succeed as a smaller batch.
+   *
+   * @param t failure
+   * @return true if a smaller batch might succeed
+   */
+  public static boolean isMemoryError(Throwable t) {
+    for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+      if (cause instanceof Neo4jException) {
+        final String code = ((Neo4jException) cause).code();
+        if (code != null
+            && (code.contains("OutOfMemory")
+                || code.contains("MemoryLimit")
+                || code.endsWith("TransactionTimedOut"))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Write the rows {@code [from, to)}, splitting them into smaller slices, in order, if they run
+   * out of memory. A failed write must leave nothing behind.
+   *
+   * @param from first row
+   * @param to row after the last
+   * @param writer writes a range of rows in a single transaction
+   * @return true if the rows were written in one go, false if they had to be split
+   */
+  public boolean write(int from, int to, RangeWriter writer) {
+    try {
+      writer.write(from, to);
+      return true;
+    } catch (RuntimeException e) {
+      final int slice = isMemoryError(e) ? shrink(to - from) : 0;
+      if (slice == 0) {
+        throw e;
+      }
+      for (int i = from; i < to; i += slice) {
+        write(i, Math.min(to, i + slice), writer);
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Like {@link #write(int, int, RangeWriter)}, but without blocking. The smaller slices are
+   * written one after another, in order.
+   *
+   * @param from first row
+   * @param to row after the last
+   * @param writer starts writing a range of rows in a single transaction
+   * @return completes with true if the rows were written in one go, false if they had to be split
+   */
+  public CompletionStage<Boolean> writeAsync(int from, int to, AsyncRangeWriter writer) {
+    final CompletableFuture<Boolean> done = new CompletableFuture<>();
+    CompletionStage<?> write;
+    try {
+      write = writer.write(from, to);
+    } catch (RuntimeException e) {
+      final CompletableFuture<?> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      write = failed;
+    }
+    write.whenComplete(
+        (ignored, error) -> {
+          if (error == null) {
+            done.complete(true);
+            return;
+          }
+          final Throwable cause = Database.unwrap(error);
+          final int slice = isMemoryError(cause) ? shrink(to - from) : 0;
+          if (slice == 0) {
+            done.completeExceptionally(cause);
+            return;
+          }
+          CompletionStage<?> slices = CompletableFuture.completedFuture(null);
+          for (int i = from; i < to; i += slice) {
+            final int sliceFrom = i;
+            final int sliceTo = Math.min(to, i + slice);
+            slices = slices.thenCompose(v -> writeAsync(sliceFrom, sliceTo, writer));
+          }
+          slices.whenComplete(
+              (v, sliceError) -> {
+                if (sliceError != null) {
+                  done.completeExceptionally(Database.unwrap(sliceError));
+                } else {
+                  done.complete(false);
+                }
+              });
+        });
+    return done;
+  }
+
+  /**
+   * Write a list of items in batches of the current size, adjusting the size as it goes.
+   *
+   * @param items items to write
+   * @param write writes a batch of items in a single transaction and records the progress
+   * @param <T> type of item
+   */
+  public <T> void forEachBatch(List<T> items, Consumer<List<T>> write) {
+    int from = 0;
+    while (from < items.size()) {
+      final int to = Math.min(items.size(), from + size);
+      final long start = System.nanoTime();
+      if (write(from, to, (a, b) -> write.accept(items.subList(a, b)))) {
+        committed(to - from, start);
+      }
+      from = to;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s batch size %d [%d, %d]", name, size, min, max);
+  }
+}
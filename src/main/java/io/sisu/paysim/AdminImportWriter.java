@@ -0,0 +1,289 @@
+package io.sisu.paysim;
+
+import org.paysim.actors.Client;
+import org.paysim.actors.SuperActor;
+import org.paysim.identity.ClientIdentity;
+import org.paysim.identity.Properties;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes the same graph {@code runBolt} builds as node and relationship files for {@code
+ * neo4j-admin import}.
+ *
+ * <p>Actors and Transactions share the {@code Node} id space (matching the {@code :Node(id)}
+ * lookups the Bolt loader relies on) while SSNs, Emails and Phones each get their own. The
+ * FIRST_TX, LAST_TX and NEXT threading relationships are computed while the Transactions stream
+ * by, so no post-processing is needed after the import.
+ */
+public class AdminImportWriter implements AutoCloseable {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final Path dir;
+  private final List<Path> nodeFiles = new ArrayList<>();
+  private final List<Path> relationshipFiles = new ArrayList<>();
+  private final TxChains chains = new TxChains();
+  private final StringBuilder row = new StringBuilder(256);
+
+  private final Writer transactions;
+  private final Writer performed;
+  private final Writer to;
+  private final Writer next;
+
+  public AdminImportWriter(Path dir) throws IOException {
+    this.dir = dir;
+    transactions =
+        nodes(
+            "nodes-transactions.csv",
+            "id:ID(Node),senderId,receiverId,amount:double,fraud:boolean,flaggedFraud:boolean,"
+                + "step:long,ts:long,globalStep:long,:LABEL");
+    performed = relationships("rels-performed.csv", "Node", "Node");
+    to = relationships("rels-to.csv", "Node", "Node");
+    next = relationships("rels-next.csv", "Node", "Node");
+  }
+
+  private Writer open(Path path, String header) throws IOException {
+    Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8),
+            BUFFER_SIZE);
+    writer.write(header);
+    writer.write('\n');
+    return writer;
+  }
+
+  private Writer nodes(String filename, String header) throws IOException {
+    Path path = dir.resolve(filename);
+    nodeFiles.add(path);
+    return open(path, header);
+  }
+
+  private Writer relationships(String filename, String startIdSpace, String endIdSpace)
+      throws IOException {
+    Path path = dir.resolve(filename);
+    relationshipFiles.add(path);
+    return open(path, ":START_ID(" + startIdSpace + "),:END_ID(" + endIdSpace + "),:TYPE");
+  }
+
+  /** Append a value as a CSV field, quoting it only if it needs to be. */
+  private static StringBuilder field(StringBuilder sb, Object value) {
+    if (value == null) {
+      return sb;
+    }
+    final String s = value.toString();
+    if (s.indexOf(',') < 0
+        && s.indexOf('"') < 0
+        && s.indexOf('\n') < 0
+        && s.indexOf('\r') < 0) {
+      return sb.append(s);
+    }
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"') {
+        sb.append('"');
+      }
+      sb.append(c);
+    }
+    return sb.append('"');
+  }
+
+  private static String labels(SuperActor.Type type) {
+    return type == SuperActor.Type.MULE ? "Node;Client;Mule" : "Node;" + Util.actorLabel(type);
+  }
+
+  private void relationship(Writer writer, String start, String end, String type)
+      throws IOException {
+    row.setLength(0);
+    field(row, start).append(',');
+    field(row, end).append(',').append(type).append('\n');
+    writer.append(row);
+  }
+
+  /**
+   * Write a batch of Transaction nodes along with their PERFORMED, TO and NEXT relationships.
+   *
+   * @param batch batch of Transactions, in globalStep order
+   */
+  public void writeTransactions(TxBatch batch) throws IOException {
+    batch.thread(chains);
+    for (int i = 0; i < batch.size(); i++) {
+      final String id = Util.txId(batch.globalStep(i));
+
+      row.setLength(0);
+      row.append(id).append(',');
+      field(row, batch.senderId(i)).append(',');
+      field(row, batch.receiverId(i)).append(',');
+      row.append(batch.amount(i)).append(',');
+      row.append(batch.fraud(i)).append(',');
+      row.append(batch.flaggedFraud(i)).append(',');
+      row.append(batch.step(i)).append(',');
+      row.append(batch.step(i)).append(',');
+      row.append(batch.globalStep(i)).append(',');
+      row.append("Node;Transaction;").append(Util.actionLabel(batch.action(i))).append('\n');
+      transactions.append(row);
+
+      relationship(performed, batch.senderId(i), id, "PERFORMED");
+      relationship(to, id, batch.receiverId(i), "TO");
+
+      if (batch.previous(i) != TxChains.NONE) {
+        relationship(next, Util.txId(batch.previous(i)), id, "NEXT");
+      }
+    }
+  }
+
+  /**
+   * Write the Client nodes along with their SSN, Email and Phone nodes and HAS_* relationships.
+   * Identity nodes shared between Clients are only written once.
+   */
+  public void writeClients(List<Client> clients) throws IOException {
+    final Set<String> ssns = new HashSet<>();
+    final Set<String> emails = new HashSet<>();
+    final Set<String> phones = new HashSet<>();
+
+    try (Writer clientNodes = nodes("nodes-clients.csv", "id:ID(Node),name,:LABEL");
+        Writer ssnNodes = nodes("nodes-ssns.csv", "ssn:ID(SSN),:LABEL");
+        Writer emailNodes = nodes("nodes-emails.csv", "email:ID(Email),:LABEL");
+        Writer phoneNodes = nodes("nodes-phones.csv", "phoneNumber:ID(Phone),:LABEL");
+        Writer hasSsn = relationships("rels-has-ssn.csv", "Node", "SSN");
+        Writer hasEmail = relationships("rels-has-email.csv", "Node", "Email");
+        Writer hasPhone = relationships("rels-has-phone.csv", "Node", "Phone")) {
+      for (Client client : clients) {
+        final ClientIdentity identity = client.getClientIdentity();
+
+        row.setLength(0);
+        field(row, client.getId()).append(',');
+        field(row, identity.name).append(',').append(labels(client.getType())).append('\n');
+        clientNodes.append(row);
+
+        if (ssns.add(identity.ssn)) {
+          row.setLength(0);
+          field(row, identity.ssn).append(",SSN\n");
+          ssnNodes.append(row);
+        }
+        if (emails.add(identity.email)) {
+          row.setLength(0);
+          field(row, identity.email).append(",Email\n");
+          emailNodes.append(row);
+        }
+        if (phones.add(identity.phoneNumber)) {
+          row.setLength(0);
+          field(row, identity.phoneNumber).append(",Phone\n");
+          phoneNodes.append(row);
+        }
+        relationship(hasSsn, client.getId(), identity.ssn, "HAS_SSN");
+        relationship(hasEmail, client.getId(), identity.email, "HAS_EMAIL");
+        relationship(hasPhone, client.getId(), identity.phoneNumber, "HAS_PHONE");
+      }
+    }
+  }
+
+  private static String headerType(Object value) {
+    if (value instanceof Boolean) {
+      return ":boolean";
+    } else if (value instanceof Integer || value instanceof Long) {
+      return ":long";
+    } else if (value instanceof Float || value instanceof Double) {
+      return ":double";
+    }
+    return "";
+  }
+
+  /**
+   * Write Merchant or Bank nodes, with the same extra properties {@code runBolt} sets from each
+   * actor's identity.
+   *
+   * @param filename name of the node file
+   * @param actors actors of a single type
+   */
+  public void writeActors(String filename, List<? extends SuperActor> actors) throws IOException {
+    // Collect the union of identity properties up front to build a stable header.
+    final Map<String, String> columns = new TreeMap<>();
+    for (SuperActor actor : actors) {
+      actor
+          .getIdentityAsMap()
+          .forEach((key, value) -> columns.putIfAbsent(key, headerType(value)));
+    }
+    columns.remove(Properties.ID);
+
+    final StringBuilder header = new StringBuilder("id:ID(Node)");
+    columns.forEach((key, type) -> header.append(',').append(key).append(type));
+    header.append(",:LABEL");
+
+    try (Writer writer = nodes(filename, header.toString())) {
+      for (SuperActor actor : actors) {
+        final Map<String, Object> props = actor.getIdentityAsMap();
+        row.setLength(0);
+        field(row, actor.getId());
+        for (String key : columns.keySet()) {
+          field(row.append(','), props.get(key));
+        }
+        row.append(',').append(labels(actor.getType())).append('\n');
+        writer.append(row);
+      }
+    }
+  }
+
+  /** Write the FIRST_TX and LAST_TX relationships once every Transaction has been written. */
+  public void writeChains() throws IOException {
+    try (Writer firstTx = relationships("rels-first-tx.csv", "Node", "Node");
+        Writer lastTx = relationships("rels-last-tx.csv", "Node", "Node")) {
+      final IOException[] failure = new IOException[1];
+      chains.forEach(
+          (clientId, firstGlobalStep, lastGlobalStep) -> {
+            if (failure[0] != null) {
+              return;
+            }
+            try {
+              relationship(firstTx, clientId, Util.txId(firstGlobalStep), "FIRST_TX");
+              relationship(lastTx, clientId, Util.txId(lastGlobalStep), "LAST_TX");
+            } catch (IOException e) {
+              failure[0] = e;
+            }
+          });
+      if (failure[0] != null) {
+        throw failure[0];
+      }
+    }
+  }
+
+  /** Node files written so far, for the {@code --nodes} arguments of {@code neo4j-admin}. */
+  public List<Path> getNodeFiles() {
+    return nodeFiles;
+  }
+
+  /** Relationship files written so far, for the {@code --relationships} arguments. */
+  public List<Path> getRelationshipFiles() {
+    return relationshipFiles;
+  }
+
+  /** The {@code neo4j-admin import} command line that loads the files written so far. */
+  public String importCommand() {
+    final StringBuilder sb = new StringBuilder("neo4j-admin import --database=neo4j");
+    nodeFiles.forEach(path -> sb.append(" --nodes=").append(path));
+    relationshipFiles.forEach(path -> sb.append(" --relationships=").append(path));
+    return sb.toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (Writer t = transactions;
+        Writer p = performed;
+        Writer r = to;
+        Writer n = next) {
+      // closed in reverse order by try-with-resources
+    }
+  }
+}
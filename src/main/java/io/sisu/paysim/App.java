@@ -1,29 +1,20 @@
 package io.sisu.paysim;
 
-import com.google.common.collect.Lists;
-import com.opencsv.bean.StatefulBeanToCsv;
-import com.opencsv.bean.StatefulBeanToCsvBuilder;
 import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.impl.Arguments;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.ArgumentParserException;
 import net.sourceforge.argparse4j.inf.Namespace;
 import org.neo4j.driver.Driver;
 import org.neo4j.driver.Query;
-import org.neo4j.driver.Values;
 import org.paysim.IteratingPaySim;
 import org.paysim.PaySimState;
-import org.paysim.actors.Client;
-import org.paysim.actors.Merchant;
 import org.paysim.actors.SuperActor;
-import org.paysim.base.Transaction;
 import org.paysim.parameters.Parameters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
@@ -32,12 +23,18 @@ import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.zip.GZIPOutputStream;
 
 public class App {
   protected static final Logger logger;
@@ -68,10 +65,128 @@ public class App {
             .addArgument("--" + Config.KEY_OUTPUT_DIR)
             .help("[Csv] Output directory")
             .setDefault(Config.DEFAULT_OUTPUT_DIR);
+    parser
+            .addArgument("--" + Config.KEY_FORMAT)
+            .help("[Csv] 'csv' writes gzipped csv, 'arrow' writes zstd-compressed Arrow IPC files")
+            .choices(Config.FORMAT_CSV, Config.FORMAT_ARROW)
+            .setDefault(Config.DEFAULT_FORMAT);
+    parser
+            .addArgument("--" + Config.KEY_BATCH_SIZE)
+            .help("rows per output chunk (one Arrow record batch per chunk)")
+            .setDefault(Config.DEFAULT_BATCH_SIZE);
+    parser
+            .addArgument("--" + Config.KEY_SHARDS)
+            .help("split the simulation into this many independent shards")
+            .setDefault(Config.DEFAULT_SHARDS);
+    parser
+            .addArgument("--" + Config.KEY_SHARD_INDEX)
+            .help("which shard to run, from 0 to shards - 1")
+            .setDefault(Config.DEFAULT_SHARD_INDEX);
     return parser;
 
   }
 
+  private static ArgumentParser newStreamParser() {
+    ArgumentParser parser =
+        ArgumentParsers.newFor("paysim-demo stream")
+            .build()
+            .defaultHelp(true)
+            .description("Replays a virtual mobile money network's transactions as JSON events");
+    parser
+        .addArgument("--" + Config.KEY_PROPERTIES_FILE)
+        .help("PaySim properties file (with paramFiles adjacent in same dir)")
+        .setDefault(Config.DEFAULT_PROPERTIES_FILE);
+    parser
+        .addArgument("--" + Config.KEY_QUEUE_DEPTH)
+        .help("PaySim queue depth")
+        .setDefault(Config.DEFAULT_SIM_QUEUE_DEPTH);
+    parser
+        .addArgument("--" + Config.KEY_OUTPUT)
+        .help("[Stream] '-' for stdout, a file, or tcp://host:port")
+        .setDefault(Config.DEFAULT_OUTPUT);
+    parser
+        .addArgument("--" + Config.KEY_FRAMING)
+        .help(
+            "[Stream] 'ndjson' writes one event per line, 'length' prefixes each with its"
+                + " 4-byte big-endian length")
+        .choices(JsonWriter.FRAMING_NDJSON, JsonWriter.FRAMING_LENGTH)
+        .setDefault(Config.DEFAULT_FRAMING);
+    parser
+        .addArgument("--" + Config.KEY_SPEEDUP)
+        .help(
+            "[Stream] replay each step (an hour) this many times faster than real time, 0 for"
+                + " as fast as possible")
+        .setDefault(Config.DEFAULT_SPEEDUP);
+    parser
+        .addArgument("--" + Config.KEY_SNAPSHOT)
+        .help(
+            "[Stream] replay Transactions from a file made by the snapshot command, not simulate"
+                + " them");
+    parser
+        .addArgument("--" + Config.KEY_BATCH_SIZE)
+        .help("transactions taken from the simulation at a time")
+        .setDefault(Config.DEFAULT_BATCH_SIZE);
+    parser
+        .addArgument("--" + Config.KEY_SHARDS)
+        .help("split the simulation into this many independent shards")
+        .setDefault(Config.DEFAULT_SHARDS);
+    parser
+        .addArgument("--" + Config.KEY_SHARD_INDEX)
+        .help("which shard to run, from 0 to shards - 1")
+        .setDefault(Config.DEFAULT_SHARD_INDEX);
+    return parser;
+  }
+
+  private static ArgumentParser newAdminImportParser() {
+    ArgumentParser parser =
+        ArgumentParsers.newFor("paysim-demo admin-import")
+            .build()
+            .defaultHelp(true)
+            .description("Builds a virtual mobile money network graph as neo4j-admin import files");
+    parser
+        .addArgument("--" + Config.KEY_PROPERTIES_FILE)
+        .help("PaySim properties file (with paramFiles adjacent in same dir)")
+        .setDefault(Config.DEFAULT_PROPERTIES_FILE);
+    parser
+        .addArgument("--" + Config.KEY_QUEUE_DEPTH)
+        .help("PaySim queue depth")
+        .setDefault(Config.DEFAULT_SIM_QUEUE_DEPTH);
+    parser
+        .addArgument("--" + Config.KEY_OUTPUT_DIR)
+        .help("[AdminImport] Output directory")
+        .setDefault(Config.DEFAULT_OUTPUT_DIR);
+    return parser;
+  }
+
+  private static ArgumentParser newSnapshotParser() {
+    ArgumentParser parser =
+        ArgumentParsers.newFor("paysim-demo snapshot")
+            .build()
+            .defaultHelp(true)
+            .description("Records a virtual mobile money network's transactions for replay");
+    parser
+        .addArgument("--" + Config.KEY_PROPERTIES_FILE)
+        .help("PaySim properties file (with paramFiles adjacent in same dir)")
+        .setDefault(Config.DEFAULT_PROPERTIES_FILE);
+    parser
+        .addArgument("--" + Config.KEY_QUEUE_DEPTH)
+        .help("PaySim queue depth")
+        .setDefault(Config.DEFAULT_SIM_QUEUE_DEPTH);
+    parser
+        .addArgument("--" + Config.KEY_SNAPSHOT)
+        .help("[Snapshot] file to record to")
+        .setDefault(Config.DEFAULT_SNAPSHOT);
+    parser
+        .addArgument("--" + Config.KEY_SHARDS)
+        .help("split the simulation into this many independent shards")
+        .setDefault(Config.DEFAULT_SHARDS);
+    parser
+        .addArgument("--" + Config.KEY_SHARD_INDEX)
+        .help("which shard to run, from 0 to shards - 1")
+        .setDefault(Config.DEFAULT_SHARD_INDEX);
+    return parser;
+  }
+
     private static ArgumentParser newBoltParser() {
     ArgumentParser parser =
         ArgumentParsers.newFor("paysim-demo bolt")
@@ -106,6 +221,107 @@ public class App {
         .addArgument("--" + Config.KEY_QUEUE_DEPTH)
         .help("PaySim queue depth")
         .setDefault(Config.DEFAULT_SIM_QUEUE_DEPTH);
+    parser
+        .addArgument("--" + Config.KEY_PARALLELISM)
+        .help("[Bolt] number of concurrent writer sessions")
+        .setDefault(Config.DEFAULT_PARALLELISM);
+    parser
+        .addArgument("--" + Config.KEY_PIPELINE_DEPTH)
+        .help("[Bolt] max batches waiting on a free writer before the simulation is paused")
+        .setDefault(Config.DEFAULT_PIPELINE_DEPTH);
+    parser
+        .addArgument("--" + Config.KEY_PARTITIONS)
+        .help("[Bolt] split relationship batches into this many concurrent, non-overlapping writes")
+        .setDefault(Config.DEFAULT_PARTITIONS);
+    parser
+        .addArgument("--" + Config.KEY_MAX_RETRIES)
+        .help("[Bolt] retries for transient failures such as deadlocks")
+        .setDefault(Config.DEFAULT_MAX_RETRIES);
+    parser
+        .addArgument("--" + Config.KEY_WRITE_MODE)
+        .help(
+            "[Bolt] 'split' writes nodes, PERFORMED and TO in 3 transactions per batch, "
+                + "'combined' writes them all in 1")
+        .choices(Config.WRITE_MODE_SPLIT, Config.WRITE_MODE_COMBINED)
+        .setDefault(Config.DEFAULT_WRITE_MODE);
+    parser
+        .addArgument("--" + Config.KEY_SHARDS)
+        .help("split the simulation into this many independent shards")
+        .setDefault(Config.DEFAULT_SHARDS);
+    parser
+        .addArgument("--" + Config.KEY_SHARD_INDEX)
+        .help("which shard to run, from 0 to shards - 1")
+        .setDefault(Config.DEFAULT_SHARD_INDEX);
+    parser
+        .addArgument("--" + Config.KEY_CHECKPOINT)
+        .help("[Bolt] file recording how far the load has committed")
+        .setDefault(Config.DEFAULT_CHECKPOINT);
+    parser
+        .addArgument("--" + Config.KEY_RESUME)
+        .help("[Bolt] continue a failed load from its checkpoint")
+        .action(Arguments.storeTrue());
+    parser
+        .addArgument("--" + Config.KEY_METRICS_INTERVAL)
+        .help("[Bolt] seconds between metrics reports in the log, 0 to disable")
+        .setDefault(Config.DEFAULT_METRICS_INTERVAL);
+    parser
+        .addArgument("--" + Config.KEY_TARGET_COMMIT_MILLIS)
+        .help(
+            "[Bolt] grow or shrink each phase's batch size, starting from batchSize, to commit in"
+                + " about this many ms, 0 to only shrink on memory errors")
+        .setDefault(Config.DEFAULT_TARGET_COMMIT_MILLIS);
+    parser
+        .addArgument("--" + Config.KEY_MIN_BATCH_SIZE)
+        .help("[Bolt] smallest adaptive batch size")
+        .setDefault(Config.DEFAULT_MIN_BATCH_SIZE);
+    parser
+        .addArgument("--" + Config.KEY_MAX_BATCH_SIZE)
+        .help("[Bolt] largest adaptive batch size")
+        .setDefault(Config.DEFAULT_MAX_BATCH_SIZE);
+    parser
+        .addArgument("--" + Config.KEY_ACTORS_FIRST)
+        .help(
+            "[Bolt] write every Client, Merchant and Bank up front so Transactions only MATCH"
+                + " them")
+        .action(Arguments.storeTrue());
+    parser
+        .addArgument("--" + Config.KEY_KEYS)
+        .help(
+            "[Bolt] give every node an integer key and MATCH on it instead of its string id"
+                + " (implies --actorsFirst)")
+        .action(Arguments.storeTrue());
+    parser
+        .addArgument("--" + Config.KEY_SCHEMA_TIMEOUT)
+        .help("[Bolt] seconds to wait for indexes to come online before loading")
+        .setDefault(Config.DEFAULT_SCHEMA_TIMEOUT);
+    parser
+        .addArgument("--" + Config.KEY_INDEXES)
+        .help(
+            "[Bolt] 'upfront' creates every index before loading, 'deferred' creates only those"
+                + " the load needs and builds the rest once the data is in")
+        .choices(Config.INDEXES_UPFRONT, Config.INDEXES_DEFERRED)
+        .setDefault(Config.DEFAULT_INDEXES);
+    parser
+        .addArgument("--" + Config.KEY_FROM_STEP)
+        .help(
+            "[Bolt] only load Transactions from this step on, extending a graph that already holds"
+                + " the earlier steps")
+        .setDefault(Config.DEFAULT_FROM_STEP);
+    parser
+        .addArgument("--" + Config.KEY_SNAPSHOT)
+        .help(
+            "[Bolt] replay Transactions from a file made by the snapshot command, not simulate"
+                + " them");
+    parser
+        .addArgument("--" + Config.KEY_ASYNC)
+        .help(
+            "[Bolt] write Transactions with the async driver API, so writers don't wait out each"
+                + " round trip")
+        .action(Arguments.storeTrue());
+    parser
+        .addArgument("--" + Config.KEY_IN_FLIGHT)
+        .help("[Bolt] with --async, max Transaction batches being written at once")
+        .setDefault(Config.DEFAULT_IN_FLIGHT);
     return parser;
   }
 
@@ -114,6 +330,9 @@ public class App {
     System.err.println("valid commands:");
     System.err.println("\tbolt -- directly populate a remote database");
     System.err.println("\t csv -- dump data out into local csv files");
+    System.err.println("\tstream -- replay transactions as JSON events");
+    System.err.println("\tsnapshot -- record a simulation to replay it without simulating again");
+    System.err.println("\tadmin-import -- write node & relationship files for neo4j-admin import");
   }
 
   public static void main(String[] args) {
@@ -153,6 +372,48 @@ public class App {
           System.exit(1);
         }
         break;
+      case "stream":
+        try {
+          parser = newStreamParser();
+          Namespace ns = parser.parseArgs(Arrays.copyOfRange(args, 1, args.length));
+          Config config = new Config(Optional.of(ns));
+          runStream(config);
+        } catch (ArgumentParserException e) {
+          parser.handleError(e);
+          System.exit(1);
+        } catch (Exception e) {
+          logger.error("Failed to run PaySim demo app!", e);
+          System.exit(1);
+        }
+        break;
+      case "snapshot":
+        try {
+          parser = newSnapshotParser();
+          Namespace ns = parser.parseArgs(Arrays.copyOfRange(args, 1, args.length));
+          Config config = new Config(Optional.of(ns));
+          runSnapshot(config);
+        } catch (ArgumentParserException e) {
+          parser.handleError(e);
+          System.exit(1);
+        } catch (Exception e) {
+          logger.error("Failed to run PaySim demo app!", e);
+          System.exit(1);
+        }
+        break;
+      case "admin-import":
+        try {
+          parser = newAdminImportParser();
+          Namespace ns = parser.parseArgs(Arrays.copyOfRange(args, 1, args.length));
+          Config config = new Config(Optional.of(ns));
+          runAdminImport(config);
+        } catch (ArgumentParserException e) {
+          parser.handleError(e);
+          System.exit(1);
+        } catch (Exception e) {
+          logger.error("Failed to run PaySim demo app!", e);
+          System.exit(1);
+        }
+        break;
       default:
         usage();
         System.exit(1);
@@ -160,25 +421,39 @@ public class App {
   }
 
   public static void runCsv(Config config) throws IOException {
+    final Shard shard = new Shard(config.shardIndex, config.shards);
     Path path = Paths.get(config.outputDirectory).toRealPath();
     if (!path.toFile().exists()) Files.createDirectory(path);
-
-    logger.info("Writing csv output to {}", path);
+    path = shard.outputDirectory(path);
+    Files.createDirectories(path);
 
     IteratingPaySim sim =
-        new IteratingPaySim(new Parameters(config.propertiesFile), config.queueDepth);
+        new IteratingPaySim(
+            new Parameters(shard.writeProperties(config.propertiesFile)), config.queueDepth);
+
+    if (Config.FORMAT_ARROW.equals(config.format)) {
+      runArrow(config, sim, shard, path);
+      return;
+    }
+
+    logger.info("Writing csv output for {} to {}", shard, path);
     sim.run();
 
-    try (OutputStreamWriter writer =
-        new OutputStreamWriter(
-            new GZIPOutputStream(
-                new FileOutputStream(path.resolve("transactions.csv.gz").toFile())))) {
-      StatefulBeanToCsv<Transaction> beanToCsv =
-          new StatefulBeanToCsvBuilder<Transaction>(writer).withSeparator(',').build();
+    try (CsvWriter writer =
+        new CsvWriter(new AsyncGzipOutputStream(path.resolve("transactions.csv.gz")))) {
       logger.info(
           "Simulation started using PaySim v{}, load commencing...please, be patient! :-)",
           PaySimState.PAYSIM_VERSION);
-      beanToCsv.write(sim);
+      CsvExport.writeTransactionHeader(writer);
+      final TxBatch batch = new TxBatch(config.batchSize, shard);
+      while (sim.hasNext()) {
+        batch.add(sim.next());
+        if (batch.isFull()) {
+          CsvExport.writeTransactions(writer, batch);
+          batch.clear();
+        }
+      }
+      CsvExport.writeTransactions(writer, batch);
     } catch (Exception e) {
       logger.error("crap", e);
       sim.abort();
@@ -186,20 +461,16 @@ public class App {
 
     logger.info("Wrote transactions.");
 
-    try (FileWriter writer = new FileWriter(path.resolve("clients.csv").toFile())) {
-      StatefulBeanToCsv<Client> beanToCsv =
-          new StatefulBeanToCsvBuilder<Client>(writer).withSeparator(',').build();
-      beanToCsv.write(sim.getClients());
+    try (CsvWriter writer = new CsvWriter(Files.newOutputStream(path.resolve("clients.csv")))) {
+      CsvExport.writeClients(writer, sim.getClients(), shard);
     } catch (Exception e) {
       logger.error("crap", e);
     }
 
     logger.info("Wrote clients.");
 
-    try (FileWriter writer = new FileWriter(path.resolve("merchants.csv").toFile())) {
-      StatefulBeanToCsv<Merchant> beanToCsv =
-          new StatefulBeanToCsvBuilder<Merchant>(writer).withSeparator(',').build();
-      beanToCsv.write(sim.getMerchants());
+    try (CsvWriter writer = new CsvWriter(Files.newOutputStream(path.resolve("merchants.csv")))) {
+      CsvExport.writeActors(writer, sim.getMerchants(), shard);
     } catch (Exception e) {
       logger.error("crap", e);
     }
@@ -207,102 +478,1052 @@ public class App {
     logger.info("Wrote merchants.");
   }
 
-  public static void runBolt(Config config) {
+  private static void runArrow(Config config, IteratingPaySim sim, Shard shard, Path path)
+      throws IOException {
+    logger.info("Writing arrow output for {} to {}", shard, path);
+    sim.run();
+
+    try (ArrowTable table = ArrowExport.newTransactionTable(path.resolve("transactions.arrow"))) {
+      logger.info(
+          "Simulation started using PaySim v{}, load commencing...please, be patient! :-)",
+          PaySimState.PAYSIM_VERSION);
+      final TxBatch batch = new TxBatch(config.batchSize, shard);
+      while (sim.hasNext()) {
+        batch.add(sim.next());
+        if (batch.isFull()) {
+          ArrowExport.writeTransactions(table, batch);
+          batch.clear();
+        }
+      }
+      ArrowExport.writeTransactions(table, batch);
+    } catch (Exception e) {
+      logger.error("Failed writing transactions", e);
+      sim.abort();
+      throw e;
+    }
+
+    logger.info("Wrote transactions.");
+
+    ArrowExport.writeClients(
+        path.resolve("clients.arrow"), sim.getClients(), config.batchSize, shard);
+    logger.info("Wrote clients.");
+
+    ArrowExport.writeActors(
+        path.resolve("merchants.arrow"), sim.getMerchants(), config.batchSize, shard);
+    logger.info("Wrote merchants.");
+  }
+
+  public static void runStream(Config config) throws IOException, InterruptedException {
+    final Shard shard = new Shard(config.shardIndex, config.shards);
+    IteratingPaySim sim =
+        new IteratingPaySim(
+            new Parameters(shard.writeProperties(config.propertiesFile)), config.queueDepth);
+    final ReplayClock clock = new ReplayClock(config.speedup);
+    final Snapshot.Reader replay = openSnapshot(config, shard);
+    final ZonedDateTime start = ZonedDateTime.now();
+    long cnt = 0;
+
+    try (JsonWriter writer = new JsonWriter(StreamExport.open(config.output), config.framing)) {
+      logger.info(
+          "Streaming {} events for {} to {}{}",
+          config.framing,
+          shard,
+          config.output,
+          config.speedup > 0 ? String.format(" at %sx real time", config.speedup) : "");
+      if (replay == null) {
+        sim.run();
+      }
+
+      final TxBatch batch = new TxBatch(config.batchSize, shard);
+      while (addNext(batch, sim, replay)) {
+        if (batch.isFull()) {
+          StreamExport.writeTransactions(writer, batch, clock);
+          cnt += batch.size();
+          batch.clear();
+        }
+      }
+      StreamExport.writeTransactions(writer, batch, clock);
+      cnt += batch.size();
+    } catch (Exception e) {
+      logger.error("EXCEPTION while streaming events", e);
+      try {
+        if (replay == null) {
+          sim.abort();
+        }
+      } catch (IllegalStateException ise) {
+        logger.warn("sim already aborted!");
+      }
+      throw e;
+    } finally {
+      if (replay != null) {
+        // a replay that stops early would otherwise keep its file open
+        replay.close();
+      }
+    }
+
+    final Duration delta = Duration.between(start, ZonedDateTime.now());
+    logger.info(
+        String.format(
+            "Streamed %d events in %dm %ds (%.0f events/second)",
+            cnt,
+            delta.toMinutes(),
+            Util.toSecondsPart(delta),
+            cnt * 1000.0 / Math.max(delta.toMillis(), 1)));
+  }
+
+  public static void runAdminImport(Config config) throws IOException {
+    Path path = Paths.get(config.outputDirectory);
+    Files.createDirectories(path);
+    path = path.toRealPath();
+
+    logger.info("Writing neo4j-admin import files to {}", path);
+
     IteratingPaySim sim =
         new IteratingPaySim(new Parameters(config.propertiesFile), config.queueDepth);
+    final ZonedDateTime start = ZonedDateTime.now();
+
+    try (AdminImportWriter writer = new AdminImportWriter(path)) {
+      sim.run();
+      logger.info(
+          "Simulation started using PaySim v{}, export commencing...please, be patient! :-)",
+          PaySimState.PAYSIM_VERSION);
+
+      final TxBatch batch = new TxBatch(config.batchSize);
+      long cnt = 0;
+      while (sim.hasNext()) {
+        batch.add(sim.next());
+        if (batch.isFull()) {
+          writer.writeTransactions(batch);
+          cnt += batch.size();
+          batch.clear();
+        }
+      }
+      writer.writeTransactions(batch);
+      cnt += batch.size();
+      logger.info("Wrote {} transactions.", cnt);
+
+      writer.writeChains();
+      logger.info("Wrote transaction chains.");
+
+      writer.writeClients(sim.getClients());
+      logger.info("Wrote clients and identities.");
+
+      writer.writeActors("nodes-merchants.csv", sim.getMerchants());
+      writer.writeActors("nodes-banks.csv", sim.getBanks());
+      logger.info("Wrote merchants and banks.");
+
+      logger.info("Load into an empty database with:\n{}", writer.importCommand());
+    } catch (Exception e) {
+      logger.error("EXCEPTION while writing import files", e);
+      try {
+        sim.abort();
+      } catch (IllegalStateException ise) {
+        logger.warn("sim already aborted!");
+      }
+      throw e;
+    }
+
+    Duration delta = Duration.between(start, ZonedDateTime.now());
+    logger.info(
+        String.format(
+            "Simulation & Export COMPLETED in %dm %ds",
+            delta.toMinutes(), Util.toSecondsPart(delta)));
+  }
+
+  /**
+   * Write a batch's Transaction nodes and PERFORMED and TO relationships.
+   *
+   * @param actors the actors written up front in actors-first mode, which are only MATCHed, or
+   *     empty to MERGE every actor
+   * @param keyed whether to address nodes by key, once the batch is {@link TxBatch#key keyed}
+   */
+  private static void writeTransactions(
+      PartitionedWriter writer,
+      TxBatch batch,
+      String writeMode,
+      ActorKeys actors,
+      boolean keyed) {
+    final boolean combined = Config.WRITE_MODE_COMBINED.equals(writeMode);
+    writer.write(batch, nodeQuery(combined, actors, keyed));
+    if (!combined) {
+      writer.write(batch, batch::senderId, performedQuery(keyed));
+      writer.write(batch, batch::receiverId, toQuery(keyed));
+    }
+  }
+
+  /** @return how many transactions, one after another, {@link #writeTransactions} commits */
+  private static int commitsPerBatch(String writeMode) {
+    return Config.WRITE_MODE_COMBINED.equals(writeMode) ? 1 : 3;
+  }
+
+  /** Like {@link #writeTransactions}, but without blocking. */
+  private static CompletionStage<Void> writeTransactionsAsync(
+      PartitionedWriter writer,
+      TxBatch batch,
+      String writeMode,
+      ActorKeys actors,
+      boolean keyed) {
+    final boolean combined = Config.WRITE_MODE_COMBINED.equals(writeMode);
+    final CompletionStage<Void> nodes =
+        writer.writeAsync(batch, nodeQuery(combined, actors, keyed));
+    if (combined) {
+      return nodes;
+    }
+    return nodes
+        .thenCompose(v -> writer.writeAsync(batch, batch::senderId, performedQuery(keyed)))
+        .thenCompose(v -> writer.writeAsync(batch, batch::receiverId, toQuery(keyed)));
+  }
+
+  /**
+   * @return compiles a batch's Transaction nodes, along with their relationships in combined mode
+   */
+  private static Function<TxBatch, Query> nodeQuery(
+      boolean combined, ActorKeys actors, boolean keyed) {
+    if (actors.isEmpty()) {
+      return combined ? BatchEncoder::compileCombinedQuery : BatchEncoder::compileNodeQuery;
+    }
+    if (keyed) {
+      return combined
+          ? b -> BatchEncoder.compileKeyedCombinedQuery(b, actors::isWritten)
+          : b -> BatchEncoder.compileKeyedNodeQuery(b, actors::isWritten);
+    }
+    return combined
+        ? b -> BatchEncoder.compileMatchedCombinedQuery(b, actors::isWritten)
+        : b -> BatchEncoder.compileMatchedNodeQuery(b, actors::isWritten);
+  }
+
+  private static Function<TxBatch, Query> performedQuery(boolean keyed) {
+    return keyed ? BatchEncoder::compileKeyedPerformedQuery : BatchEncoder::compilePerformedQuery;
+  }
+
+  private static Function<TxBatch, Query> toQuery(boolean keyed) {
+    return keyed ? BatchEncoder::compileKeyedToQuery : BatchEncoder::compileToQuery;
+  }
+
+  private static Function<TxBatch, Query> chainQuery(boolean keyed) {
+    return keyed ? BatchEncoder::compileKeyedChainQuery : BatchEncoder::compileChainQuery;
+  }
+
+  private static void submitTransactions(
+      Pipeline pipeline,
+      PartitionedWriter writer,
+      TxBatch batch,
+      long seq,
+      Watermark written,
+      TxChains chains,
+      Config config,
+      ActorKeys actors,
+      AtomicInteger counter,
+      Checkpoint checkpoint,
+      AdaptiveBatchSize batchSize)
+      throws InterruptedException {
+    batch.thread(chains);
+    if (config.keys) {
+      batch.key(actors);
+    }
+    // Split mode commits the nodes and each relationship type in turn, so time each commit.
+    final int commits = commitsPerBatch(config.writeMode);
+    if (config.async) {
+      pipeline.submitAsync(
+          () -> {
+            final long start = System.nanoTime();
+            final CompletionStage<Void> writes =
+                writeTransactionsAsync(writer, batch, config.writeMode, actors, config.keys)
+                    .thenRun(
+                        () -> {
+                          batchSize.committed(batch.size(), start, commits);
+                          counter.addAndGet(batch.size());
+                          Metrics.add(Metrics.Counter.TRANSACTIONS, batch.size());
+                        });
+            // Same as below, only this batch holds its place in the pipeline while it waits.
+            return afterWritten(
+                    writes,
+                    written,
+                    seq,
+                    () -> writer.writeAsync(batch, chainQuery(config.keys)))
+                .thenRun(
+                    () ->
+                        checkpoint.commit(
+                            Checkpoint.TRANSACTIONS, seq, batch.globalStep(batch.size() - 1)));
+          });
+      return;
+    }
+    pipeline.submit(
+        () -> {
+          final long start = System.nanoTime();
+          try {
+            writeTransactions(writer, batch, config.writeMode, actors, config.keys);
+            batchSize.committed(batch.size(), start, commits);
+            counter.addAndGet(batch.size());
+            Metrics.add(Metrics.Counter.TRANSACTIONS, batch.size());
+          } catch (RuntimeException e) {
+            // Nothing after this batch may be threaded onto it.
+            written.fail(e);
+            throw e;
+          }
+          written.complete(seq);
+        });
+    // A Client's previous Transaction may be in an earlier batch still being written by another
+    // session, so only thread this batch once everything up to and including it is written.
+    pipeline.submit(
+        () -> {
+          try {
+            written.await(seq);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting to thread batch " + seq, e);
+          }
+          writer.write(batch, chainQuery(config.keys));
+          checkpoint.commit(Checkpoint.TRANSACTIONS, seq, batch.globalStep(batch.size() - 1));
+        });
+  }
+
+  /**
+   * Chain more work onto a batch's writes once they, and those of every batch before it, are done.
+   * If any of them fails, the work is skipped and the returned stage fails, as does any later
+   * batch's, rather than linking onto Transactions that were never written.
+   *
+   * @param writes the batch's writes
+   * @param written tracks which batches are written
+   * @param seq sequence number of the batch
+   * @param next starts the work to do once every batch up to this one is written
+   * @return completes once {@code next} does, or exceptionally with the first failure
+   */
+  static CompletionStage<Void> afterWritten(
+      CompletionStage<Void> writes,
+      Watermark written,
+      long seq,
+      Supplier<CompletionStage<Void>> next) {
+    return writes
+        .whenComplete(
+            (v, t) -> {
+              if (t == null) {
+                written.complete(seq);
+              } else {
+                written.fail(Database.unwrap(t));
+              }
+            })
+        .thenCompose(v -> written.completed(seq))
+        .thenCompose(v -> next.get());
+  }
+
+  /**
+   * Skip a Transaction that's already in the database, keeping track of where it falls in its
+   * Client's chain so the next one is linked to it.
+   *
+   * @param keys actor keys to number any new actor in, so later ones get the same keys as when it
+   *     was written, or null when nodes aren't keyed
+   */
+  private static void fastForward(TxBatch batch, int i, TxChains chains, ActorKeys keys) {
+    if (Util.isClient(batch.senderType(i))) {
+      chains.append(batch.senderId(i), batch.globalStep(i));
+    }
+    if (keys != null) {
+      keys.intern(batch.senderId(i));
+      keys.intern(batch.receiverId(i));
+    }
+  }
+
+  private static void submitLastTransactions(
+      Pipeline pipeline,
+      PartitionedWriter writer,
+      String[] clientIds,
+      long[] lastGlobalSteps,
+      int size,
+      ActorKeys keys,
+      Checkpoint checkpoint,
+      long seq,
+      long linked,
+      AdaptiveBatchSize batchSize) {
+    // looked up here, as nothing else may touch the keys while the writers run
+    final long[] clientKeys = keys == null ? null : new long[size];
+    for (int i = 0; clientKeys != null && i < size; i++) {
+      clientKeys[i] = keys.key(clientIds[i]);
+    }
+    try {
+      pipeline.submit(
+          () -> {
+            final long start = System.nanoTime();
+            final boolean whole =
+                batchSize.write(
+                    0,
+                    size,
+                    (from, to) ->
+                        writer.write(
+                            clientKeys == null
+                                ? BatchEncoder.compileLastTxQuery(
+                                    Arrays.copyOfRange(clientIds, from, to),
+                                    Arrays.copyOfRange(lastGlobalSteps, from, to),
+                                    to - from)
+                                : BatchEncoder.compileKeyedLastTxQuery(
+                                    Arrays.copyOfRange(clientKeys, from, to),
+                                    Arrays.copyOfRange(lastGlobalSteps, from, to),
+                                    to - from)));
+            if (whole) {
+              batchSize.committed(size, start);
+            }
+            checkpoint.commit(Checkpoint.THREADING, seq, linked);
+          });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("interrupted writing LAST_TX relationships", e);
+    }
+  }
+
+  private static void writeLastTransactions(
+      Pipeline pipeline,
+      PartitionedWriter writer,
+      TxChains chains,
+      ActorKeys keys,
+      AdaptiveBatchSize batchSize,
+      Checkpoint checkpoint,
+      long since) {
+    // A resumed load replays the same chains in the same order, so the checkpoint is a count.
+    final long alreadyLinked = Math.max(0, checkpoint.get(Checkpoint.THREADING));
+    final String[][] ids = {new String[batchSize.get()]};
+    final long[][] lasts = {new long[batchSize.get()]};
+    final int[] size = {0};
+    final long[] seen = {0};
+    final long[] seq = {0};
+    chains.forEach(
+        (clientId, first, last) -> {
+          // Clients with nothing new in an incremental load keep the LAST_TX they have.
+          if (last < since) {
+            return;
+          }
+          if (seen[0]++ < alreadyLinked) {
+            return;
+          }
+          ids[0][size[0]] = clientId;
+          lasts[0][size[0]] = last;
+          if (++size[0] == ids[0].length) {
+            submitLastTransactions(
+                pipeline,
+                writer,
+                ids[0],
+                lasts[0],
+                size[0],
+                keys,
+                checkpoint,
+                seq[0]++,
+                seen[0],
+                batchSize);
+            ids[0] = new String[batchSize.get()];
+            lasts[0] = new long[batchSize.get()];
+            size[0] = 0;
+          }
+        });
+    if (size[0] > 0) {
+      submitLastTransactions(
+          pipeline,
+          writer,
+          ids[0],
+          lasts[0],
+          size[0],
+          keys,
+          checkpoint,
+          seq[0],
+          seen[0],
+          batchSize);
+    }
+  }
+
+  /**
+   * Write a list in batches of the current adaptive size, spread over the pipeline's writers.
+   *
+   * @param pipeline Pipeline
+   * @param items items to write
+   * @param batchSize batch size controller
+   * @param seq sequence number of the first batch
+   * @param write writes a batch of items in a single transaction
+   * @param committed called with a batch's sequence number and how many items have been written up
+   *     to and including it, once it commits
+   * @param <T> type of item
+   * @return sequence number of the next batch
+   * @throws InterruptedException if interrupted while waiting for room in the pipeline
+   */
+  private static <T> long submitBatches(
+      Pipeline pipeline,
+      List<T> items,
+      AdaptiveBatchSize batchSize,
+      long seq,
+      Consumer<List<T>> write,
+      BiConsumer<Long, Integer> committed)
+      throws InterruptedException {
+    return submitRanges(
+        pipeline,
+        0,
+        items.size(),
+        batchSize,
+        seq,
+        (from, to) -> write.accept(items.subList(from, to)),
+        committed);
+  }
+
+  /**
+   * Like {@link #submitBatches}, for rows {@code [from, to)} of something that isn't a List.
+   *
+   * @param committed called with a batch's sequence number and the row after its last, once it
+   *     commits
+   */
+  private static long submitRanges(
+      Pipeline pipeline,
+      int from,
+      int to,
+      AdaptiveBatchSize batchSize,
+      long seq,
+      AdaptiveBatchSize.RangeWriter write,
+      BiConsumer<Long, Integer> committed)
+      throws InterruptedException {
+    while (from < to) {
+      final int batchFrom = from;
+      final int batchTo = Math.min(to, from + batchSize.get());
+      final long batchSeq = seq++;
+      pipeline.submit(
+          () -> {
+            final long start = System.nanoTime();
+            if (batchSize.write(batchFrom, batchTo, write)) {
+              batchSize.committed(batchTo - batchFrom, start);
+            }
+            committed.accept(batchSeq, batchTo);
+          });
+      from = batchTo;
+    }
+    return seq;
+  }
+
+  /**
+   * Create each Client's SSN, Email and Phone and link the Client to them.
+   *
+   * <p>Fraudsters share identities between Clients, so the identity nodes are created first, by
+   * themselves. Each value is hashed to one of {@code parallelism} partitions, and each partition
+   * is written by a single session, so no two sessions ever race to MERGE the same node and no set
+   * of every distinct value is needed. Linking the Clients can then be spread over several sessions
+   * too.
+   *
+   * @param clients Clients, as made by {@link ActorStore#ofClients}
+   * @param first first Client to write, as the ones before it are in the graph already
+   * @param keys keys to give the Clients, or null to leave them unkeyed
+   */
+  private static void writeIdentities(
+      Driver driver,
+      Config config,
+      ActorStore clients,
+      int first,
+      ActorKeys keys,
+      Checkpoint checkpoint)
+      throws InterruptedException {
+    final int done =
+        (int)
+            Math.min(
+                clients.size(), Math.max(first, checkpoint.get(Checkpoint.IDENTITIES)));
+    if (done == clients.size()) {
+      return;
+    }
+    final Map<String, Integer> identityNodes = new LinkedHashMap<>();
+    identityNodes.put(Cypher.MERGE_SSNS, ActorStore.SSN);
+    identityNodes.put(Cypher.MERGE_EMAILS, ActorStore.EMAIL);
+    identityNodes.put(Cypher.MERGE_PHONES, ActorStore.PHONE_NUMBER);
+
+    final AdaptiveBatchSize nodeBatchSize =
+        AdaptiveBatchSize.of(config, "identity nodes", config.batchSize);
+    final int partitions = Math.max(config.parallelism, 1);
+    try (Pipeline pipeline = new Pipeline(partitions, 0)) {
+      for (int p = 0; p < partitions; p++) {
+        final int partition = p;
+        pipeline.submit(
+            () ->
+                identityNodes.forEach(
+                    (cypher, column) -> {
+                      final List<String> values = new ArrayList<>();
+                      final Consumer<List<String>> write =
+                          batch ->
+                              Database.executeWithRetry(
+                                  driver,
+                                  BatchEncoder.compileIdentityNodeQuery(cypher, batch),
+                                  config.maxRetries);
+                      for (int row = done; row < clients.size(); row++) {
+                        if (Math.floorMod(clients.hash(row, column), partitions) != partition) {
+                          continue;
+                        }
+                        final String value = clients.get(row, column);
+                        if (value != null) {
+                          values.add(value);
+                        }
+                        if (values.size() >= nodeBatchSize.get()) {
+                          nodeBatchSize.forEachBatch(values, write);
+                          values.clear();
+                        }
+                      }
+                      nodeBatchSize.forEachBatch(values, write);
+                    }));
+      }
+    }
+    logger.info("[{}]", nodeBatchSize);
+
+    final AdaptiveBatchSize batchSize =
+        AdaptiveBatchSize.of(config, "identities", config.batchSize);
+    try (Pipeline pipeline = new Pipeline(config.parallelism, config.pipelineDepth)) {
+      submitRanges(
+          pipeline,
+          done,
+          clients.size(),
+          batchSize,
+          // under actorsFirst, this is the second pass, and carries on from the first
+          checkpoint.committed(Checkpoint.IDENTITIES),
+          (from, to) ->
+              Database.executeWithRetry(
+                  driver,
+                  BatchEncoder.compileIdentityQuery(clients, keys, from, to),
+                  config.maxRetries),
+          (seq, to) -> checkpoint.commit(Checkpoint.IDENTITIES, seq, to));
+    }
+    logger.info("[{}]", batchSize);
+  }
+
+  /**
+   * Set the extra properties of Merchants and Banks, one label at a time so each batch is a single
+   * parameterized statement, spread over several sessions.
+   *
+   * @param create whether to create the actors, too, rather than update ones the Transactions made
+   * @param keys keys to give the actors they're created with, or null to leave them unkeyed
+   */
+  private static void writeProperties(
+      Driver driver,
+      Config config,
+      List<SuperActor> actors,
+      Shard shard,
+      Checkpoint checkpoint,
+      boolean create,
+      ActorKeys keys)
+      throws InterruptedException {
+    final Map<String, List<SuperActor>> byLabel =
+        actors.stream()
+            .collect(
+                Collectors.groupingBy(
+                    actor -> Util.actorLabel(actor.getType()),
+                    LinkedHashMap::new,
+                    Collectors.toList()));
+    // A resumed load groups the same actors in the same order, so the checkpoint is a count.
+    final long done = Math.max(0, checkpoint.get(Checkpoint.PROPERTIES));
+    final AdaptiveBatchSize batchSize =
+        AdaptiveBatchSize.of(config, "properties", config.batchSize);
+    try (Pipeline pipeline = new Pipeline(config.parallelism, config.pipelineDepth)) {
+      long offset = 0;
+      long seq = checkpoint.committed(Checkpoint.PROPERTIES);
+      for (Map.Entry<String, List<SuperActor>> group : byLabel.entrySet()) {
+        final List<SuperActor> members = group.getValue();
+        final int skip = (int) Math.min(members.size(), Math.max(0, done - offset));
+        final long start = offset + skip;
+        seq =
+            submitBatches(
+                pipeline,
+                members.subList(skip, members.size()),
+                batchSize,
+                seq,
+                batch ->
+                    Database.executeWithRetry(
+                        driver,
+                        !create
+                            ? BatchEncoder.compilePropertyUpdateQuery(group.getKey(), batch, shard)
+                            : keys == null
+                                ? BatchEncoder.compileActorNodeQuery(group.getKey(), batch, shard)
+                                : BatchEncoder.compileKeyedActorNodeQuery(
+                                    group.getKey(), batch, shard, keys),
+                        config.maxRetries),
+                (s, n) -> checkpoint.commit(Checkpoint.PROPERTIES, s, start + n));
+        offset += members.size();
+      }
+    }
+    logger.info("[{}]", batchSize);
+  }
+
+  private static List<SuperActor> merchantsAndBanks(IteratingPaySim sim) {
+    return Stream.concat(sim.getMerchants().stream(), sim.getBanks().stream())
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Write the simulation's starting population in full, with identities and properties, before
+   * any Transactions. The Transaction writes then only MATCH these actors instead of MERGEing
+   * every sender and receiver.
+   *
+   * @return every actor written, numbered for {@code --keys}
+   */
+  private static ActorKeys writeActors(
+      Driver driver, Config config, IteratingPaySim sim, Shard shard, Checkpoint checkpoint)
+      throws InterruptedException {
+    final ActorStore clients = ActorStore.ofClients(sim.getClients(), shard);
+    final List<SuperActor> others = merchantsAndBanks(sim);
+    if (clients.size() == 0 || others.isEmpty()) {
+      throw new IllegalStateException("the simulation has no population to write up front");
+    }
+    final ActorKeys actors = actorIds(clients, others, shard);
+    final ActorKeys keys = config.keys ? actors : null;
+    writeIdentities(driver, config, clients, 0, keys, checkpoint);
+    writeProperties(driver, config, others, shard, checkpoint, true, keys);
+    return actors;
+  }
+
+  /** @return the starting population, always numbered in the same order */
+  private static ActorKeys actorIds(ActorStore clients, List<SuperActor> others, Shard shard) {
+    final ActorKeys ids = new ActorKeys(shard, clients.size() + others.size());
+    for (int row = 0; row < clients.size(); row++) {
+      ids.intern(clients.get(row, ActorStore.ID));
+    }
+    others.forEach(actor -> ids.intern(shard.id(actor.getId())));
+    ids.sealPopulation();
+    return ids;
+  }
+
+  /** Open the snapshot to replay instead of simulating, if there is one. */
+  private static Snapshot.Reader openSnapshot(Config config, Shard shard) throws IOException {
+    if (config.snapshot == null) {
+      return null;
+    }
+    final Path path = Paths.get(shard.fileName(config.snapshot));
+    final Snapshot.Reader replay =
+        Snapshot.open(path, Checkpoint.fingerprint(config.propertiesFile, shard));
+    logger.info("Replaying {} transactions from snapshot {}", replay.size(), path);
+    return replay;
+  }
+
+  /**
+   * Add the next Transaction to a batch with room for it, replayed from the snapshot if there is
+   * one, or else from the (running) simulation.
+   *
+   * @return false once there are no Transactions left
+   */
+  private static boolean addNext(TxBatch batch, IteratingPaySim sim, Snapshot.Reader replay) {
+    if (replay != null) {
+      if (!replay.hasNext()) {
+        return false;
+      }
+      batch.add(replay.next());
+    } else {
+      if (!sim.hasNext()) {
+        return false;
+      }
+      batch.add(sim.next());
+    }
+    return true;
+  }
+
+  public static void runSnapshot(Config config) throws IOException {
+    final Shard shard = new Shard(config.shardIndex, config.shards);
+    final IteratingPaySim sim =
+        new IteratingPaySim(
+            new Parameters(shard.writeProperties(config.propertiesFile)), config.queueDepth);
+    final Path path = Paths.get(shard.fileName(config.snapshot));
+    final ZonedDateTime start = ZonedDateTime.now();
+    long cnt = 0;
+
+    try (Snapshot.Writer writer =
+        Snapshot.create(path, Checkpoint.fingerprint(config.propertiesFile, shard))) {
+      logger.info("Recording {} to {}", shard, path);
+      sim.run();
+      while (sim.hasNext()) {
+        writer.write(sim.next());
+      }
+      cnt = writer.count();
+      // Mules only join the population while the simulation runs, so the Clients come last.
+      writer.finish(ActorStore.ofClients(sim.getClients(), shard));
+    } catch (Exception e) {
+      logger.error("EXCEPTION while recording snapshot", e);
+      try {
+        sim.abort();
+      } catch (IllegalStateException ise) {
+        logger.warn("sim already aborted!");
+      }
+      throw e;
+    }
+
+    final Duration delta = Duration.between(start, ZonedDateTime.now());
+    logger.info(
+        String.format(
+            "Recorded %d transactions in %dm %ds",
+            cnt,
+            delta.toMinutes(),
+            Util.toSecondsPart(delta)));
+  }
+
+  public static void runBolt(Config config) throws IOException {
+    // Shards can share a database, so ids and globalSteps are made globally unique per shard.
+    final Shard shard = new Shard(config.shardIndex, config.shards);
+    IteratingPaySim sim =
+        new IteratingPaySim(
+            new Parameters(shard.writeProperties(config.propertiesFile)), config.queueDepth);
+    final Checkpoint checkpoint =
+        Checkpoint.open(
+            Paths.get(shard.fileName(config.checkpointFile)),
+            Checkpoint.fingerprint(config.propertiesFile, shard),
+            config.resume);
+    final Snapshot.Reader replay = openSnapshot(config, shard);
 
-    final List<Transaction> batch = new ArrayList<>(config.batchSize);
     final ZonedDateTime start = ZonedDateTime.now();
     final AtomicInteger atom = new AtomicInteger(0);
+    Metrics.registerMBean();
+    final Metrics.Reporter reporter = Metrics.startReporting(config.metricsInterval);
 
     try (Driver driver =
         Database.connect(config.boltUri, config.username, config.password, config.useEncryption)) {
-      Database.enforcePaySimSchema(driver);
+      final boolean deferIndexes = Config.INDEXES_DEFERRED.equals(config.indexes);
+      final List<String> schema = new ArrayList<>(Arrays.asList(Cypher.SCHEMA_QUERIES));
+      // everything the load itself never looks anything up by
+      final List<String> deferredSchema =
+          new ArrayList<>(Arrays.asList(Cypher.LABEL_ID_CONSTRAINT_QUERIES));
+      deferredSchema.addAll(Arrays.asList(Cypher.ANALYTIC_INDEX_QUERIES));
+      if (config.keys) {
+        schema.add(Cypher.KEY_SCHEMA_QUERY);
+      }
+      if (!deferIndexes) {
+        schema.addAll(deferredSchema);
+      } else if (config.resume) {
+        // Rolling back what the last run left half written looks Transactions up by globalStep.
+        deferredSchema.remove(Cypher.TRANSACTION_GLOBAL_STEP_INDEX);
+        schema.add(Cypher.TRANSACTION_GLOBAL_STEP_INDEX);
+      }
+      long phaseStart = System.nanoTime();
+      Database.enforcePaySimSchema(driver, schema, config.schemaTimeout);
+      Metrics.phase("schema", phaseStart);
 
       try {
-        sim.run();
-        logger.info(
-            "Simulation started using PaySim v{}, load commencing...please, be patient! :-)",
-            PaySimState.PAYSIM_VERSION);
-        // Batch up Queries based on our Transaction stream for execution
-        sim.forEachRemaining(
-            t -> {
-              batch.add(t);
-
-              if (batch.size() >= config.batchSize) {
-                Database.execute(driver, Util.compileNodeTransactionQuery(batch));
-                Database.execute(
-                    driver,
-                    Util.compileBulkTransactionQuery(Cypher.BULK_TX_PERFORMED_QUERY_STRING, batch));
-                Database.execute(
-                    driver,
-                    Util.compileBulkTransactionQuery(Cypher.BULK_TX_TO_QUERY_STRING, batch));
-                atom.addAndGet(batch.size());
-                batch.clear();
+        if (config.keys && config.fromStep > 0) {
+          // The earlier steps' Transactions and actors would never be MATCHed by key, so the new
+          // ones would silently go unlinked.
+          final Optional<String> unkeyed = Database.findUnkeyedNode(driver);
+          if (unkeyed.isPresent()) {
+            throw new IllegalStateException(
+                String.format(
+                    "--%s can only extend a graph loaded with it, but node %s has no key",
+                    Config.KEY_KEYS, unkeyed.get()));
+          }
+        }
+        if (checkpoint.isResumed()) {
+          // Anything past the checkpoint may be half written, so clear it out and write it again.
+          // Batches commit out of order, so that goes for a run that never checkpointed any.
+          Database.deleteTransactionsAfter(
+              driver,
+              checkpoint.get(Checkpoint.TRANSACTIONS),
+              config.fromStep,
+              shard,
+              config.batchSize);
+        } else if (config.resume) {
+          logger.info("Nothing was checkpointed, so there's nothing to roll back");
+        }
+        // The population exists as soon as the simulation is created, and only Mules join it once
+        // it's running.
+        ActorKeys actors = new ActorKeys(shard);
+        final int population = sim.getClients().size();
+        final boolean incremental = config.fromStep > 0;
+        if (incremental) {
+          logger.info("Loading steps {} on into the existing graph", config.fromStep);
+        }
+        if (config.actorsFirst && incremental) {
+          // written by the load that began the graph
+          actors =
+              actorIds(
+                  ActorStore.ofClients(sim.getClients(), shard), merchantsAndBanks(sim), shard);
+        } else if (config.actorsFirst) {
+          logger.info("Writing Clients, Merchants and Banks up front...");
+          phaseStart = System.nanoTime();
+          actors = writeActors(driver, config, sim, shard, checkpoint);
+          Metrics.phase("actors", phaseStart);
+        }
+
+        phaseStart = System.nanoTime();
+        if (replay == null) {
+          sim.run();
+          logger.info(
+              "Simulation started using PaySim v{} for {}, load commencing...please, be patient!"
+                  + " :-)",
+              PaySimState.PAYSIM_VERSION,
+              shard);
+        }
+        if (config.async) {
+          logger.info(
+              "Writing in '{}' mode asynchronously with up to {} batch(es) in flight, {}"
+                  + " relationship partition(s)",
+              config.writeMode,
+              Math.max(config.inFlight, config.parallelism),
+              config.partitions);
+        } else {
+          logger.info(
+              "Writing in '{}' mode with {} session(s), up to {} batch(es) queued, {} relationship"
+                  + " partition(s)",
+              config.writeMode,
+              config.parallelism,
+              config.pipelineDepth,
+              config.partitions);
+        }
+
+        // Each Client's chain of Transactions is tracked as the stream is consumed, so the
+        // FIRST_TX, NEXT and LAST_TX relationships can be created directly instead of having the
+        // database sort every Client's Transactions afterwards.
+        final TxChains chains = new TxChains();
+        final Watermark written = new Watermark();
+        final AdaptiveBatchSize txBatchSize =
+            AdaptiveBatchSize.of(config, "transactions", config.batchSize);
+        final ActorStore clients;
+        final List<SuperActor> others;
+        // globalStep of the first Transaction this load is meant to write
+        long windowStart = Long.MAX_VALUE;
+
+        try (PartitionedWriter writer =
+            new PartitionedWriter(driver, config.partitions, config.maxRetries, txBatchSize)) {
+          // Batch up the Transaction stream and hand each batch off to the writer pool so the
+          // simulation keeps running while the database works.
+          // Async writes don't tie up a writer thread while they wait on the database, so the
+          // pipeline's whole capacity is the number of batches in flight.
+          try (Pipeline pipeline =
+              new Pipeline(
+                  config.parallelism,
+                  config.async ? config.inFlight - config.parallelism : config.pipelineDepth)) {
+            // Batches dropped after a failure never complete, so don't wait on them.
+            pipeline.onFailure(written::fail);
+            final long committed = checkpoint.get(Checkpoint.TRANSACTIONS);
+            long skipped = 0;
+            TxBatch batch = new TxBatch(txBatchSize.get(), shard);
+            long seq = 0;
+            // Timed once per batch, as timing every Transaction would cost more than it measures.
+            long fillStart = System.nanoTime();
+            while (addNext(batch, sim, replay)) {
+              final int last = batch.size() - 1;
+              final long globalStep = batch.globalStep(last);
+              if (windowStart == Long.MAX_VALUE && batch.step(last) >= config.fromStep) {
+                windowStart = globalStep;
+              }
+              // The stream is in globalStep order, so a seeded sim replays earlier steps and
+              // committed work first. They're only followed to pick up each Client's chain.
+              if (batch.step(last) < config.fromStep || globalStep <= committed) {
+                fastForward(batch, last, chains, config.keys ? actors : null);
+                batch.removeLast();
+                skipped++;
+                continue;
               }
-            });
 
-        // Anything left over?
-        if (batch.size() > 0) {
-          Database.execute(driver, Util.compileNodeTransactionQuery(batch));
-          Database.execute(
-              driver,
-              Util.compileBulkTransactionQuery(Cypher.BULK_TX_PERFORMED_QUERY_STRING, batch));
-          Database.execute(
-              driver, Util.compileBulkTransactionQuery(Cypher.BULK_TX_TO_QUERY_STRING, batch));
-          atom.addAndGet(batch.size());
+              if (batch.isFull()) {
+                Metrics.record(Metrics.Stage.SIM_WAIT, fillStart);
+                submitTransactions(
+                    pipeline,
+                    writer,
+                    batch,
+                    seq++,
+                    written,
+                    chains,
+                    config,
+                    actors,
+                    atom,
+                    checkpoint,
+                    txBatchSize);
+                batch = new TxBatch(txBatchSize.get(), shard);
+                fillStart = System.nanoTime();
+              }
+            }
+
+            // Anything left over?
+            if (!batch.isEmpty()) {
+              Metrics.record(Metrics.Stage.SIM_WAIT, fillStart);
+              submitTransactions(
+                  pipeline,
+                  writer,
+                  batch,
+                  seq,
+                  written,
+                  chains,
+                  config,
+                  actors,
+                  atom,
+                  checkpoint,
+                  txBatchSize);
+            }
+            if (skipped > 0) {
+              logger.info("[skipped {} transactions already in the graph]", skipped);
+            }
+          }
+          Metrics.phase("transactions", phaseStart);
+          logger.info("[{}]", txBatchSize);
+          logger.info(String.format("[loaded %d PaySim transactions]", atom.get()));
+          logger.info(
+              String.format(
+                  "[estimated load rate: %.2f PaySim-transactions/second]",
+                  (float) atom.get()
+                      / Util.toSeconds(Duration.between(start, ZonedDateTime.now()))));
+
+          // The rest of the load only needs the Clients' ids and identities, so copy those off the
+          // heap and let go of the simulation's object graph.
+          clients =
+              replay != null ? replay.clients() : ActorStore.ofClients(sim.getClients(), shard);
+          others = merchantsAndBanks(sim);
+          sim = null;
+
+          logger.info("Linking {} Clients to their last transaction...", chains.size());
+          phaseStart = System.nanoTime();
+          final AdaptiveBatchSize threadingBatchSize =
+              AdaptiveBatchSize.of(config, "threading", config.batchSize);
+          try (Pipeline pipeline = new Pipeline(config.parallelism, config.pipelineDepth)) {
+            writeLastTransactions(
+                pipeline,
+                writer,
+                chains,
+                config.keys ? actors : null,
+                threadingBatchSize,
+                checkpoint,
+                windowStart);
+          }
+          Metrics.phase("threading", phaseStart);
+          logger.info("[{}]", threadingBatchSize);
         }
-        logger.info(String.format("[loaded %d PaySim transactions]", atom.get()));
-        logger.info(
-            String.format(
-                "[estimated load rate: %.2f PaySim-transactions/second]",
-                (float) atom.get() / Util.toSeconds(Duration.between(start, ZonedDateTime.now()))));
 
         logger.info("Creating 'identity' materials associated with Client accounts...");
-        Lists.partition(sim.getClients(), config.batchSize)
-            .forEach(
-                chunk -> {
-                  List<Query> queries =
-                      chunk.stream()
-                          .map(
-                              client -> Util.compileClientIdentityQuery(client.getClientIdentity()))
-                          .collect(Collectors.toList());
-                  Database.executeBatch(driver, queries);
-                });
-
-        logger.info("Setting any extra node properties for Merchants and Banks...");
-        List<SuperActor> allActors =
-            Stream.concat(sim.getMerchants().stream(), sim.getBanks().stream())
-                .collect(Collectors.toList());
-        Lists.partition(allActors, config.batchSize)
-            .forEach(
-                chunk -> {
-                  List<Query> queries =
-                      chunk.stream()
-                          .map(Util::compilePropertyUpdateQuery)
-                          .collect(Collectors.toList());
-                  Database.executeBatch(driver, queries);
-                });
-
-        logger.info("Threading transactions...");
-        final List<String> ids = Database.getClientIds(driver);
-        Lists.partition(ids, (config.batchSize / 10))
-            .forEach(
-                chunk -> {
-                  Query query =
-                      new Query(
-                          Cypher.THREAD_TRANSACTIONS_IN_BATCH, Values.parameters("ids", chunk));
-                  Database.execute(driver, query);
-                });
+        phaseStart = System.nanoTime();
+        // The population is fixed when the simulation starts, so an incremental load finds it in
+        // the graph already. Mules join as it runs, and the ones that joined before fromStep are
+        // MERGEd again along with the new ones.
+        writeIdentities(
+            driver,
+            config,
+            clients,
+            incremental ? population : 0,
+            config.keys ? actors : null,
+            checkpoint);
+        Metrics.phase("identities", phaseStart);
+
+        if (incremental) {
+          logger.info("Skipping properties, written by an earlier load");
+        } else {
+          logger.info("Setting any extra node properties for Merchants and Banks...");
+          phaseStart = System.nanoTime();
+          writeProperties(driver, config, others, shard, checkpoint, false, null);
+          Metrics.phase("properties", phaseStart);
+        }
+
+        if (deferIndexes) {
+          logger.info(
+              "Building the remaining {} constraints and indexes...", deferredSchema.size());
+          phaseStart = System.nanoTime();
+          Database.enforcePaySimSchema(driver, deferredSchema, config.schemaTimeout);
+          Metrics.phase("indexes", phaseStart);
+        }
 
       } catch (Exception e) {
         logger.error("EXCEPTION while loading data", e);
+        logger.error("Progress is checkpointed ({}), re-run with --resume to continue", checkpoint);
         try {
-          sim.abort();
+          if (sim != null && replay == null) {
+            sim.abort();
+          }
         } catch (IllegalStateException ise) {
           logger.warn("sim already aborted!");
         }
       }
+    } finally {
+      // even if e.g. the database can't be reached, so the final report still gets logged and a
+      // replay that stops early doesn't keep its file open
+      reporter.close();
+      if (replay != null) {
+        replay.close();
+      }
     }
 
     Duration delta = Duration.between(start, ZonedDateTime.now());
@@ -0,0 +1,158 @@
+package io.sisu.paysim;
+
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.paysim.actors.Client;
+import org.paysim.actors.SuperActor;
+import org.paysim.identity.ClientIdentity;
+import org.paysim.identity.Properties;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Typed Arrow layouts for the {@code csv} command's {@code arrow} format, matching the columns of
+ * {@link CsvExport}.
+ */
+public class ArrowExport {
+  private static final ArrowType UTF8 = ArrowTable.UTF8;
+  private static final ArrowType INT64 = ArrowTable.INT64;
+  private static final ArrowType FLOAT64 = ArrowTable.FLOAT64;
+  private static final ArrowType BOOL = ArrowTable.BOOL;
+
+  public static final List<Field> TRANSACTION_FIELDS =
+      Arrays.asList(
+          ArrowTable.field("step", INT64),
+          ArrowTable.field("globalStep", INT64),
+          ArrowTable.field("action", UTF8),
+          ArrowTable.field("amount", FLOAT64),
+          ArrowTable.field("idOrig", UTF8),
+          ArrowTable.field("origType", UTF8),
+          ArrowTable.field("oldBalanceOrig", FLOAT64),
+          ArrowTable.field("newBalanceOrig", FLOAT64),
+          ArrowTable.field("idDest", UTF8),
+          ArrowTable.field("destType", UTF8),
+          ArrowTable.field("oldBalanceDest", FLOAT64),
+          ArrowTable.field("newBalanceDest", FLOAT64),
+          ArrowTable.field("isFraud", BOOL),
+          ArrowTable.field("isFlaggedFraud", BOOL));
+
+  public static final List<Field> CLIENT_FIELDS =
+      Arrays.asList(
+          ArrowTable.field("id", UTF8),
+          ArrowTable.field("type", UTF8),
+          ArrowTable.field("name", UTF8),
+          ArrowTable.field("ssn", UTF8),
+          ArrowTable.field("email", UTF8),
+          ArrowTable.field("phoneNumber", UTF8));
+
+  public static ArrowTable newTransactionTable(Path path) throws IOException {
+    return new ArrowTable(path, TRANSACTION_FIELDS);
+  }
+
+  /** Write a batch of Transactions as a single record batch. */
+  public static void writeTransactions(ArrowTable table, TxBatch batch) throws IOException {
+    for (int i = 0; i < batch.size(); i++) {
+      table.setLong(0, i, batch.step(i));
+      table.setLong(1, i, batch.globalStep(i));
+      table.setString(2, i, batch.action(i));
+      table.setDouble(3, i, batch.amount(i));
+      table.setString(4, i, batch.senderId(i));
+      table.setString(5, i, batch.senderType(i).toString());
+      table.setDouble(6, i, batch.oldBalanceOrig(i));
+      table.setDouble(7, i, batch.newBalanceOrig(i));
+      table.setString(8, i, batch.receiverId(i));
+      table.setString(9, i, batch.receiverType(i).toString());
+      table.setDouble(10, i, batch.oldBalanceDest(i));
+      table.setDouble(11, i, batch.newBalanceDest(i));
+      table.setBool(12, i, batch.fraud(i));
+      table.setBool(13, i, batch.flaggedFraud(i));
+    }
+    table.flush(batch.size());
+  }
+
+  /**
+   * Write Clients, flushing a record batch every {@code batchSize} rows.
+   *
+   * @param path output file
+   * @param clients Clients
+   * @param batchSize rows per record batch
+   * @param shard shard the Clients come from
+   * @throws IOException on failure to write
+   */
+  public static void writeClients(Path path, List<Client> clients, int batchSize, Shard shard)
+      throws IOException {
+    try (ArrowTable table = new ArrowTable(path, CLIENT_FIELDS)) {
+      int row = 0;
+      for (Client client : clients) {
+        final ClientIdentity identity = client.getClientIdentity();
+        table.setString(0, row, shard.id(client.getId()));
+        table.setString(1, row, client.getType().toString());
+        table.setString(2, row, identity.name);
+        table.setString(3, row, identity.ssn);
+        table.setString(4, row, identity.email);
+        table.setString(5, row, identity.phoneNumber);
+        if (++row == batchSize) {
+          table.flush(row);
+          row = 0;
+        }
+      }
+      table.flush(row);
+    }
+  }
+
+  /**
+   * Write Merchants or Banks, with a column for every identity property any of them has. Each
+   * column is typed by the first non-null value seen for it.
+   *
+   * @param path output file
+   * @param actors actors of a single type
+   * @param batchSize rows per record batch
+   * @param shard shard the actors come from
+   * @throws IOException on failure to write
+   */
+  public static void writeActors(
+      Path path, List<? extends SuperActor> actors, int batchSize, Shard shard)
+      throws IOException {
+    final TreeMap<String, ArrowType> columns = new TreeMap<>();
+    actors.forEach(
+        actor ->
+            actor
+                .getIdentityAsMap()
+                .forEach(
+                    (key, value) -> {
+                      if (value != null) {
+                        columns.putIfAbsent(key, ArrowTable.typeOf(value));
+                      }
+                    }));
+    columns.remove(Properties.ID);
+
+    final List<Field> fields = new ArrayList<>();
+    fields.add(ArrowTable.field("id", UTF8));
+    fields.add(ArrowTable.field("type", UTF8));
+    columns.forEach((name, type) -> fields.add(ArrowTable.field(name, type)));
+
+    try (ArrowTable table = new ArrowTable(path, fields)) {
+      int row = 0;
+      for (SuperActor actor : actors) {
+        final Map<String, Object> props = actor.getIdentityAsMap();
+        table.setString(0, row, shard.id(actor.getId()));
+        table.setString(1, row, actor.getType().toString());
+        int column = 2;
+        for (String name : columns.keySet()) {
+          table.setValue(column++, row, props.get(name));
+        }
+        if (++row == batchSize) {
+          table.flush(row);
+          row = 0;
+        }
+      }
+      table.flush(row);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package io.sisu.paysim;
+
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.compression.CompressionUtil;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.ipc.message.IpcOption;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A zstd-compressed Arrow IPC file written one record batch at a time.
+ *
+ * <p>Callers fill up to {@code n} rows via the setters and then call {@link #flush(int)}, which
+ * writes them out as a record batch and resets the vectors. Only a single record batch is ever held
+ * in memory.
+ */
+public class ArrowTable implements AutoCloseable {
+  public static final ArrowType UTF8 = ArrowType.Utf8.INSTANCE;
+  public static final ArrowType BOOL = ArrowType.Bool.INSTANCE;
+  public static final ArrowType INT64 = new ArrowType.Int(64, true);
+  public static final ArrowType FLOAT64 =
+      new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+
+  private final BufferAllocator allocator;
+  private final VectorSchemaRoot root;
+  private final FileChannel channel;
+  private final ArrowFileWriter writer;
+
+  public ArrowTable(Path path, List<Field> fields) throws IOException {
+    this.allocator = new RootAllocator(Long.MAX_VALUE);
+    this.root = VectorSchemaRoot.create(new Schema(fields), allocator);
+    this.channel =
+        FileChannel.open(
+            path,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+    this.writer =
+        new ArrowFileWriter(
+            root,
+            null,
+            channel,
+            Collections.emptyMap(),
+            IpcOption.DEFAULT,
+            CommonsCompressionFactory.INSTANCE,
+            CompressionUtil.CodecType.ZSTD);
+    writer.start();
+    root.allocateNew();
+  }
+
+  public static Field field(String name, ArrowType type) {
+    return Field.nullable(name, type);
+  }
+
+  /**
+   * Pick the Arrow type for an identity property value, falling back to a String.
+   *
+   * @param value a sample value, possibly null
+   * @return ArrowType
+   */
+  public static ArrowType typeOf(Object value) {
+    if (value instanceof Boolean) {
+      return BOOL;
+    } else if (value instanceof Long || value instanceof Integer) {
+      return INT64;
+    } else if (value instanceof Double || value instanceof Float) {
+      return FLOAT64;
+    }
+    return UTF8;
+  }
+
+  public void setString(int column, int row, String s) {
+    if (s != null) {
+      ((VarCharVector) root.getVector(column)).setSafe(row, s.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  public void setLong(int column, int row, long n) {
+    ((BigIntVector) root.getVector(column)).setSafe(row, n);
+  }
+
+  public void setDouble(int column, int row, double d) {
+    ((Float8Vector) root.getVector(column)).setSafe(row, d);
+  }
+
+  public void setBool(int column, int row, boolean b) {
+    ((BitVector) root.getVector(column)).setSafe(row, b ? 1 : 0);
+  }
+
+  /** Set any value according to the column's vector type. Nulls are left unset. */
+  public void setValue(int column, int row, Object value) {
+    if (value == null) {
+      return;
+    }
+    final FieldVector vector = root.getVector(column);
+    if (vector instanceof BitVector && value instanceof Boolean) {
+      setBool(column, row, (Boolean) value);
+    } else if (vector instanceof BigIntVector && value instanceof Number) {
+      setLong(column, row, ((Number) value).longValue());
+    } else if (vector instanceof Float8Vector && value instanceof Number) {
+      setDouble(column, row, ((Number) value).doubleValue());
+    } else if (vector instanceof VarCharVector) {
+      setString(column, row, value.toString());
+    }
+  }
+
+  /**
+   * Write the first {@code rows} rows out as a record batch.
+   *
+   * @param rows number of rows filled since the last flush
+   * @throws IOException on failure to write
+   */
+  public void flush(int rows) throws IOException {
+    if (rows == 0) {
+      return;
+    }
+    root.setRowCount(rows);
+    writer.writeBatch();
+    root.allocateNew();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (BufferAllocator a = allocator;
+        VectorSchemaRoot r = root;
+        FileChannel c = channel;
+        ArrowFileWriter w = writer) {
+      w.end();
+    }
+  }
+}
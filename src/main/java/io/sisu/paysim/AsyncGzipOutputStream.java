@@ -0,0 +1,139 @@
+package io.sisu.paysim;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gzip OutputStream that does its deflating on a background thread.
+ *
+ * <p>Writes are copied into fixed-size chunks. Full chunks are handed to the compressor thread and
+ * empty ones are recycled back, so the writing thread only ever does a memory copy unless the
+ * compressor falls more than {@code chunks} chunks behind.
+ */
+public class AsyncGzipOutputStream extends OutputStream {
+  private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+  private static final int DEFAULT_CHUNKS = 4;
+  private static final byte[] EOF = new byte[0];
+
+  private final BlockingQueue<byte[]> full;
+  private final BlockingQueue<byte[]> free;
+  private final int[] fullLengths;
+  private final Thread compressor;
+  private volatile IOException failure = null;
+
+  private byte[] chunk;
+  private int pos = 0;
+  private int fullIdx = 0;
+  private boolean closed = false;
+
+  public AsyncGzipOutputStream(Path path) throws IOException {
+    this(path, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNKS);
+  }
+
+  public AsyncGzipOutputStream(Path path, int chunkSize, int chunks) throws IOException {
+    final OutputStream out = new GZIPOutputStream(Files.newOutputStream(path), 1 << 16);
+    this.full = new ArrayBlockingQueue<>(chunks + 1);
+    this.free = new ArrayBlockingQueue<>(chunks);
+    this.fullLengths = new int[chunks + 1];
+    for (int i = 0; i < chunks - 1; i++) {
+      free.add(new byte[chunkSize]);
+    }
+    this.chunk = new byte[chunkSize];
+
+    this.compressor =
+        new Thread(
+            () -> {
+              int idx = 0;
+              try (OutputStream gzip = out) {
+                while (true) {
+                  byte[] next = full.take();
+                  if (next == EOF) {
+                    break;
+                  }
+                  gzip.write(next, 0, fullLengths[idx]);
+                  idx = (idx + 1) % fullLengths.length;
+                  free.put(next);
+                }
+              } catch (IOException e) {
+                failure = e;
+              } catch (InterruptedException e) {
+                failure = new InterruptedIOException("compressor interrupted");
+              } finally {
+                // unblock a writer waiting on a free chunk
+                free.offer(new byte[0]);
+              }
+            },
+            "paysim-gzip-" + path.getFileName());
+    this.compressor.setDaemon(true);
+    this.compressor.start();
+  }
+
+  private void checkFailure() throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void handOff() throws IOException {
+    checkFailure();
+    try {
+      // lengths are consumed in the same order chunks are queued, so a ring buffer is enough
+      fullLengths[fullIdx] = pos;
+      fullIdx = (fullIdx + 1) % fullLengths.length;
+      full.put(chunk);
+      chunk = free.take();
+      pos = 0;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted handing off to compressor");
+    }
+    checkFailure();
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    if (pos == chunk.length) {
+      handOff();
+    }
+    chunk[pos++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      if (pos == chunk.length) {
+        handOff();
+      }
+      final int n = Math.min(len, chunk.length - pos);
+      System.arraycopy(b, off, chunk, pos, n);
+      pos += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (pos > 0) {
+      handOff();
+    }
+    try {
+      full.put(EOF);
+      compressor.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted waiting on compressor");
+    }
+    checkFailure();
+  }
+}
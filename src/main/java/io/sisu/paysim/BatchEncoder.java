@@ -0,0 +1,473 @@
+package io.sisu.paysim;
+
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+import org.neo4j.driver.Values;
+import org.paysim.actors.SuperActor;
+import org.paysim.identity.Properties;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Encodes a {@link TxBatch} straight into driver Values, one list per column, for the columnar
+ * queries in {@link Cypher}.
+ *
+ * <p>Compared to the map-per-row encoding in {@link Util}, there are no intermediate maps or
+ * formatted id strings: Transaction ids are derived from the globalStep on the server and the
+ * label Values are shared between rows and batches.
+ */
+public class BatchEncoder {
+  private static final ConcurrentMap<String, Value> LABEL_VALUES = new ConcurrentHashMap<>();
+  private static final ConcurrentMap<String, String> ACTOR_QUERIES = new ConcurrentHashMap<>();
+
+  private static Value label(String label) {
+    return LABEL_VALUES.computeIfAbsent(label, Values::value);
+  }
+
+  public static Value globalSteps(TxBatch batch) {
+    return Values.value(batch.globalSteps());
+  }
+
+  public static Value senderIds(TxBatch batch) {
+    Value[] values = new Value[batch.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Values.value(batch.senderId(i));
+    }
+    return Values.value(values);
+  }
+
+  public static Value receiverIds(TxBatch batch) {
+    Value[] values = new Value[batch.size()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Values.value(batch.receiverId(i));
+    }
+    return Values.value(values);
+  }
+
+  public static Value senderKeys(TxBatch batch) {
+    return Values.value(batch.senderKeys());
+  }
+
+  public static Value receiverKeys(TxBatch batch) {
+    return Values.value(batch.receiverKeys());
+  }
+
+  /**
+   * Encode every column needed to create the actor and Transaction nodes.
+   *
+   * @param batch batch of Transactions
+   * @return parameter map for the columnar node and combined queries
+   */
+  public static Value encode(TxBatch batch) {
+    final int size = batch.size();
+    Value[] senderLabels = new Value[size];
+    Value[] receiverLabels = new Value[size];
+    for (int i = 0; i < size; i++) {
+      senderLabels[i] = label(Util.actorLabel(batch.senderType(i)));
+      receiverLabels[i] = label(Util.actorLabel(batch.receiverType(i)));
+    }
+
+    final Map<String, Object> params = transactionColumns(batch);
+    params.put("senderId", senderIds(batch));
+    params.put("senderLabel", Values.value(senderLabels));
+    params.put("receiverId", receiverIds(batch));
+    params.put("receiverLabel", Values.value(receiverLabels));
+    return Values.value(params);
+  }
+
+  /** @return the columns of the Transaction nodes themselves, to add the actor columns to */
+  private static Map<String, Object> transactionColumns(TxBatch batch) {
+    Value[] labels = new Value[batch.size()];
+    for (int i = 0; i < labels.length; i++) {
+      labels[i] = label(Util.actionLabel(batch.action(i)));
+    }
+
+    final Map<String, Object> params = new HashMap<>();
+    params.put("globalStep", globalSteps(batch));
+    params.put("step", Values.value(batch.steps()));
+    params.put("amount", Values.value(batch.amounts()));
+    params.put("fraud", Values.value(batch.frauds()));
+    params.put("flaggedFraud", Values.value(batch.flaggedFrauds()));
+    params.put("label", Values.value(labels));
+    return params;
+  }
+
+  /**
+   * Encode the columns for the actors-first queries, which only MATCH actors that were written up
+   * front. Any other actor in the batch, e.g. a Mule that joined the simulation since, is listed
+   * once in the {@code newId} and {@code newLabel} columns to be MERGEd.
+   *
+   * @param batch batch of Transactions
+   * @param written whether an actor id was written up front
+   * @return parameter map for the matched node and combined queries
+   */
+  public static Value encodeMatched(TxBatch batch, Predicate<String> written) {
+    final List<Value> newIds = new ArrayList<>();
+    final List<Value> newLabels = new ArrayList<>();
+    final Set<String> seen = new HashSet<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (!written.test(batch.senderId(i)) && seen.add(batch.senderId(i))) {
+        newIds.add(Values.value(batch.senderId(i)));
+        newLabels.add(label(Util.actorLabel(batch.senderType(i))));
+      }
+      if (!written.test(batch.receiverId(i)) && seen.add(batch.receiverId(i))) {
+        newIds.add(Values.value(batch.receiverId(i)));
+        newLabels.add(label(Util.actorLabel(batch.receiverType(i))));
+      }
+    }
+    final Map<String, Object> params = new HashMap<>(encode(batch).asMap(v -> v));
+    params.put("newId", Values.value(newIds.toArray(new Value[0])));
+    params.put("newLabel", Values.value(newLabels.toArray(new Value[0])));
+    return Values.value(params);
+  }
+
+  /**
+   * Like {@link #encodeMatched}, for the keyed queries: actors are MATCHed by key, and any actor
+   * that wasn't written up front is listed once in the {@code newKey}, {@code newId} and {@code
+   * newLabel} columns to be MERGEd. Those are the only actor ids and labels sent, rather than a
+   * sender and receiver id and label for every row.
+   *
+   * @param batch batch of Transactions, already {@link TxBatch#key keyed}
+   * @param written whether an actor key belongs to an actor written up front
+   * @return parameter map for the keyed node and combined queries
+   */
+  public static Value encodeKeyed(TxBatch batch, LongPredicate written) {
+    final List<Value> newKeys = new ArrayList<>();
+    final List<Value> newIds = new ArrayList<>();
+    final List<Value> newLabels = new ArrayList<>();
+    final Set<Long> seen = new HashSet<>();
+    for (int i = 0; i < batch.size(); i++) {
+      if (!written.test(batch.senderKey(i)) && seen.add(batch.senderKey(i))) {
+        newKeys.add(Values.value(batch.senderKey(i)));
+        newIds.add(Values.value(batch.senderId(i)));
+        newLabels.add(label(Util.actorLabel(batch.senderType(i))));
+      }
+      if (!written.test(batch.receiverKey(i)) && seen.add(batch.receiverKey(i))) {
+        newKeys.add(Values.value(batch.receiverKey(i)));
+        newIds.add(Values.value(batch.receiverId(i)));
+        newLabels.add(label(Util.actorLabel(batch.receiverType(i))));
+      }
+    }
+    final Map<String, Object> params = transactionColumns(batch);
+    params.put("senderKey", senderKeys(batch));
+    params.put("receiverKey", receiverKeys(batch));
+    params.put("newKey", Values.value(newKeys.toArray(new Value[0])));
+    params.put("newId", Values.value(newIds.toArray(new Value[0])));
+    params.put("newLabel", Values.value(newLabels.toArray(new Value[0])));
+    return Values.value(params);
+  }
+
+  private static Query timed(Supplier<Query> compile) {
+    final long start = System.nanoTime();
+    try {
+      return compile.get();
+    } finally {
+      Metrics.record(Metrics.Stage.ENCODE, start);
+    }
+  }
+
+  public static Query compileNodeQuery(TxBatch batch) {
+    return timed(() -> new Query(Cypher.COLUMNAR_NODE_QUERY_STRING, encode(batch)));
+  }
+
+  public static Query compileCombinedQuery(TxBatch batch) {
+    return timed(() -> new Query(Cypher.BULK_TX_COMBINED_QUERY_STRING, encode(batch)));
+  }
+
+  public static Query compileMatchedNodeQuery(TxBatch batch, Predicate<String> written) {
+    return timed(
+        () -> new Query(Cypher.MATCHED_NODE_QUERY_STRING, encodeMatched(batch, written)));
+  }
+
+  public static Query compileMatchedCombinedQuery(TxBatch batch, Predicate<String> written) {
+    return timed(
+        () -> new Query(Cypher.MATCHED_COMBINED_QUERY_STRING, encodeMatched(batch, written)));
+  }
+
+  public static Query compileKeyedNodeQuery(TxBatch batch, LongPredicate written) {
+    return timed(() -> new Query(Cypher.KEYED_NODE_QUERY_STRING, encodeKeyed(batch, written)));
+  }
+
+  public static Query compileKeyedCombinedQuery(TxBatch batch, LongPredicate written) {
+    return timed(
+        () -> new Query(Cypher.KEYED_COMBINED_QUERY_STRING, encodeKeyed(batch, written)));
+  }
+
+  public static Query compilePerformedQuery(TxBatch batch) {
+    return timed(
+        () ->
+            new Query(
+                Cypher.COLUMNAR_TX_PERFORMED_QUERY_STRING,
+                Values.parameters("globalStep", globalSteps(batch), "senderId", senderIds(batch))));
+  }
+
+  public static Query compileKeyedPerformedQuery(TxBatch batch) {
+    return timed(
+        () ->
+            new Query(
+                Cypher.KEYED_TX_PERFORMED_QUERY_STRING,
+                Values.parameters(
+                    "globalStep", globalSteps(batch), "senderKey", senderKeys(batch))));
+  }
+
+  /**
+   * Compile the NEXT and FIRST_TX relationships for the Client-sent rows of a threaded batch.
+   *
+   * @param batch batch of Transactions, already {@link TxBatch#thread threaded}
+   * @return Query for {@link Cypher#COLUMNAR_CHAIN_QUERY_STRING}
+   */
+  public static Query compileChainQuery(TxBatch batch) {
+    return timed(
+        () -> {
+          long[] globalSteps = new long[batch.size()];
+          long[] previous = new long[batch.size()];
+          String[] clientIds = new String[batch.size()];
+          int rows = 0;
+          for (int i = 0; i < batch.size(); i++) {
+            if (Util.isClient(batch.senderType(i))) {
+              globalSteps[rows] = batch.globalStep(i);
+              previous[rows] = batch.previous(i);
+              clientIds[rows++] = batch.senderId(i);
+            }
+          }
+          return new Query(
+              Cypher.COLUMNAR_CHAIN_QUERY_STRING,
+              Values.parameters(
+                  "globalStep", Values.value(Arrays.copyOf(globalSteps, rows)),
+                  "previous", Values.value(Arrays.copyOf(previous, rows)),
+                  "clientId", Values.value(Arrays.copyOf(clientIds, rows))));
+        });
+  }
+
+  /**
+   * Like {@link #compileChainQuery}, addressing every node by key.
+   *
+   * @param batch batch of Transactions, already {@link TxBatch#thread threaded} and {@link
+   *     TxBatch#key keyed}
+   * @return Query for {@link Cypher#KEYED_CHAIN_QUERY_STRING}
+   */
+  public static Query compileKeyedChainQuery(TxBatch batch) {
+    return timed(
+        () -> {
+          long[] globalSteps = new long[batch.size()];
+          long[] previous = new long[batch.size()];
+          long[] clientKeys = new long[batch.size()];
+          int rows = 0;
+          for (int i = 0; i < batch.size(); i++) {
+            if (Util.isClient(batch.senderType(i))) {
+              globalSteps[rows] = batch.globalStep(i);
+              previous[rows] = batch.previous(i);
+              clientKeys[rows++] = batch.senderKey(i);
+            }
+          }
+          return new Query(
+              Cypher.KEYED_CHAIN_QUERY_STRING,
+              Values.parameters(
+                  "globalStep", Values.value(Arrays.copyOf(globalSteps, rows)),
+                  "previous", Values.value(Arrays.copyOf(previous, rows)),
+                  "clientKey", Values.value(Arrays.copyOf(clientKeys, rows))));
+        });
+  }
+
+  /**
+   * Compile the LAST_TX relationships for a chunk of Clients.
+   *
+   * @param clientIds Client ids
+   * @param lastGlobalSteps globalStep of each Client's last Transaction
+   * @param size number of entries in use
+   * @return Query for {@link Cypher#COLUMNAR_LAST_TX_QUERY_STRING}
+   */
+  public static Query compileLastTxQuery(String[] clientIds, long[] lastGlobalSteps, int size) {
+    return timed(
+        () -> {
+          return new Query(
+              Cypher.COLUMNAR_LAST_TX_QUERY_STRING,
+              Values.parameters(
+                  "clientId", Values.value(Arrays.copyOf(clientIds, size)),
+                  "globalStep", Values.value(Arrays.copyOf(lastGlobalSteps, size))));
+        });
+  }
+
+  /**
+   * Like {@link #compileLastTxQuery}, addressing every node by key.
+   *
+   * @param clientKeys Client keys
+   * @param lastGlobalSteps globalStep of each Client's last Transaction
+   * @param size number of entries in use
+   * @return Query for {@link Cypher#KEYED_LAST_TX_QUERY_STRING}
+   */
+  public static Query compileKeyedLastTxQuery(long[] clientKeys, long[] lastGlobalSteps, int size) {
+    return timed(
+        () -> {
+          return new Query(
+              Cypher.KEYED_LAST_TX_QUERY_STRING,
+              Values.parameters(
+                  "clientKey", Values.value(Arrays.copyOf(clientKeys, size)),
+                  "globalStep", Values.value(Arrays.copyOf(lastGlobalSteps, size))));
+        });
+  }
+
+  /**
+   * Compile the MERGE of a chunk of distinct identity values, e.g. SSNs.
+   *
+   * @param cypher one of {@link Cypher#MERGE_SSNS}, {@link Cypher#MERGE_EMAILS} or {@link
+   *     Cypher#MERGE_PHONES}
+   * @param values distinct values
+   * @return Query
+   */
+  public static Query compileIdentityNodeQuery(String cypher, List<String> values) {
+    return timed(
+        () -> new Query(cypher, Values.parameters("values", Values.value(values))));
+  }
+
+  /**
+   * Compile a range of Clients' names and links to their (already created) identity nodes.
+   *
+   * @param clients Clients, as made by {@link ActorStore#ofClients}
+   * @param from first row
+   * @param to row after the last
+   * @return Query for {@link Cypher#COLUMNAR_IDENTITY_QUERY_STRING}
+   */
+  public static Query compileIdentityQuery(ActorStore clients, int from, int to) {
+    return compileIdentityQuery(clients, null, from, to);
+  }
+
+  /**
+   * Like {@link #compileIdentityQuery(ActorStore, int, int)}, also setting each Client's key.
+   *
+   * @param keys keys of every actor written up front, or null to leave the Clients unkeyed
+   * @return Query for {@link Cypher#KEYED_IDENTITY_QUERY_STRING}, or {@link
+   *     Cypher#COLUMNAR_IDENTITY_QUERY_STRING} without keys
+   */
+  public static Query compileIdentityQuery(ActorStore clients, ActorKeys keys, int from, int to) {
+    return timed(
+        () -> {
+          final int size = to - from;
+          Value[] ids = new Value[size];
+          Value[] names = new Value[size];
+          Value[] ssns = new Value[size];
+          Value[] emails = new Value[size];
+          Value[] phoneNumbers = new Value[size];
+          for (int i = 0; i < size; i++) {
+            ids[i] = Values.value(clients.get(from + i, ActorStore.ID));
+            names[i] = Values.value(clients.get(from + i, ActorStore.NAME));
+            ssns[i] = Values.value(clients.get(from + i, ActorStore.SSN));
+            emails[i] = Values.value(clients.get(from + i, ActorStore.EMAIL));
+            phoneNumbers[i] = Values.value(clients.get(from + i, ActorStore.PHONE_NUMBER));
+          }
+          final Map<String, Object> params = new HashMap<>();
+          params.put("clientId", Values.value(ids));
+          params.put("name", Values.value(names));
+          params.put("ssn", Values.value(ssns));
+          params.put("email", Values.value(emails));
+          params.put("phoneNumber", Values.value(phoneNumbers));
+          if (keys != null) {
+            long[] clientKeys = new long[size];
+            for (int i = 0; i < size; i++) {
+              clientKeys[i] = keys.key(clients.get(from + i, ActorStore.ID));
+            }
+            params.put("key", Values.value(clientKeys));
+          }
+          return new Query(
+              keys == null
+                  ? Cypher.COLUMNAR_IDENTITY_QUERY_STRING
+                  : Cypher.KEYED_IDENTITY_QUERY_STRING,
+              Values.value(params));
+        });
+  }
+
+  /**
+   * Compile the extra properties of a chunk of actors that all have the given label. There's one
+   * statement per label, so the server only ever plans a couple of them.
+   *
+   * @param label node label of every actor in the chunk
+   * @param actors Merchants or Banks
+   * @param shard shard the actors come from
+   * @return Query for {@link Cypher#UPDATE_NODE_PROPS}
+   */
+  public static Query compilePropertyUpdateQuery(
+      String label, List<? extends SuperActor> actors, Shard shard) {
+    return compileActorQuery(Cypher.UPDATE_NODE_PROPS, label, actors, shard, null);
+  }
+
+  /**
+   * Compile the creation of a chunk of actors, with all their properties, that all have the given
+   * label. Used to write Merchants and Banks up front in actors-first mode.
+   *
+   * @param label node label of every actor in the chunk
+   * @param actors Merchants or Banks
+   * @param shard shard the actors come from
+   * @return Query for {@link Cypher#CREATE_ACTOR_NODES}
+   */
+  public static Query compileActorNodeQuery(
+      String label, List<? extends SuperActor> actors, Shard shard) {
+    return compileActorQuery(Cypher.CREATE_ACTOR_NODES, label, actors, shard, null);
+  }
+
+  /**
+   * Like {@link #compileActorNodeQuery}, also setting each actor's key.
+   *
+   * @param keys keys of every actor written up front
+   * @return Query for {@link Cypher#CREATE_KEYED_ACTOR_NODES}
+   */
+  public static Query compileKeyedActorNodeQuery(
+      String label, List<? extends SuperActor> actors, Shard shard, ActorKeys keys) {
+    return compileActorQuery(Cypher.CREATE_KEYED_ACTOR_NODES, label, actors, shard, keys);
+  }
+
+  private static Query compileActorQuery(
+      String cypher,
+      String label,
+      List<? extends SuperActor> actors,
+      Shard shard,
+      ActorKeys keys) {
+    return timed(
+        () -> {
+          Value[] rows = new Value[actors.size()];
+          for (int i = 0; i < rows.length; i++) {
+            final SuperActor actor = actors.get(i);
+            // The id is part of the identity map, but it's matched on rather than set.
+            final Map<String, Object> props = actor.getIdentityAsMap();
+            props.remove(Properties.ID);
+            final String id = shard.id(actor.getId());
+            rows[i] =
+                keys == null
+                    ? Values.parameters("id", id, "props", props)
+                    : Values.parameters("id", id, "props", props, "key", keys.key(id));
+          }
+          return new Query(
+              ACTOR_QUERIES.computeIfAbsent(
+                  cypher + label, key -> cypher.replace(Cypher.LABEL_PLACEHOLDER, label)),
+              Values.parameters("rows", Values.value(rows)));
+        });
+  }
+
+  public static Query compileToQuery(TxBatch batch) {
+    return timed(
+        () ->
+            new Query(
+                Cypher.COLUMNAR_TX_TO_QUERY_STRING,
+                Values.parameters(
+                    "globalStep", globalSteps(batch), "receiverId", receiverIds(batch))));
+  }
+
+  public static Query compileKeyedToQuery(TxBatch batch) {
+    return timed(
+        () ->
+            new Query(
+                Cypher.KEYED_TX_TO_QUERY_STRING,
+                Values.parameters(
+                    "globalStep", globalSteps(batch), "receiverKey", receiverKeys(batch))));
+  }
+}
@@ -0,0 +1,178 @@
+package io.sisu.paysim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Records how far each phase of a Bolt load has been committed, so a failed load can be resumed
+ * instead of started over.
+ *
+ * <p>Work within a phase may commit out of order across writer sessions, so each unit of work is
+ * committed with its sequence number and the position it reaches. A phase's position only moves
+ * forward once every unit before it has committed too. The file is replaced atomically on every
+ * change, so it always describes a consistent prefix of the load.
+ */
+public class Checkpoint {
+  /** Last globalStep whose Transaction, PERFORMED, TO, NEXT and FIRST_TX writes committed. */
+  public static final String TRANSACTIONS = "transactions";
+  /** Number of Clients linked to their LAST_TX. */
+  public static final String THREADING = "threading";
+  /** Number of Clients whose identities were created. */
+  public static final String IDENTITIES = "identities";
+  /** Number of Merchants and Banks whose extra properties were set. */
+  public static final String PROPERTIES = "properties";
+
+  public static final long NONE = -1;
+
+  private static final String FINGERPRINT = "fingerprint";
+  private static final Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+
+  private final Path path;
+  private final Properties state = new Properties();
+  private final Map<String, Watermark> watermarks = new HashMap<>();
+  private final Map<String, TreeMap<Long, Long>> pending = new HashMap<>();
+  private boolean resumed = false;
+
+  private Checkpoint(Path path, String fingerprint) {
+    this.path = path;
+    state.setProperty(FINGERPRINT, fingerprint);
+  }
+
+  /**
+   * Identify a simulation by its properties file contents and shard, since only a simulation with
+   * the same seed and parameters replays the same Transactions.
+   *
+   * @param propertiesFile PaySim properties file
+   * @param shard shard being run
+   * @return fingerprint to check a checkpoint against
+   * @throws IOException on failure to read the properties file
+   */
+  public static String fingerprint(String propertiesFile, Shard shard) throws IOException {
+    final CRC32 crc = new CRC32();
+    crc.update(Files.readAllBytes(Paths.get(propertiesFile)));
+    return String.format("%08x/%d/%d", crc.getValue(), shard.index, shard.count);
+  }
+
+  /**
+   * Start a new checkpoint, or pick up an existing one when resuming.
+   *
+   * @param path checkpoint file
+   * @param fingerprint fingerprint of the simulation being loaded
+   * @param resume whether to continue from an existing checkpoint
+   * @return Checkpoint
+   * @throws IOException on failure to read or write the checkpoint
+   * @throws IllegalStateException if the checkpoint is for a different simulation
+   */
+  public static Checkpoint open(Path path, String fingerprint, boolean resume)
+      throws IOException {
+    final Checkpoint checkpoint = new Checkpoint(path, fingerprint);
+    if (resume && Files.exists(path)) {
+      final Properties saved = new Properties();
+      try (InputStream in = Files.newInputStream(path)) {
+        saved.load(in);
+      }
+      if (!fingerprint.equals(saved.getProperty(FINGERPRINT))) {
+        throw new IllegalStateException(
+            String.format(
+                "checkpoint %s is for a different simulation (%s, expected %s)",
+                path, saved.getProperty(FINGERPRINT), fingerprint));
+      }
+      checkpoint.state.putAll(saved);
+      checkpoint.resumed = true;
+      logger.info("resuming from checkpoint {}: {}", path, checkpoint);
+    } else {
+      if (resume) {
+        logger.warn("no checkpoint found at {}, starting from the beginning", path);
+      }
+      checkpoint.save();
+    }
+    return checkpoint;
+  }
+
+  /** @return whether this picks up the checkpoint of an earlier run, rather than starting over */
+  public boolean isResumed() {
+    return resumed;
+  }
+
+  /** @return the committed position of a phase, or {@link #NONE} if nothing has committed */
+  public synchronized long get(String phase) {
+    return Long.parseLong(state.getProperty(phase, Long.toString(NONE)));
+  }
+
+  /** Record the position of a phase whose work commits in order. */
+  public synchronized void set(String phase, long position) {
+    state.setProperty(phase, Long.toString(position));
+    save();
+  }
+
+  /**
+   * Record that a unit of work committed. The phase's position advances to the position of the
+   * highest unit below which everything has committed.
+   *
+   * @param phase phase the work belongs to
+   * @param seq sequence number of the unit of work, starting at 0 for each phase and carrying on
+   *     from {@link #committed} across passes over it
+   * @param position position the phase reaches once this unit and all before it have committed
+   */
+  public synchronized void commit(String phase, long seq, long position) {
+    final Watermark watermark = watermarks.computeIfAbsent(phase, p -> new Watermark());
+    final TreeMap<Long, Long> positions = pending.computeIfAbsent(phase, p -> new TreeMap<>());
+    final long before = watermark.get();
+    positions.put(seq, position);
+    watermark.complete(seq);
+    final long after = watermark.get();
+    if (after > before) {
+      set(phase, positions.get(after - 1));
+      positions.headMap(after, false).clear();
+    }
+  }
+
+  /**
+   * @return how many units of a phase this run has committed in order, i.e. the sequence number a
+   *     later pass over the same phase carries on from
+   */
+  public synchronized long committed(String phase) {
+    final Watermark watermark = watermarks.get(phase);
+    return watermark == null ? 0 : watermark.get();
+  }
+
+  private void save() {
+    try {
+      final Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        state.store(out, "PaySim load checkpoint");
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("failed to save checkpoint " + path, e);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%s=%d, %s=%d, %s=%d, %s=%d",
+        TRANSACTIONS,
+        get(TRANSACTIONS),
+        THREADING,
+        get(THREADING),
+        IDENTITIES,
+        get(IDENTITIES),
+        PROPERTIES,
+        get(PROPERTIES));
+  }
+}
@@ -13,7 +13,34 @@ public class Config {
   protected static final boolean DEFAULT_USE_ENCRYPTION = false;
   protected static final int DEFAULT_BATCH_SIZE = 5_000;
   protected static final int DEFAULT_SIM_QUEUE_DEPTH = 50_000;
+  protected static final int DEFAULT_PARALLELISM = 1;
+  protected static final int DEFAULT_PIPELINE_DEPTH = 4;
+  protected static final int DEFAULT_PARTITIONS = 1;
+  protected static final int DEFAULT_MAX_RETRIES = 5;
+  protected static final String WRITE_MODE_SPLIT = "split";
+  protected static final String WRITE_MODE_COMBINED = "combined";
+  protected static final String DEFAULT_WRITE_MODE = WRITE_MODE_SPLIT;
+  protected static final String INDEXES_UPFRONT = "upfront";
+  protected static final String INDEXES_DEFERRED = "deferred";
+  protected static final String DEFAULT_INDEXES = INDEXES_UPFRONT;
+  protected static final String FORMAT_CSV = "csv";
+  protected static final String FORMAT_ARROW = "arrow";
+  protected static final String DEFAULT_FORMAT = FORMAT_CSV;
   protected static final String DEFAULT_OUTPUT_DIR = ".";
+  protected static final int DEFAULT_SHARDS = 1;
+  protected static final int DEFAULT_SHARD_INDEX = 0;
+  protected static final String DEFAULT_CHECKPOINT = "paysim.checkpoint";
+  protected static final int DEFAULT_METRICS_INTERVAL = 30;
+  protected static final int DEFAULT_TARGET_COMMIT_MILLIS = 1_000;
+  protected static final int DEFAULT_MIN_BATCH_SIZE = 100;
+  protected static final int DEFAULT_MAX_BATCH_SIZE = 50_000;
+  protected static final int DEFAULT_IN_FLIGHT = 16;
+  protected static final String DEFAULT_OUTPUT = StreamExport.STDOUT;
+  protected static final String DEFAULT_FRAMING = JsonWriter.FRAMING_NDJSON;
+  protected static final double DEFAULT_SPEEDUP = 0;
+  protected static final int DEFAULT_SCHEMA_TIMEOUT = 300;
+  protected static final int DEFAULT_FROM_STEP = 0;
+  protected static final String DEFAULT_SNAPSHOT = "paysim.snapshot";
 
   protected static final String KEY_PROPERTIES_FILE = "properties";
   protected static final String KEY_USERNAME = "username";
@@ -22,7 +49,32 @@ public class Config {
   protected static final String KEY_ENCRYPTION = "tls";
   protected static final String KEY_BATCH_SIZE = "batchSize";
   protected static final String KEY_QUEUE_DEPTH = "queueDepth";
+  protected static final String KEY_PARALLELISM = "parallelism";
+  protected static final String KEY_PIPELINE_DEPTH = "pipelineDepth";
+  protected static final String KEY_PARTITIONS = "partitions";
+  protected static final String KEY_MAX_RETRIES = "maxRetries";
+  protected static final String KEY_WRITE_MODE = "writeMode";
+  protected static final String KEY_FORMAT = "format";
   protected static final String KEY_OUTPUT_DIR = "outputDir";
+  protected static final String KEY_SHARDS = "shards";
+  protected static final String KEY_SHARD_INDEX = "shardIndex";
+  protected static final String KEY_CHECKPOINT = "checkpoint";
+  protected static final String KEY_RESUME = "resume";
+  protected static final String KEY_METRICS_INTERVAL = "metricsInterval";
+  protected static final String KEY_TARGET_COMMIT_MILLIS = "targetCommitMillis";
+  protected static final String KEY_MIN_BATCH_SIZE = "minBatchSize";
+  protected static final String KEY_MAX_BATCH_SIZE = "maxBatchSize";
+  protected static final String KEY_ACTORS_FIRST = "actorsFirst";
+  protected static final String KEY_KEYS = "keys";
+  protected static final String KEY_ASYNC = "async";
+  protected static final String KEY_IN_FLIGHT = "inFlight";
+  protected static final String KEY_OUTPUT = "output";
+  protected static final String KEY_FRAMING = "framing";
+  protected static final String KEY_SPEEDUP = "speedup";
+  protected static final String KEY_SCHEMA_TIMEOUT = "schemaTimeout";
+  protected static final String KEY_INDEXES = "indexes";
+  protected static final String KEY_FROM_STEP = "fromStep";
+  protected static final String KEY_SNAPSHOT = "snapshot";
 
   public final String propertiesFile;
   public final String username;
@@ -31,7 +83,32 @@ public class Config {
   public final boolean useEncryption;
   public final int batchSize;
   public final int queueDepth;
+  public final int parallelism;
+  public final int pipelineDepth;
+  public final int partitions;
+  public final int maxRetries;
+  public final String writeMode;
+  public final String format;
   public final String outputDirectory;
+  public final int shards;
+  public final int shardIndex;
+  public final String checkpointFile;
+  public final boolean resume;
+  public final int metricsInterval;
+  public final int targetCommitMillis;
+  public final int minBatchSize;
+  public final int maxBatchSize;
+  public final boolean actorsFirst;
+  public final boolean keys;
+  public final boolean async;
+  public final int inFlight;
+  public final String output;
+  public final String framing;
+  public final double speedup;
+  public final int schemaTimeout;
+  public final String indexes;
+  public final int fromStep;
+  public final String snapshot;
 
   Config(Optional<Namespace> configNamespace) {
     Namespace ns = configNamespace.orElse(new Namespace(new HashMap<>()));
@@ -42,7 +119,34 @@ public class Config {
     useEncryption = orBool(ns.get(KEY_ENCRYPTION), DEFAULT_USE_ENCRYPTION);
     batchSize = orInt(ns.get(KEY_BATCH_SIZE), DEFAULT_BATCH_SIZE);
     queueDepth = orInt(ns.get(KEY_QUEUE_DEPTH), DEFAULT_SIM_QUEUE_DEPTH);
+    parallelism = orInt(ns.get(KEY_PARALLELISM), DEFAULT_PARALLELISM);
+    pipelineDepth = orInt(ns.get(KEY_PIPELINE_DEPTH), DEFAULT_PIPELINE_DEPTH);
+    partitions = orInt(ns.get(KEY_PARTITIONS), DEFAULT_PARTITIONS);
+    maxRetries = orInt(ns.get(KEY_MAX_RETRIES), DEFAULT_MAX_RETRIES);
+    writeMode = orString(ns.get(KEY_WRITE_MODE), DEFAULT_WRITE_MODE);
+    format = orString(ns.get(KEY_FORMAT), DEFAULT_FORMAT);
     outputDirectory = orString(ns.get(KEY_OUTPUT_DIR), DEFAULT_OUTPUT_DIR);
+    shards = orInt(ns.get(KEY_SHARDS), DEFAULT_SHARDS);
+    shardIndex = orInt(ns.get(KEY_SHARD_INDEX), DEFAULT_SHARD_INDEX);
+    checkpointFile = orString(ns.get(KEY_CHECKPOINT), DEFAULT_CHECKPOINT);
+    resume = orBool(ns.get(KEY_RESUME), false);
+    metricsInterval = orInt(ns.get(KEY_METRICS_INTERVAL), DEFAULT_METRICS_INTERVAL);
+    targetCommitMillis = orInt(ns.get(KEY_TARGET_COMMIT_MILLIS), DEFAULT_TARGET_COMMIT_MILLIS);
+    minBatchSize = orInt(ns.get(KEY_MIN_BATCH_SIZE), DEFAULT_MIN_BATCH_SIZE);
+    maxBatchSize = orInt(ns.get(KEY_MAX_BATCH_SIZE), DEFAULT_MAX_BATCH_SIZE);
+    keys = orBool(ns.get(KEY_KEYS), false);
+    // Keys are handed out to the population as it's written up front.
+    actorsFirst = keys || orBool(ns.get(KEY_ACTORS_FIRST), false);
+    async = orBool(ns.get(KEY_ASYNC), false);
+    inFlight = orInt(ns.get(KEY_IN_FLIGHT), DEFAULT_IN_FLIGHT);
+    output = orString(ns.get(KEY_OUTPUT), DEFAULT_OUTPUT);
+    framing = orString(ns.get(KEY_FRAMING), DEFAULT_FRAMING);
+    speedup = orDouble(ns.get(KEY_SPEEDUP), DEFAULT_SPEEDUP);
+    schemaTimeout = orInt(ns.get(KEY_SCHEMA_TIMEOUT), DEFAULT_SCHEMA_TIMEOUT);
+    indexes = orString(ns.get(KEY_INDEXES), DEFAULT_INDEXES);
+    fromStep = orInt(ns.get(KEY_FROM_STEP), DEFAULT_FROM_STEP);
+    // only the snapshot command records one by default, others simulate unless given a file
+    snapshot = orString(ns.get(KEY_SNAPSHOT), null);
   }
 
   private static String orString(Object val, String defaultValue) {
@@ -60,6 +164,14 @@ public class Config {
     }
   }
 
+  private static double orDouble(Object val, double defaultValue) {
+    try {
+      return Double.valueOf(val.toString()).doubleValue();
+    } catch (Exception e) {
+      return defaultValue;
+    }
+  }
+
   private static boolean orBool(Object val, boolean defaultValue) {
     try {
       return Boolean.valueOf(val.toString()).booleanValue();
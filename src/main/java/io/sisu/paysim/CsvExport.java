@@ -0,0 +1,105 @@
+package io.sisu.paysim;
+
+import org.paysim.actors.Client;
+import org.paysim.actors.SuperActor;
+import org.paysim.identity.ClientIdentity;
+import org.paysim.identity.Properties;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/** Field-ordered CSV layouts for the {@code csv} command's output files. */
+public class CsvExport {
+  public static final String[] TRANSACTION_COLUMNS = {
+    "step",
+    "globalStep",
+    "action",
+    "amount",
+    "idOrig",
+    "origType",
+    "oldBalanceOrig",
+    "newBalanceOrig",
+    "idDest",
+    "destType",
+    "oldBalanceDest",
+    "newBalanceDest",
+    "isFraud",
+    "isFlaggedFraud",
+  };
+
+  public static final String[] CLIENT_COLUMNS = {
+    "id", "type", "name", "ssn", "email", "phoneNumber",
+  };
+
+  public static void writeTransactionHeader(CsvWriter writer) throws IOException {
+    writer.header(TRANSACTION_COLUMNS);
+  }
+
+  public static void writeTransactions(CsvWriter writer, TxBatch batch) throws IOException {
+    for (int i = 0; i < batch.size(); i++) {
+      writer
+          .longValue(batch.step(i))
+          .longValue(batch.globalStep(i))
+          .string(batch.action(i))
+          .doubleValue(batch.amount(i))
+          .string(batch.senderId(i))
+          .string(batch.senderType(i).toString())
+          .doubleValue(batch.oldBalanceOrig(i))
+          .doubleValue(batch.newBalanceOrig(i))
+          .string(batch.receiverId(i))
+          .string(batch.receiverType(i).toString())
+          .doubleValue(batch.oldBalanceDest(i))
+          .doubleValue(batch.newBalanceDest(i))
+          .bool(batch.fraud(i))
+          .bool(batch.flaggedFraud(i))
+          .endRow();
+    }
+  }
+
+  public static void writeClients(CsvWriter writer, List<Client> clients, Shard shard)
+      throws IOException {
+    writer.header(CLIENT_COLUMNS);
+    for (Client client : clients) {
+      final ClientIdentity identity = client.getClientIdentity();
+      writer
+          .string(shard.id(client.getId()))
+          .string(client.getType().toString())
+          .string(identity.name)
+          .string(identity.ssn)
+          .string(identity.email)
+          .string(identity.phoneNumber)
+          .endRow();
+    }
+  }
+
+  /**
+   * Write Merchants or Banks, with a column for every identity property any of them has.
+   *
+   * @param writer CsvWriter
+   * @param actors actors of a single type
+   * @param shard shard the actors come from
+   */
+  public static void writeActors(CsvWriter writer, List<? extends SuperActor> actors, Shard shard)
+      throws IOException {
+    final TreeSet<String> columns = new TreeSet<>();
+    actors.forEach(actor -> columns.addAll(actor.getIdentityAsMap().keySet()));
+    columns.remove(Properties.ID);
+
+    writer.string("id").string("type");
+    for (String column : columns) {
+      writer.string(column);
+    }
+    writer.endRow();
+
+    for (SuperActor actor : actors) {
+      final Map<String, Object> props = actor.getIdentityAsMap();
+      writer.string(shard.id(actor.getId())).string(actor.getType().toString());
+      for (String column : columns) {
+        writer.value(props.get(column));
+      }
+      writer.endRow();
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package io.sisu.paysim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal CSV writer that encodes fields straight into a reusable byte buffer.
+ *
+ * <p>Integers are formatted digit by digit without boxing or intermediate Strings, and Strings are
+ * only quoted when they contain a separator, quote or newline. Doubles are written in full, so
+ * amounts aren't rounded on the way out, through a reused StringBuilder rather than a new String
+ * each.
+ */
+public class CsvWriter implements AutoCloseable {
+  private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+  private static final int MIN_BUFFER_SIZE = 32;
+
+  private final OutputStream out;
+  private final byte[] buf;
+  private final byte[] digits = new byte[20];
+  private final StringBuilder number = new StringBuilder(32);
+  private int pos = 0;
+  private boolean firstField = true;
+
+  public CsvWriter(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  }
+
+  public CsvWriter(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.buf = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+  }
+
+  private void ensure(int n) throws IOException {
+    if (pos + n > buf.length) {
+      flushBuffer();
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buf, 0, pos);
+    pos = 0;
+  }
+
+  private void separator() throws IOException {
+    if (!firstField) {
+      ensure(1);
+      buf[pos++] = ',';
+    }
+    firstField = false;
+  }
+
+  private void raw(byte b) throws IOException {
+    ensure(1);
+    buf[pos++] = b;
+  }
+
+  /** Write a header row. */
+  public CsvWriter header(String... columns) throws IOException {
+    for (String column : columns) {
+      string(column);
+    }
+    return endRow();
+  }
+
+  public CsvWriter string(String s) throws IOException {
+    separator();
+    if (s == null) {
+      return this;
+    }
+    boolean quote = false;
+    boolean ascii = true;
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        quote = true;
+      } else if (c > 0x7f) {
+        ascii = false;
+      }
+    }
+    if (!ascii) {
+      // rare enough to not bother avoiding the copy
+      bytes(s.getBytes(StandardCharsets.UTF_8), quote);
+      return this;
+    }
+    if (quote) {
+      raw((byte) '"');
+    }
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c == '"') {
+        raw((byte) '"');
+      }
+      raw((byte) c);
+    }
+    if (quote) {
+      raw((byte) '"');
+    }
+    return this;
+  }
+
+  private void bytes(byte[] utf8, boolean quote) throws IOException {
+    if (quote) {
+      raw((byte) '"');
+    }
+    for (byte b : utf8) {
+      if (b == '"') {
+        raw((byte) '"');
+      }
+      raw(b);
+    }
+    if (quote) {
+      raw((byte) '"');
+    }
+  }
+
+  public CsvWriter longValue(long n) throws IOException {
+    separator();
+    appendLong(n);
+    return this;
+  }
+
+  private void appendLong(long n) throws IOException {
+    if (n == Long.MIN_VALUE) {
+      number.setLength(0);
+      appendNumber(number.append(n));
+      return;
+    }
+    ensure(20);
+    if (n < 0) {
+      buf[pos++] = '-';
+      n = -n;
+    }
+    int len = 0;
+    do {
+      digits[len++] = (byte) ('0' + (n % 10));
+      n /= 10;
+    } while (n > 0);
+    while (len > 0) {
+      buf[pos++] = digits[--len];
+    }
+  }
+
+  /** Write a double in full, as {@link Double#toString} does, so amounts round-trip exactly. */
+  public CsvWriter doubleValue(double d) throws IOException {
+    separator();
+    number.setLength(0);
+    appendNumber(number.append(d));
+    return this;
+  }
+
+  /** Copy a number formatted into the reusable {@link #number} builder into the buffer. */
+  private void appendNumber(StringBuilder formatted) throws IOException {
+    ensure(formatted.length());
+    for (int i = 0; i < formatted.length(); i++) {
+      buf[pos++] = (byte) formatted.charAt(i);
+    }
+  }
+
+  public CsvWriter bool(boolean b) throws IOException {
+    separator();
+    ensure(5);
+    if (b) {
+      buf[pos++] = 't';
+      buf[pos++] = 'r';
+      buf[pos++] = 'u';
+      buf[pos++] = 'e';
+    } else {
+      buf[pos++] = 'f';
+      buf[pos++] = 'a';
+      buf[pos++] = 'l';
+      buf[pos++] = 's';
+      buf[pos++] = 'e';
+    }
+    return this;
+  }
+
+  /** Write any other value via its String form. Nulls are written as empty fields. */
+  public CsvWriter value(Object value) throws IOException {
+    if (value instanceof Boolean) {
+      return bool((Boolean) value);
+    } else if (value instanceof Long || value instanceof Integer) {
+      return longValue(((Number) value).longValue());
+    }
+    return string(value == null ? null : value.toString());
+  }
+
+  public CsvWriter endRow() throws IOException {
+    raw((byte) '\n');
+    firstField = true;
+    return this;
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (OutputStream o = out) {
+      flushBuffer();
+    }
+  }
+}
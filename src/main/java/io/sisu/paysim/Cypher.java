@@ -1,31 +1,48 @@
 package io.sisu.paysim;
 
 public class Cypher {
+  // Every id is unique, across actors and Transactions alike, as is every identity value. Unique
+  // constraints give the planner a cheap lookup and make concurrent MERGEs lock properly.
   public static final String[] SCHEMA_QUERIES = {
     // Sadness
-    "CREATE INDEX IF NOT EXISTS FOR (n:Node) ON (n.id)",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (n:Node) ASSERT n.id IS UNIQUE",
 
+    // Identity Types
+    "CREATE CONSTRAINT IF NOT EXISTS ON (e:Email) ASSERT e.email IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (s:SSN) ASSERT s.ssn IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (p:Phone) ASSERT p.phoneNumber IS UNIQUE",
+  };
+
+  // Every write looks nodes up by :Node(id), so these only serve queries against the finished
+  // graph, and can be deferred along with the analytic indexes.
+  public static final String[] LABEL_ID_CONSTRAINT_QUERIES = {
     // Core Types
-    "CREATE INDEX IF NOT EXISTS FOR (c:Client) ON (c.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (b:Bank) ON (b.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (m:Merchant) ON (m.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (m:Mule) ON (m.id)",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (c:Client) ASSERT c.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (b:Bank) ASSERT b.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (m:Merchant) ASSERT m.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (m:Mule) ASSERT m.id IS UNIQUE",
 
     // Transaction Types
-    "CREATE INDEX IF NOT EXISTS FOR (c:CashIn) ON (c.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (c:CashOut) ON (c.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (d:Debit) ON (d.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (p:Payment) ON (p.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (t:Transfer) ON (t.id)",
-    "CREATE INDEX IF NOT EXISTS FOR (tx:Transaction) ON (tx.id)",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (c:CashIn) ASSERT c.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (c:CashOut) ASSERT c.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (d:Debit) ASSERT d.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (p:Payment) ASSERT p.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (t:Transfer) ASSERT t.id IS UNIQUE",
+    "CREATE CONSTRAINT IF NOT EXISTS ON (tx:Transaction) ASSERT tx.id IS UNIQUE",
+  };
 
-    // Identity Types
-    "CREATE INDEX IF NOT EXISTS FOR (e:Email) ON (e.email)",
-    "CREATE INDEX IF NOT EXISTS FOR (s:SSN) ON (s.ssn)",
-    "CREATE INDEX IF NOT EXISTS FOR (p:Phone) ON (p.phoneNumber)",
+  // Only needed when nodes are addressed by integer key (see ActorKeys) as well as by id.
+  public static final String KEY_SCHEMA_QUERY =
+      "CREATE CONSTRAINT IF NOT EXISTS ON (n:Node) ASSERT n.key IS UNIQUE";
 
-    // Various Indices
-    "CREATE INDEX IF NOT EXISTS FOR (t:Transaction) ON (t.globalStep)",
+  // Rolling back a resumed load looks Transactions up by globalStep, so it needs this one early.
+  public static final String TRANSACTION_GLOBAL_STEP_INDEX =
+      "CREATE INDEX IF NOT EXISTS FOR (t:Transaction) ON (t.globalStep)";
+
+  // Indexes for querying the finished graph. The load itself never uses them, so they can wait
+  // until the data is in rather than being kept up to date on every write.
+  public static final String[] ANALYTIC_INDEX_QUERIES = {
+    TRANSACTION_GLOBAL_STEP_INDEX,
     "CREATE INDEX IF NOT EXISTS FOR (c:CashIn) ON (c.globalStep)",
     "CREATE INDEX IF NOT EXISTS FOR (c:CashOut) ON (c.globalStep)",
     "CREATE INDEX IF NOT EXISTS FOR (d:Debit) ON (d.globalStep)",
@@ -35,81 +52,298 @@ public class Cypher {
     "CREATE INDEX IF NOT EXISTS FOR (t:Transaction) ON (t.fraud)",
   };
 
-  public static final String BULK_NODE_QUERY_STRING =
+  public static final String AWAIT_INDEXES = "CALL db.awaitIndexes($timeout)";
+
+  // Plain (non-unique) indexes on a label and property, which a unique constraint can't share.
+  public static final String FIND_PLAIN_INDEXES =
+      "CALL db.indexes() YIELD name, type, uniqueness, labelsOrTypes, properties"
+          + " WHERE type = 'BTREE' AND uniqueness = 'NONUNIQUE'"
+          + " AND labelsOrTypes = [$label] AND properties = [$property]"
+          + " RETURN name";
+  public static final String DROP_INDEX = "DROP INDEX `%s`";
+
+  // Columnar variants of the bulk queries: each parameter is a list holding one column of the
+  // batch (see BatchEncoder) and rows are addressed by index.
+  private static final String[] COLUMNAR_ACTOR_NODES = {
+    "UNWIND range(0, size($globalStep) - 1) AS i",
+    "MERGE (s:Node {id: $senderId[i]})",
+    "  ON CREATE SET s.new = true",
+    "WITH i, s",
+    "FOREACH(_ IN CASE WHEN s.new AND $senderLabel[i] = 'Client' THEN [1] ELSE [] END | SET s:Client)",
+    "FOREACH(_ IN CASE WHEN s.new AND $senderLabel[i] = 'Mule' THEN [1] ELSE [] END | SET s:Client, s:Mule)",
+    "FOREACH(_ IN CASE WHEN s.new AND $senderLabel[i] = 'Merchant' THEN [1] ELSE [] END | SET s:Merchant)",
+    "FOREACH(_ IN CASE WHEN s.new AND $senderLabel[i] = 'Bank' THEN [1] ELSE [] END | SET s:Bank)",
+    "REMOVE s.new",
+    "MERGE (r:Node {id: $receiverId[i]})",
+    "  ON CREATE SET r.new = true",
+    "WITH i, s, r",
+    "FOREACH(_ IN CASE WHEN r.new AND $receiverLabel[i] = 'Client' THEN [1] ELSE [] END | SET r:Client)",
+    "FOREACH(_ IN CASE WHEN r.new AND $receiverLabel[i] = 'Mule' THEN [1] ELSE [] END | SET r:Client, r:Mule)",
+    "FOREACH(_ IN CASE WHEN r.new AND $receiverLabel[i] = 'Merchant' THEN [1] ELSE [] END | SET r:Merchant)",
+    "FOREACH(_ IN CASE WHEN r.new AND $receiverLabel[i] = 'Bank' THEN [1] ELSE [] END | SET r:Bank)",
+    "REMOVE r.new",
+  };
+
+  private static final String TX_NODE = "CREATE (t:Node:Transaction {id: 'tx-' + $globalStep[i]})";
+
+  private static final String TX_ACTOR_IDS =
+      "  SET t.senderId = $senderId[i], t.receiverId = $receiverId[i],";
+
+  private static final String[] TX_NODE_PROPS = {
+    "      t.amount = $amount[i], t.fraud = $fraud[i], t.flaggedFraud = $flaggedFraud[i],",
+    "      t.step = $step[i], t.ts = $step[i], t.globalStep = $globalStep[i]",
+    "FOREACH(_ IN CASE $label[i] WHEN 'Payment' THEN [1] ELSE [] END | SET t:Payment)",
+    "FOREACH(_ IN CASE $label[i] WHEN 'Transfer' THEN [1] ELSE [] END | SET t:Transfer)",
+    "FOREACH(_ IN CASE $label[i] WHEN 'Debit' THEN [1] ELSE [] END | SET t:Debit)",
+    "FOREACH(_ IN CASE $label[i] WHEN 'CashIn' THEN [1] ELSE [] END | SET t:CashIn)",
+    "FOREACH(_ IN CASE $label[i] WHEN 'CashOut' THEN [1] ELSE [] END | SET t:CashOut)",
+  };
+
+  private static final String COLUMNAR_TX_NODE =
+      String.join("\n", TX_NODE, TX_ACTOR_IDS, String.join("\n", TX_NODE_PROPS));
+
+  public static final String COLUMNAR_NODE_QUERY_STRING =
+      String.join(
+          "\n",
+          String.join("\n", COLUMNAR_ACTOR_NODES),
+          COLUMNAR_TX_NODE,
+          "RETURN count(t)");
+
+  // Actors-first variants: every actor was written up front, so rows only MATCH them. Actors that
+  // joined the simulation since (i.e. Mules) are listed in $newId/$newLabel and MERGEd first.
+  private static final String[] COLUMNAR_NEW_ACTOR_NODES = {
+    "UNWIND range(0, size($newId) - 1) AS j",
+    "MERGE (a:Node {id: $newId[j]})",
+    "  ON CREATE SET a.new = true",
+    "WITH j, a",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Client' THEN [1] ELSE [] END | SET a:Client)",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Mule' THEN [1] ELSE [] END | SET a:Client, a:Mule)",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Merchant' THEN [1] ELSE [] END | SET a:Merchant)",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Bank' THEN [1] ELSE [] END | SET a:Bank)",
+    "REMOVE a.new",
+    "WITH count(*) AS _",
+    "UNWIND range(0, size($globalStep) - 1) AS i",
+  };
+
+  public static final String MATCHED_NODE_QUERY_STRING =
+      String.join(
+          "\n",
+          String.join("\n", COLUMNAR_NEW_ACTOR_NODES),
+          COLUMNAR_TX_NODE,
+          "RETURN count(t)");
+
+  public static final String MATCHED_COMBINED_QUERY_STRING =
+      String.join(
+          "\n",
+          String.join("\n", COLUMNAR_NEW_ACTOR_NODES),
+          "MATCH (s:Node {id: $senderId[i]})",
+          "MATCH (r:Node {id: $receiverId[i]})",
+          COLUMNAR_TX_NODE,
+          "CREATE (s)-[:PERFORMED]->(t)",
+          "CREATE (t)-[:TO]->(r)",
+          "RETURN count(t)");
+
+  public static final String COLUMNAR_TX_PERFORMED_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND range(0, size($globalStep) - 1) AS i",
+            "  MATCH (s:Node {id: $senderId[i]})",
+            "  MATCH (t:Node {id: 'tx-' + $globalStep[i]})",
+            "  CREATE (s)-[:PERFORMED]->(t)",
+          });
+
+  public static final String COLUMNAR_TX_TO_QUERY_STRING =
       String.join(
           "\n",
           new String[] {
-            "UNWIND $nodes AS n",
-            "  WITH n, coalesce(n.props, {}) AS props",
-            "  MERGE (a:Node {id: n.id })",
-            "    ON CREATE SET a += props, a.new = true",
-            "WITH n, a WHERE a.new",
-            "FOREACH(_ IN CASE n.label WHEN 'Client' THEN [1] ELSE [] END | SET a:Client)",
-            "FOREACH(_ IN CASE n.label WHEN 'Mule' THEN [1] ELSE [] END | SET a:Client, a:Mule)",
-            "FOREACH(_ IN CASE n.label WHEN 'Merchant' THEN [1] ELSE [] END | SET a:Merchant)",
-            "FOREACH(_ IN CASE n.label WHEN 'Bank' THEN [1] ELSE [] END | SET a:Bank)",
-            "FOREACH(_ IN CASE n.label WHEN 'Payment' THEN [1] ELSE [] END | SET a:Transaction, a:Payment)",
-            "FOREACH(_ IN CASE n.label WHEN 'Transfer' THEN [1] ELSE [] END | SET a:Transaction, a:Transfer)",
-            "FOREACH(_ IN CASE n.label WHEN 'Debit' THEN [1] ELSE [] END | SET a:Transaction, a:Debit)",
-            "FOREACH(_ IN CASE n.label WHEN 'CashIn' THEN [1] ELSE [] END | SET a:Transaction, a:CashIn)",
-            "FOREACH(_ IN CASE n.label WHEN 'CashOut' THEN [1] ELSE [] END | SET a:Transaction, a:CashOut)",
-            "REMOVE a.new",
-            "RETURN count(a)",
+            "UNWIND range(0, size($globalStep) - 1) AS i",
+            "  MATCH (r:Node {id: $receiverId[i]})",
+            "  MATCH (t:Node {id: 'tx-' + $globalStep[i]})",
+            "  CREATE (t)-[:TO]->(r)",
           });
 
-  public static final String BULK_TX_PERFORMED_QUERY_STRING =
+  public static final String BULK_TX_COMBINED_QUERY_STRING =
+      String.join(
+          "\n",
+          String.join("\n", COLUMNAR_ACTOR_NODES),
+          COLUMNAR_TX_NODE,
+          "CREATE (s)-[:PERFORMED]->(t)",
+          "CREATE (t)-[:TO]->(r)",
+          "RETURN count(t)");
+
+  public static final String COLUMNAR_CHAIN_QUERY_STRING =
       String.join(
           "\n",
           new String[] {
-            "UNWIND $txs AS tx",
-            "  MATCH (s:Node {id: tx.senderId})",
-            "  MATCH (t:Node {id: tx.id})",
+            "UNWIND range(0, size($globalStep) - 1) AS i",
+            "MATCH (t:Node {id: 'tx-' + $globalStep[i]})",
+            "OPTIONAL MATCH (p:Node {id: CASE WHEN $previous[i] >= 0 THEN 'tx-' + $previous[i] END})",
+            "OPTIONAL MATCH (c:Node {id: CASE WHEN $previous[i] < 0 THEN $clientId[i] END})",
+            "FOREACH(_ IN CASE WHEN p IS NULL THEN [] ELSE [1] END | CREATE (p)-[:NEXT]->(t))",
+            "FOREACH(_ IN CASE WHEN c IS NULL THEN [] ELSE [1] END | CREATE (c)-[:FIRST_TX]->(t))",
+            "RETURN count(t)",
+          });
+
+  public static final String COLUMNAR_LAST_TX_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND range(0, size($clientId) - 1) AS i",
+            "  MATCH (c:Node {id: $clientId[i]})",
+            "  MATCH (t:Node {id: 'tx-' + $globalStep[i]})",
+            // an incremental load moves LAST_TX on from where the previous window left it
+            "  OPTIONAL MATCH (c)-[old:LAST_TX]->(o) WHERE o <> t",
+            "  DELETE old",
+            "  MERGE (c)-[:LAST_TX]->(t)",
+          });
+
+  // Keyed variants of the actors-first queries: every node also gets an integer key (an actor's
+  // from ActorKeys, a Transaction's globalStep) and is MATCHed by it, a cheaper index probe than a
+  // string id. A batch only carries the string ids of the actors it creates: a Transaction's
+  // senderId and receiverId are copied from the actors it MATCHes. The 'tx-' id is still built
+  // here, so the graph looks the same as one loaded without keys.
+  private static final String[] KEYED_NEW_ACTOR_NODES = {
+    "UNWIND range(0, size($newKey) - 1) AS j",
+    "MERGE (a:Node {key: $newKey[j]})",
+    "  ON CREATE SET a.id = $newId[j], a.new = true",
+    "WITH j, a",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Client' THEN [1] ELSE [] END | SET a:Client)",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Mule' THEN [1] ELSE [] END | SET a:Client, a:Mule)",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Merchant' THEN [1] ELSE [] END | SET a:Merchant)",
+    "FOREACH(_ IN CASE WHEN a.new AND $newLabel[j] = 'Bank' THEN [1] ELSE [] END | SET a:Bank)",
+    "REMOVE a.new",
+    "WITH count(*) AS _",
+    "UNWIND range(0, size($globalStep) - 1) AS i",
+  };
+
+  private static final String KEYED_TX_NODE =
+      String.join(
+          "\n",
+          "MATCH (s:Node {key: $senderKey[i]})",
+          "MATCH (r:Node {key: $receiverKey[i]})",
+          "CREATE (t:Node:Transaction {id: 'tx-' + $globalStep[i], key: $globalStep[i]})",
+          "  SET t.senderId = s.id, t.receiverId = r.id,",
+          String.join("\n", TX_NODE_PROPS));
+
+  public static final String KEYED_NODE_QUERY_STRING =
+      String.join(
+          "\n", String.join("\n", KEYED_NEW_ACTOR_NODES), KEYED_TX_NODE, "RETURN count(t)");
+
+  public static final String KEYED_COMBINED_QUERY_STRING =
+      String.join(
+          "\n",
+          String.join("\n", KEYED_NEW_ACTOR_NODES),
+          KEYED_TX_NODE,
+          "CREATE (s)-[:PERFORMED]->(t)",
+          "CREATE (t)-[:TO]->(r)",
+          "RETURN count(t)");
+
+  public static final String KEYED_TX_PERFORMED_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND range(0, size($globalStep) - 1) AS i",
+            "  MATCH (s:Node {key: $senderKey[i]})",
+            "  MATCH (t:Node {key: $globalStep[i]})",
             "  CREATE (s)-[:PERFORMED]->(t)",
           });
 
-  public static final String BULK_TX_TO_QUERY_STRING =
+  public static final String KEYED_TX_TO_QUERY_STRING =
       String.join(
           "\n",
           new String[] {
-            "UNWIND $txs AS tx",
-            "  MATCH (r:Node {id: tx.receiverId})",
-            "  MATCH (t:Node {id: tx.id})",
+            "UNWIND range(0, size($globalStep) - 1) AS i",
+            "  MATCH (r:Node {key: $receiverKey[i]})",
+            "  MATCH (t:Node {key: $globalStep[i]})",
             "  CREATE (t)-[:TO]->(r)",
           });
 
-  public static final String THREAD_TRANSACTIONS_IN_BATCH =
+  public static final String KEYED_CHAIN_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND range(0, size($globalStep) - 1) AS i",
+            "MATCH (t:Node {key: $globalStep[i]})",
+            "OPTIONAL MATCH (p:Node {key: CASE WHEN $previous[i] >= 0 THEN $previous[i] END})",
+            "OPTIONAL MATCH (c:Node {key: CASE WHEN $previous[i] < 0 THEN $clientKey[i] END})",
+            "FOREACH(_ IN CASE WHEN p IS NULL THEN [] ELSE [1] END | CREATE (p)-[:NEXT]->(t))",
+            "FOREACH(_ IN CASE WHEN c IS NULL THEN [] ELSE [1] END | CREATE (c)-[:FIRST_TX]->(t))",
+            "RETURN count(t)",
+          });
+
+  public static final String KEYED_LAST_TX_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND range(0, size($clientKey) - 1) AS i",
+            "  MATCH (c:Node {key: $clientKey[i]})",
+            "  MATCH (t:Node {key: $globalStep[i]})",
+            "  OPTIONAL MATCH (c)-[old:LAST_TX]->(o) WHERE o <> t",
+            "  DELETE old",
+            "  MERGE (c)-[:LAST_TX]->(t)",
+          });
+
+  public static final String DELETE_TRANSACTIONS_AFTER =
       String.join(
           "\n",
           new String[] {
-            "UNWIND $ids AS clientId",
-            "MATCH (c:Client {id: clientId})-[:PERFORMED]->(tx:Transaction)",
-            "WITH c, tx ORDER BY tx.globalStep",
-            "WITH c, collect(tx) AS txs",
-            "WITH c, txs, head(txs) AS _start, last(txs) AS _last",
-            "MERGE (c)-[:FIRST_TX]->(_start)",
-            "MERGE (c)-[:LAST_TX]->(_last)",
-            "WITH txs",
-            "UNWIND range(1, size(txs) - 1) AS idx",
-            "WITH txs[idx-1] AS a, txs[idx] AS b",
-            "MERGE (a)-[n:NEXT]->(b)",
-            "RETURN COUNT(n)",
+            "MATCH (t:Transaction) WHERE t.globalStep > $globalStep AND t.step >= $fromStep",
+            // shards sharing a database interleave their globalSteps
+            "  AND t.globalStep % $shards = $shardIndex",
+            "WITH t LIMIT $limit",
+            "DETACH DELETE t",
+            "RETURN count(*)",
           });
 
-  public static final String CREATE_IDENTITY =
+  // Identity nodes can be shared between Clients, so each distinct value is created up front.
+  public static final String MERGE_SSNS = "UNWIND $values AS v MERGE (:SSN {ssn: v})";
+  public static final String MERGE_EMAILS = "UNWIND $values AS v MERGE (:Email {email: v})";
+  public static final String MERGE_PHONES =
+      "UNWIND $values AS v MERGE (:Phone {phoneNumber: v})";
+
+  // A Client missing an identity value still gets its name and its other links.
+  public static final String COLUMNAR_IDENTITY_QUERY_STRING =
       String.join(
           "\n",
           new String[] {
-            "MERGE (c:Node {id: $clientId}) ON MATCH SET c.name = $name, c:Client",
-            "MERGE (s:SSN {ssn: $ssn})",
-            "MERGE (e:Email {email: $email})",
-            "MERGE (p:Phone {phoneNumber: $phoneNumber})",
-            "MERGE (c)-[:HAS_SSN]->(s)",
-            "MERGE (c)-[:HAS_EMAIL]->(e)",
-            "MERGE (c)-[:HAS_PHONE]->(p)",
+            "UNWIND range(0, size($clientId) - 1) AS i",
+            "  MERGE (c:Node {id: $clientId[i]}) SET c.name = $name[i], c:Client",
+            "  WITH c, i",
+            "  OPTIONAL MATCH (s:SSN {ssn: $ssn[i]})",
+            "  OPTIONAL MATCH (e:Email {email: $email[i]})",
+            "  OPTIONAL MATCH (p:Phone {phoneNumber: $phoneNumber[i]})",
+            "  FOREACH(_ IN CASE WHEN s IS NULL THEN [] ELSE [1] END | MERGE (c)-[:HAS_SSN]->(s))",
+            "  FOREACH(_ IN CASE WHEN e IS NULL THEN [] ELSE [1] END | MERGE (c)-[:HAS_EMAIL]->(e))",
+            "  FOREACH(_ IN CASE WHEN p IS NULL THEN [] ELSE [1] END | MERGE (c)-[:HAS_PHONE]->(p))",
           });
 
+  public static final String KEYED_IDENTITY_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND range(0, size($clientId) - 1) AS i",
+            "  MERGE (c:Node {id: $clientId[i]}) SET c.name = $name[i], c:Client, c.key = $key[i]",
+            "  WITH c, i",
+            "  OPTIONAL MATCH (s:SSN {ssn: $ssn[i]})",
+            "  OPTIONAL MATCH (e:Email {email: $email[i]})",
+            "  OPTIONAL MATCH (p:Phone {phoneNumber: $phoneNumber[i]})",
+            "  FOREACH(_ IN CASE WHEN s IS NULL THEN [] ELSE [1] END | MERGE (c)-[:HAS_SSN]->(s))",
+            "  FOREACH(_ IN CASE WHEN e IS NULL THEN [] ELSE [1] END | MERGE (c)-[:HAS_EMAIL]->(e))",
+            "  FOREACH(_ IN CASE WHEN p IS NULL THEN [] ELSE [1] END | MERGE (c)-[:HAS_PHONE]->(p))",
+          });
+
+  // Any node without a key, i.e. one written by a load without --keys.
+  public static final String FIND_UNKEYED_NODE =
+      "MATCH (n:Node) WHERE n.key IS NULL RETURN n.id LIMIT 1";
+
   public static final String GET_CLIENT_IDS = "MATCH (c:Client) RETURN c.id";
   public static final String LABEL_PLACEHOLDER = "~LABEL~";
   public static final String UPDATE_NODE_PROPS =
-      "MATCH (n:" + LABEL_PLACEHOLDER + " {id: $id}) SET n += $props";
+      "UNWIND $rows AS row MATCH (n:" + LABEL_PLACEHOLDER + " {id: row.id}) SET n += row.props";
+  public static final String CREATE_ACTOR_NODES =
+      "UNWIND $rows AS row MERGE (n:Node {id: row.id}) SET n:"
+          + LABEL_PLACEHOLDER
+          + ", n += row.props";
+  public static final String CREATE_KEYED_ACTOR_NODES = CREATE_ACTOR_NODES + ", n.key = row.key";
 }
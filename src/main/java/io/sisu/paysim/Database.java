@@ -2,14 +2,29 @@ package io.sisu.paysim;
 
 import org.neo4j.driver.Config;
 import org.neo4j.driver.*;
+import org.neo4j.driver.async.AsyncSession;
+import org.neo4j.driver.async.ResultCursor;
 import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.driver.exceptions.TransientException;
 import org.neo4j.driver.summary.SummaryCounters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class Database {
@@ -17,64 +32,325 @@ public class Database {
       Config.builder().withLogging(Logging.slf4j()).withEncryption().build();
   public static final Config defaultConfig = Config.builder().withLogging(Logging.slf4j()).build();
   private static Logger logger = LoggerFactory.getLogger(Database.class);
+  private static final long RETRY_BASE_DELAY_MS = 50;
+  private static final long RETRY_MAX_DELAY_MS = 5_000;
+  // Async retries wait out their backoff here rather than on one of the driver's event loops.
+  private static final ScheduledExecutorService retryScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "paysim-retry");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private static final Pattern UNIQUE_CONSTRAINT =
+      Pattern.compile("ON \\(\\w+:(\\w+)\\) ASSERT \\w+\\.(\\w+) IS UNIQUE");
+
+  /**
+   * Create indexes and constraints, all at once, and wait for every index in the database to come
+   * online so the load never starts out scanning labels.
+   *
+   * <p>A plain index left on a label and property, e.g. by an earlier version, is in the way of a
+   * unique constraint on them. It's dropped, as the constraint brings its own index, and the
+   * constraint created again. Any other failure is fatal, as the load would go on without it.
+   *
+   * @param driver Neo4j Driver instance
+   * @param queries schema statements, e.g. {@link Cypher#SCHEMA_QUERIES}
+   * @param timeoutSeconds how long to wait for the indexes
+   * @throws ClientException if a statement failed, or the indexes don't come online in time
+   */
+  public static void enforcePaySimSchema(Driver driver, List<String> queries, int timeoutSeconds) {
+    final Queue<String> contended = new ConcurrentLinkedQueue<>();
+    final Map<String, RuntimeException> failed = new ConcurrentHashMap<>();
+    final CompletableFuture<?>[] statements = new CompletableFuture<?>[queries.size()];
+    for (int i = 0; i < statements.length; i++) {
+      statements[i] =
+          runSchemaQueryAsync(driver, queries.get(i), contended, failed).toCompletableFuture();
+    }
+    CompletableFuture.allOf(statements).join();
+    // Anything that lost out on the schema lock gets another go, one at a time.
+    for (String query : contended) {
+      try (Session session = driver.session()) {
+        session.run(query).consume();
+      } catch (ClientException ce) {
+        failed.put(query, ce);
+      }
+    }
+    failed.forEach((query, failure) -> replaceConflictingIndexes(driver, query, failure));
+
+    logger.info("waiting up to {}s for indexes to come online...", timeoutSeconds);
+    try (Session session = driver.session()) {
+      session.run(Cypher.AWAIT_INDEXES, Values.parameters("timeout", timeoutSeconds)).consume();
+    }
+    logger.debug("schema configured");
+  }
+
+  private static CompletionStage<Void> runSchemaQueryAsync(
+      Driver driver, String query, Queue<String> contended, Map<String, RuntimeException> failed) {
+    final AsyncSession session = driver.asyncSession();
+    return session
+        .runAsync(query)
+        .thenCompose(ResultCursor::consumeAsync)
+        .handle(
+            (summary, error) -> {
+              final Throwable cause = error == null ? null : unwrap(error);
+              if (cause instanceof TransientException) {
+                contended.add(query);
+              } else if (cause != null) {
+                failed.put(
+                    query,
+                    cause instanceof RuntimeException
+                        ? (RuntimeException) cause
+                        : new CompletionException(cause));
+              }
+              return null;
+            })
+        .thenCompose(v -> session.closeAsync());
+  }
+
+  /**
+   * Drop any plain index in the way of a unique constraint that failed, and create it again.
+   *
+   * @param query the failed constraint
+   * @param failure why it failed
+   * @throws RuntimeException the original failure, if no index was in the way
+   */
+  private static void replaceConflictingIndexes(
+      Driver driver, String query, RuntimeException failure) {
+    final Matcher constraint = UNIQUE_CONSTRAINT.matcher(query);
+    try (Session session = driver.session()) {
+      final List<String> conflicting =
+          !constraint.find()
+              ? List.of()
+              : session
+                  .run(
+                      Cypher.FIND_PLAIN_INDEXES,
+                      Values.parameters(
+                          "label", constraint.group(1), "property", constraint.group(2)))
+                  .list(r -> r.get(0).asString());
+      if (conflicting.isEmpty()) {
+        logger.error("'{}' failed: {}", query, failure.getMessage());
+        throw failure;
+      }
+      for (String index : conflicting) {
+        logger.warn("dropping index {}, which is in the way of '{}'", index, query);
+        session.run(String.format(Cypher.DROP_INDEX, index)).consume();
+      }
+      session.run(query).consume();
+    }
+  }
 
-  private static class Pair {
-      public final long nodes;
-      public final long rels;
-      public Pair(long nodes, long rels) {
-          this.nodes = nodes;
-          this.rels = rels;
+  /**
+   * Execute a single write Query in its own transaction, retrying with jittered exponential
+   * backoff if the server reports a transient failure (e.g. a deadlock between concurrent writers).
+   *
+   * @param driver Neo4j Driver instance
+   * @param query Query to execute
+   * @param maxRetries maximum number of retries before giving up and rethrowing
+   */
+  public static void executeWithRetry(Driver driver, Query query, int maxRetries) {
+    long backoff = RETRY_BASE_DELAY_MS;
+    for (int attempt = 1; ; attempt++) {
+      final long start = System.nanoTime();
+      try (Session session = driver.session();
+          Transaction tx = session.beginTransaction()) {
+        SummaryCounters summary = tx.run(query).consume().counters();
+        tx.commit();
+        Metrics.record(Metrics.Stage.BOLT_TX, start);
+        Metrics.add(Metrics.Counter.COMMITS, 1);
+        Metrics.add(Metrics.Counter.NODES_CREATED, summary.nodesCreated());
+        Metrics.add(Metrics.Counter.RELATIONSHIPS_CREATED, summary.relationshipsCreated());
+        logger.info(
+            "created {} nodes, {} relationships",
+            summary.nodesCreated(),
+            summary.relationshipsCreated());
+        return;
+      } catch (TransientException te) {
+        Metrics.record(Metrics.Stage.BOLT_TX, start);
+        // The same transaction is likely to run out of memory again, so leave it to the caller to
+        // split it up.
+        if (attempt > maxRetries || AdaptiveBatchSize.isMemoryError(te)) {
+          throw te;
+        }
+        Metrics.add(Metrics.Counter.RETRIES, 1);
+        final long delay = backoff + ThreadLocalRandom.current().nextLong(backoff);
+        logger.warn(
+            "transient failure ({}), retrying in {}ms [attempt {}/{}]",
+            te.code(),
+            delay,
+            attempt,
+            maxRetries);
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw te;
+        }
+        backoff = Math.min(backoff * 2, RETRY_MAX_DELAY_MS);
       }
+    }
+  }
+
+  /**
+   * Execute a single write Query in its own transaction without blocking the calling thread.
+   *
+   * @param driver Neo4j Driver instance
+   * @param query Query to execute
+   * @return completes once the transaction commits, or exceptionally with the cause of failure
+   */
+  public static CompletionStage<Void> executeAsync(Driver driver, Query query) {
+    final long start = System.nanoTime();
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    final AsyncSession session = driver.asyncSession();
+    session
+        .beginTransactionAsync()
+        .thenCompose(
+            tx ->
+                tx.runAsync(query)
+                    .thenCompose(ResultCursor::consumeAsync)
+                    .thenCompose(summary -> tx.commitAsync().thenApply(v -> summary.counters())))
+        // Closing the session rolls back a transaction that didn't commit.
+        .whenComplete(
+            (summary, error) ->
+                session
+                    .closeAsync()
+                    .whenComplete(
+                        (v, closeError) -> {
+                          Metrics.record(Metrics.Stage.BOLT_TX, start);
+                          if (error != null) {
+                            done.completeExceptionally(unwrap(error));
+                            return;
+                          }
+                          Metrics.add(Metrics.Counter.COMMITS, 1);
+                          Metrics.add(Metrics.Counter.NODES_CREATED, summary.nodesCreated());
+                          Metrics.add(
+                              Metrics.Counter.RELATIONSHIPS_CREATED,
+                              summary.relationshipsCreated());
+                          logger.info(
+                              "created {} nodes, {} relationships",
+                              summary.nodesCreated(),
+                              summary.relationshipsCreated());
+                          done.complete(null);
+                        }));
+    return done;
   }
 
-  public static void enforcePaySimSchema(Driver driver) {
-    Arrays.stream(Cypher.SCHEMA_QUERIES)
-        .forEach(
-            q -> {
-              try (Session session = driver.session()) {
-                session.run(q);
-              } catch (ClientException ce) {
-                logger.info("constraint provided by '{}' might already exist", q);
+  /**
+   * Execute a single write Query in its own transaction without blocking the calling thread,
+   * retrying with jittered exponential backoff like {@link #executeWithRetry(Driver, Query, int)}.
+   *
+   * @param driver Neo4j Driver instance
+   * @param query Query to execute
+   * @param maxRetries maximum number of retries before giving up
+   * @return completes once the transaction commits, or exceptionally once it's given up on
+   */
+  public static CompletionStage<Void> executeWithRetryAsync(
+      Driver driver, Query query, int maxRetries) {
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+    attemptAsync(driver, query, maxRetries, 1, RETRY_BASE_DELAY_MS, done);
+    return done;
+  }
+
+  private static void attemptAsync(
+      Driver driver,
+      Query query,
+      int maxRetries,
+      int attempt,
+      long backoff,
+      CompletableFuture<Void> done) {
+    executeAsync(driver, query)
+        .whenComplete(
+            (v, error) -> {
+              if (error == null) {
+                done.complete(null);
+                return;
               }
+              if (!(error instanceof TransientException)
+                  || attempt > maxRetries
+                  || AdaptiveBatchSize.isMemoryError(error)) {
+                done.completeExceptionally(error);
+                return;
+              }
+              Metrics.add(Metrics.Counter.RETRIES, 1);
+              final long delay = backoff + ThreadLocalRandom.current().nextLong(backoff);
+              logger.warn(
+                  "transient failure ({}), retrying in {}ms [attempt {}/{}]",
+                  ((TransientException) error).code(),
+                  delay,
+                  attempt,
+                  maxRetries);
+              retryScheduler.schedule(
+                  () ->
+                      attemptAsync(
+                          driver,
+                          query,
+                          maxRetries,
+                          attempt + 1,
+                          Math.min(backoff * 2, RETRY_MAX_DELAY_MS),
+                          done),
+                  delay,
+                  TimeUnit.MILLISECONDS);
             });
+  }
 
-    logger.debug("schema configured");
+  /**
+   * @param t failure from a CompletionStage
+   * @return the underlying cause, if the failure is just wrapping it
+   */
+  public static Throwable unwrap(Throwable t) {
+    return (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
   }
 
-  public static void execute(Driver driver, Query query) {
+  /**
+   * Delete every Transaction of a shard past a checkpoint, along with its relationships, so a
+   * resumed load can write them again without duplicates. Other shards' Transactions are left
+   * alone.
+   *
+   * @param driver Neo4j Driver instance
+   * @param globalStep last committed globalStep to keep
+   * @param fromStep first step the load writes, as earlier steps belong to an earlier load
+   * @param shard shard being resumed
+   * @param batchSize max Transactions to delete per transaction
+   * @return number of Transactions deleted
+   */
+  public static long deleteTransactionsAfter(
+      Driver driver, long globalStep, int fromStep, Shard shard, int batchSize) {
+    long total = 0;
     try (Session session = driver.session()) {
-      Pair pair = session.writeTransaction(
-          tx -> {
-            // logger.info(query.toString());
-            SummaryCounters summary = tx.run(query).consume().counters();
-            return new Pair(summary.nodesCreated(), summary.relationshipsCreated());
-          });
-        logger.info("created {} nodes, {} relationships", pair.nodes, pair.rels);
+      while (true) {
+        final long deleted =
+            session.writeTransaction(
+                tx ->
+                    tx.run(
+                            Cypher.DELETE_TRANSACTIONS_AFTER,
+                            Values.parameters(
+                                "globalStep", globalStep,
+                                "fromStep", fromStep,
+                                "shards", shard.count,
+                                "shardIndex", shard.index,
+                                "limit", batchSize))
+                        .single()
+                        .get(0)
+                        .asLong());
+        if (deleted == 0) {
+          return total;
+        }
+        total += deleted;
+        logger.info("rolled back {} uncommitted transactions", total);
+      }
     }
   }
 
-  public static int executeBatch(Driver driver, List<Query> queries) {
+  /**
+   * Find a node that has no integer key, as written by a load without {@code --keys}.
+   *
+   * @param driver Neo4j Driver instance
+   * @return id of such a node, or empty if every node has a key
+   */
+  public static Optional<String> findUnkeyedNode(Driver driver) {
     try (Session session = driver.session()) {
-      final AtomicInteger nodeCnt = new AtomicInteger();
-      final AtomicInteger relCnt = new AtomicInteger();
-      int cnt =
-          session.writeTransaction(
-              tx -> {
-                queries.forEach(
-                    q -> {
-                      logger.trace(q.toString());
-                      SummaryCounters results = tx.run(q).consume().counters();
-                      nodeCnt.addAndGet(results.nodesCreated());
-                      relCnt.addAndGet(results.relationshipsCreated());
-                    });
-                return queries.size();
-              });
-      logger.info(
-          "batch executed {} queries, creating {} nodes and {} relationships",
-          cnt,
-          nodeCnt.get(),
-          relCnt.get());
-      return cnt;
+      final Result result = session.run(Cypher.FIND_UNKEYED_NODE);
+      return result.hasNext() ? Optional.of(result.next().get(0).asString()) : Optional.empty();
     }
   }
 
@@ -0,0 +1,258 @@
+package io.sisu.paysim;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A minimal writer of flat JSON objects, one per record, that encodes fields straight into a
+ * reusable byte buffer like {@link CsvWriter}.
+ *
+ * <p>Records are framed either as newline-delimited JSON or with a 4-byte big-endian length prefix,
+ * as Kafka-style tools expect. Only whole records are ever written to the underlying stream, so a
+ * reader never sees half an event.
+ */
+public class JsonWriter implements AutoCloseable {
+  public static final String FRAMING_NDJSON = "ndjson";
+  public static final String FRAMING_LENGTH = "length";
+
+  private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+  private static final int MIN_BUFFER_SIZE = 32;
+  private static final int PREFIX_BYTES = 4;
+  private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private final OutputStream out;
+  private final boolean lengthPrefixed;
+  private final byte[] digits = new byte[20];
+  private final StringBuilder number = new StringBuilder(32);
+  private byte[] buf;
+  private int pos = 0;
+  private int recordStart = 0;
+  private boolean firstField = true;
+
+  public JsonWriter(OutputStream out, String framing) {
+    this(out, framing, DEFAULT_BUFFER_SIZE);
+  }
+
+  public JsonWriter(OutputStream out, String framing, int bufferSize) {
+    if (!FRAMING_NDJSON.equals(framing) && !FRAMING_LENGTH.equals(framing)) {
+      throw new IllegalArgumentException("unknown framing: " + framing);
+    }
+    this.out = out;
+    this.lengthPrefixed = FRAMING_LENGTH.equals(framing);
+    this.buf = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+  }
+
+  private void ensure(int n) throws IOException {
+    if (pos + n <= buf.length) {
+      return;
+    }
+    // Write out the records before this one, or make room for a record that's bigger than the
+    // whole buffer.
+    writeRecords();
+    if (pos + n > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+    }
+  }
+
+  /** Write out every complete record and move the one in progress to the front of the buffer. */
+  private void writeRecords() throws IOException {
+    out.write(buf, 0, recordStart);
+    System.arraycopy(buf, recordStart, buf, 0, pos - recordStart);
+    pos -= recordStart;
+    recordStart = 0;
+  }
+
+  private void raw(byte b) throws IOException {
+    ensure(1);
+    buf[pos++] = b;
+  }
+
+  private void beginField(String key) throws IOException {
+    if (firstField && lengthPrefixed) {
+      // filled in once the record's length is known
+      ensure(PREFIX_BYTES);
+      pos += PREFIX_BYTES;
+    }
+    ensure(key.length() + 4);
+    buf[pos++] = firstField ? (byte) '{' : (byte) ',';
+    firstField = false;
+    buf[pos++] = '"';
+    for (int i = 0; i < key.length(); i++) {
+      buf[pos++] = (byte) key.charAt(i);
+    }
+    buf[pos++] = '"';
+    buf[pos++] = ':';
+  }
+
+  /** Write a field with a String value. Keys must be plain ASCII and need no escaping. */
+  public JsonWriter string(String key, String value) throws IOException {
+    beginField(key);
+    if (value == null) {
+      return nullValue();
+    }
+    raw((byte) '"');
+    for (int i = 0; i < value.length(); ) {
+      final int c = value.codePointAt(i);
+      i += Character.charCount(c);
+      if (c > 0x7f) {
+        utf8(c);
+      } else {
+        escaped(c);
+      }
+    }
+    raw((byte) '"');
+    return this;
+  }
+
+  /** Write an ASCII character, escaped as a JSON string needs. */
+  private void escaped(int c) throws IOException {
+    ensure(6);
+    if (c == '"' || c == '\\') {
+      buf[pos++] = '\\';
+      buf[pos++] = (byte) c;
+    } else if (c < 0x20) {
+      buf[pos++] = '\\';
+      buf[pos++] = 'u';
+      buf[pos++] = '0';
+      buf[pos++] = '0';
+      buf[pos++] = HEX[c >> 4];
+      buf[pos++] = HEX[c & 0xf];
+    } else {
+      buf[pos++] = (byte) c;
+    }
+  }
+
+  /**
+   * Write a non-ASCII code point as UTF-8, which needs no escaping. A lone surrogate is written as
+   * '?', like {@link String#getBytes} does.
+   */
+  private void utf8(int c) throws IOException {
+    ensure(4);
+    if (c < 0x800) {
+      buf[pos++] = (byte) (0xc0 | (c >> 6));
+    } else if (c < 0x10000) {
+      if (Character.isSurrogate((char) c)) {
+        buf[pos++] = '?';
+        return;
+      }
+      buf[pos++] = (byte) (0xe0 | (c >> 12));
+      buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+    } else {
+      buf[pos++] = (byte) (0xf0 | (c >> 18));
+      buf[pos++] = (byte) (0x80 | ((c >> 12) & 0x3f));
+      buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+    }
+    buf[pos++] = (byte) (0x80 | (c & 0x3f));
+  }
+
+  public JsonWriter longValue(String key, long n) throws IOException {
+    beginField(key);
+    if (n == Long.MIN_VALUE) {
+      number.setLength(0);
+      appendNumber(number.append(n));
+      return this;
+    }
+    ensure(20);
+    appendLong(n);
+    return this;
+  }
+
+  private void appendLong(long n) {
+    if (n < 0) {
+      buf[pos++] = '-';
+      n = -n;
+    }
+    int len = 0;
+    do {
+      digits[len++] = (byte) ('0' + (n % 10));
+      n /= 10;
+    } while (n > 0);
+    while (len > 0) {
+      buf[pos++] = digits[--len];
+    }
+  }
+
+  /**
+   * Write a double in full, as {@link Double#toString} does, so amounts round-trip exactly. JSON has
+   * no NaN or Infinity, so those are written as null.
+   */
+  public JsonWriter doubleValue(String key, double d) throws IOException {
+    beginField(key);
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      return nullValue();
+    }
+    number.setLength(0);
+    appendNumber(number.append(d));
+    return this;
+  }
+
+  /** Copy a number formatted into the reusable {@link #number} builder into the buffer. */
+  private void appendNumber(StringBuilder formatted) throws IOException {
+    ensure(formatted.length());
+    for (int i = 0; i < formatted.length(); i++) {
+      buf[pos++] = (byte) formatted.charAt(i);
+    }
+  }
+
+  public JsonWriter bool(String key, boolean b) throws IOException {
+    beginField(key);
+    ensure(5);
+    if (b) {
+      buf[pos++] = 't';
+      buf[pos++] = 'r';
+      buf[pos++] = 'u';
+      buf[pos++] = 'e';
+    } else {
+      buf[pos++] = 'f';
+      buf[pos++] = 'a';
+      buf[pos++] = 'l';
+      buf[pos++] = 's';
+      buf[pos++] = 'e';
+    }
+    return this;
+  }
+
+  private JsonWriter nullValue() throws IOException {
+    ensure(4);
+    buf[pos++] = 'n';
+    buf[pos++] = 'u';
+    buf[pos++] = 'l';
+    buf[pos++] = 'l';
+    return this;
+  }
+
+  /** Close the current object and frame it as a record. */
+  public JsonWriter endRecord() throws IOException {
+    if (firstField) {
+      throw new IllegalStateException("a record needs at least one field");
+    }
+    raw((byte) '}');
+    if (lengthPrefixed) {
+      final int length = pos - recordStart - PREFIX_BYTES;
+      buf[recordStart] = (byte) (length >>> 24);
+      buf[recordStart + 1] = (byte) (length >>> 16);
+      buf[recordStart + 2] = (byte) (length >>> 8);
+      buf[recordStart + 3] = (byte) length;
+    } else {
+      raw((byte) '\n');
+    }
+    recordStart = pos;
+    firstField = true;
+    return this;
+  }
+
+  /** Write out every complete record so far. */
+  public void flush() throws IOException {
+    writeRecords();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (OutputStream o = out) {
+      out.write(buf, 0, recordStart);
+    }
+  }
+}
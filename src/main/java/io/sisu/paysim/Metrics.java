@@ -0,0 +1,245 @@
+package io.sisu.paysim;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide latency histograms and counters for each stage of a load, so it's visible whether
+ * the simulation, encoding or the database is holding things up.
+ *
+ * <p>Latencies are recorded into HdrHistogram {@link Recorder}s, which are safe to record into from
+ * any thread without locking. They can be logged periodically with {@link #startReporting} and are
+ * exposed over JMX as {@code io.sisu.paysim:type=Metrics}.
+ */
+public class Metrics implements MetricsMXBean {
+  public enum Stage {
+    /** Waiting on the simulation to fill a batch of Transactions. */
+    SIM_WAIT("simWait"),
+    /** Waiting for room in the writer pipeline, i.e. backpressure from the database. */
+    PIPELINE_WAIT("pipelineWait"),
+    /** Encoding batches into Query parameters. */
+    ENCODE("encode"),
+    /** Running and committing a Bolt transaction, per attempt. */
+    BOLT_TX("boltTx");
+
+    public final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+  }
+
+  public enum Counter {
+    TRANSACTIONS("transactions"),
+    COMMITS("commits"),
+    RETRIES("retries"),
+    NODES_CREATED("nodesCreated"),
+    RELATIONSHIPS_CREATED("relationshipsCreated");
+
+    public final String label;
+
+    Counter(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+  private static final int SIGNIFICANT_DIGITS = 3;
+  private static final double NANOS_PER_MILLI = 1_000_000.0;
+  private static final Metrics INSTANCE = new Metrics();
+
+  private final EnumMap<Stage, Recorder> recorders = new EnumMap<>(Stage.class);
+  private final EnumMap<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+  // guarded by this
+  private final EnumMap<Stage, Histogram> intervals = new EnumMap<>(Stage.class);
+  private final EnumMap<Stage, Histogram> sinceReport = new EnumMap<>(Stage.class);
+  private final EnumMap<Stage, Histogram> totals = new EnumMap<>(Stage.class);
+  private final EnumMap<Counter, Long> lastReported = new EnumMap<>(Counter.class);
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+  private long lastReportNanos = System.nanoTime();
+
+  private Metrics() {
+    for (Stage stage : Stage.values()) {
+      recorders.put(stage, new Recorder(SIGNIFICANT_DIGITS));
+      sinceReport.put(stage, new Histogram(SIGNIFICANT_DIGITS));
+      totals.put(stage, new Histogram(SIGNIFICANT_DIGITS));
+    }
+    for (Counter counter : Counter.values()) {
+      counters.put(counter, new LongAdder());
+      lastReported.put(counter, 0L);
+    }
+  }
+
+  public static Metrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Record how long a stage took.
+   *
+   * @param stage Stage
+   * @param startNanos {@link System#nanoTime()} when the stage started
+   */
+  public static void record(Stage stage, long startNanos) {
+    INSTANCE.recorders.get(stage).recordValue(Math.max(System.nanoTime() - startNanos, 0));
+  }
+
+  public static void add(Counter counter, long n) {
+    INSTANCE.counters.get(counter).add(n);
+  }
+
+  /**
+   * Record the wall time of a phase of the load, e.g. creating identities. Repeated phases add up.
+   *
+   * @param phase name of the phase
+   * @param startNanos {@link System#nanoTime()} when the phase started
+   */
+  public static void phase(String phase, long startNanos) {
+    final long elapsed = System.nanoTime() - startNanos;
+    synchronized (INSTANCE) {
+      INSTANCE.phaseNanos.merge(phase, elapsed, Long::sum);
+    }
+    logger.info("[metrics] phase {} took {}", phase, String.format("%.3fs", elapsed / 1e9));
+  }
+
+  /** Expose the metrics over JMX. Safe to call more than once. */
+  public static void registerMBean() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName("io.sisu.paysim:type=Metrics");
+      if (!server.isRegistered(name)) {
+        server.registerMBean(INSTANCE, name);
+      }
+    } catch (JMException e) {
+      logger.warn("failed to register metrics MBean", e);
+    }
+  }
+
+  /** Periodic logging of the metrics, started by {@link #startReporting}. */
+  public static class Reporter implements AutoCloseable {
+    private final ScheduledExecutorService scheduler;
+
+    private Reporter(ScheduledExecutorService scheduler) {
+      this.scheduler = scheduler;
+    }
+
+    /** Stop reporting and log a final report. */
+    @Override
+    public void close() {
+      if (scheduler != null) {
+        scheduler.shutdownNow();
+        INSTANCE.report();
+      }
+    }
+  }
+
+  /**
+   * Log a rate report every {@code intervalSeconds} on a background thread.
+   *
+   * @param intervalSeconds seconds between reports, or 0 to not report
+   * @return Reporter to close once the load is done
+   */
+  public static Reporter startReporting(long intervalSeconds) {
+    if (intervalSeconds <= 0) {
+      return new Reporter(null);
+    }
+    final ScheduledExecutorService scheduler =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "paysim-metrics");
+              thread.setDaemon(true);
+              return thread;
+            });
+    scheduler.scheduleAtFixedRate(
+        INSTANCE::report, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    return new Reporter(scheduler);
+  }
+
+  // Move whatever has been recorded so far into the report and cumulative histograms.
+  private synchronized void drain() {
+    for (Stage stage : Stage.values()) {
+      final Histogram interval = recorders.get(stage).getIntervalHistogram(intervals.get(stage));
+      intervals.put(stage, interval);
+      sinceReport.get(stage).add(interval);
+      totals.get(stage).add(interval);
+    }
+  }
+
+  private static String format(Histogram h) {
+    return String.format(
+        "n=%d p50=%.2fms p99=%.2fms max=%.2fms",
+        h.getTotalCount(),
+        h.getValueAtPercentile(50) / NANOS_PER_MILLI,
+        h.getValueAtPercentile(99) / NANOS_PER_MILLI,
+        h.getMaxValue() / NANOS_PER_MILLI);
+  }
+
+  synchronized void report() {
+    drain();
+    final long now = System.nanoTime();
+    final double seconds = Math.max(now - lastReportNanos, 1) / 1_000_000_000.0;
+    lastReportNanos = now;
+
+    final StringBuilder rates = new StringBuilder("[metrics]");
+    for (Counter counter : Counter.values()) {
+      final long total = counters.get(counter).sum();
+      final long delta = total - lastReported.put(counter, total);
+      rates.append(String.format(" %s=%d (%.1f/s)", counter.label, total, delta / seconds));
+    }
+    logger.info(rates.toString());
+
+    for (Stage stage : Stage.values()) {
+      final Histogram h = sinceReport.get(stage);
+      if (h.getTotalCount() > 0) {
+        logger.info("[metrics] {} {}", stage.label, format(h));
+      }
+      h.reset();
+    }
+  }
+
+  @Override
+  public Map<String, Long> getCounters() {
+    final Map<String, Long> values = new LinkedHashMap<>();
+    for (Counter counter : Counter.values()) {
+      values.put(counter.label, counters.get(counter).sum());
+    }
+    return values;
+  }
+
+  @Override
+  public synchronized Map<String, Double> getPhaseMillis() {
+    final Map<String, Double> values = new LinkedHashMap<>();
+    phaseNanos.forEach((phase, nanos) -> values.put(phase, nanos / NANOS_PER_MILLI));
+    return values;
+  }
+
+  @Override
+  public synchronized Map<String, Double> getLatencyMillis() {
+    drain();
+    final Map<String, Double> values = new LinkedHashMap<>();
+    for (Stage stage : Stage.values()) {
+      final Histogram h = totals.get(stage);
+      values.put(stage.label + ".count", (double) h.getTotalCount());
+      values.put(stage.label + ".mean", h.getMean() / NANOS_PER_MILLI);
+      values.put(stage.label + ".p50", h.getValueAtPercentile(50) / NANOS_PER_MILLI);
+      values.put(stage.label + ".p99", h.getValueAtPercentile(99) / NANOS_PER_MILLI);
+      values.put(stage.label + ".p999", h.getValueAtPercentile(99.9) / NANOS_PER_MILLI);
+      values.put(stage.label + ".max", h.getMaxValue() / NANOS_PER_MILLI);
+    }
+    return values;
+  }
+}
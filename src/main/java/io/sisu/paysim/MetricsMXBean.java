@@ -0,0 +1,15 @@
+package io.sisu.paysim;
+
+import java.util.Map;
+
+/** JMX view of {@link Metrics}. */
+public interface MetricsMXBean {
+  /** @return running totals of each counter */
+  Map<String, Long> getCounters();
+
+  /** @return wall time of each phase of the load */
+  Map<String, Double> getPhaseMillis();
+
+  /** @return count, mean, p50, p99, p99.9 and max latency of each stage since startup */
+  Map<String, Double> getLatencyMillis();
+}
@@ -0,0 +1,181 @@
+package io.sisu.paysim;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Writes relationship batches concurrently without having writers fight over the same nodes.
+ *
+ * <p>Creating a relationship locks both of its end nodes. A batch of PERFORMED relationships is
+ * split by a hash of the sender id (and a batch of TO relationships by the receiver id) so that no
+ * two partitions ever touch the same Client, Merchant or Bank. The partitions can then be
+ * committed in parallel. Deadlocks can still happen between different batches in flight at the
+ * same time, so every write is retried with backoff.
+ *
+ * <p>A batch that runs the server out of memory is written again in smaller slices, and the shared
+ * {@link AdaptiveBatchSize} shrinks so later batches are built smaller too.
+ *
+ * <p>The {@code writeAsync} methods do the same without blocking, using the driver's async API, so
+ * a single thread can keep many writes waiting on the network at once.
+ */
+public class PartitionedWriter implements AutoCloseable {
+  private final Driver driver;
+  private final int partitions;
+  private final int maxRetries;
+  private final AdaptiveBatchSize batchSize;
+  private final ExecutorService executor;
+
+  public PartitionedWriter(
+      Driver driver, int partitions, int maxRetries, AdaptiveBatchSize batchSize) {
+    this.driver = driver;
+    this.partitions = Math.max(partitions, 1);
+    this.maxRetries = maxRetries;
+    this.batchSize = batchSize;
+
+    final AtomicInteger threadCnt = new AtomicInteger(0);
+    this.executor =
+        (this.partitions > 1)
+            ? Executors.newFixedThreadPool(
+                this.partitions,
+                r -> {
+                  Thread thread =
+                      new Thread(r, "paysim-partition-writer-" + threadCnt.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+                })
+            : null;
+  }
+
+  /**
+   * Pick the partition for a key. Items with the same key always land in the same partition.
+   *
+   * @param key key to partition on, e.g. a sender id
+   * @param partitions number of partitions
+   * @return partition index in {@code [0, partitions)}
+   */
+  public static int bucket(String key, int partitions) {
+    return Math.floorMod(key.hashCode(), partitions);
+  }
+
+  /**
+   * Write the given Query on the calling thread, retrying on transient failures.
+   *
+   * @param query Query to write
+   */
+  public void write(Query query) {
+    Database.executeWithRetry(driver, query, maxRetries);
+  }
+
+  /**
+   * Write a query for the given batch on the calling thread, in smaller slices if it's too big for
+   * the server's memory.
+   *
+   * @param batch batch of Transactions
+   * @param compile compiles a batch into its Query
+   */
+  public void write(TxBatch batch, Function<TxBatch, Query> compile) {
+    batchSize.write(0, batch.size(), (from, to) -> write(compile.apply(batch.slice(from, to))));
+  }
+
+  /**
+   * Write a bulk relationship query for the given batch, partitioned on the given key and
+   * committed concurrently. Blocks until every partition is committed.
+   *
+   * @param batch batch of Transactions
+   * @param key the end node id the relationships lock, e.g. {@code batch::senderId}
+   * @param compile compiles a partition into its relationship Query
+   */
+  public void write(TxBatch batch, IntFunction<String> key, Function<TxBatch, Query> compile) {
+    List<TxBatch> parts = batch.partition(key, partitions);
+    if (parts.size() == 1) {
+      write(parts.get(0), compile);
+      return;
+    }
+
+    List<Future<?>> futures = new ArrayList<>(parts.size());
+    for (TxBatch part : parts) {
+      futures.add(executor.submit(() -> write(part, compile)));
+    }
+    try {
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      futures.forEach(f -> f.cancel(true));
+      throw new IllegalStateException("interrupted writing partitions", e);
+    } catch (ExecutionException e) {
+      futures.forEach(f -> f.cancel(true));
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("failed writing partition", e.getCause());
+    }
+  }
+
+  /**
+   * Start writing the given Query, retrying on transient failures.
+   *
+   * @param query Query to write
+   * @return completes once the Query is committed
+   */
+  public CompletionStage<Void> writeAsync(Query query) {
+    return Database.executeWithRetryAsync(driver, query, maxRetries);
+  }
+
+  /**
+   * Start writing a query for the given batch, in smaller slices if it's too big for the server's
+   * memory.
+   *
+   * @param batch batch of Transactions
+   * @param compile compiles a batch into its Query
+   * @return completes once every slice is committed
+   */
+  public CompletionStage<Void> writeAsync(TxBatch batch, Function<TxBatch, Query> compile) {
+    return batchSize
+        .writeAsync(
+            0, batch.size(), (from, to) -> writeAsync(compile.apply(batch.slice(from, to))))
+        .thenApply(whole -> null);
+  }
+
+  /**
+   * Start writing a bulk relationship query for the given batch, partitioned on the given key.
+   * The partitions are written concurrently without needing a thread each.
+   *
+   * @param batch batch of Transactions
+   * @param key the end node id the relationships lock, e.g. {@code batch::senderId}
+   * @param compile compiles a partition into its relationship Query
+   * @return completes once every partition is committed
+   */
+  public CompletionStage<Void> writeAsync(
+      TxBatch batch, IntFunction<String> key, Function<TxBatch, Query> compile) {
+    List<TxBatch> parts = batch.partition(key, partitions);
+    if (parts.size() == 1) {
+      return writeAsync(parts.get(0), compile);
+    }
+    final CompletableFuture<?>[] writes = new CompletableFuture<?>[parts.size()];
+    for (int i = 0; i < writes.length; i++) {
+      writes[i] = writeAsync(parts.get(i), compile).toCompletableFuture();
+    }
+    return CompletableFuture.allOf(writes);
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
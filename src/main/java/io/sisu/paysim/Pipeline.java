@@ -0,0 +1,181 @@
+package io.sisu.paysim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded hand-off between a single producer (the thread consuming the PaySim iterator) and a
+ * pool of writer threads.
+ *
+ * <p>At most {@code parallelism} units of work run at once and at most {@code depth} more wait in
+ * line. Once both are used up, {@link #submit(Runnable)} blocks the producer until a writer frees
+ * up, so a slow database applies backpressure to the simulation instead of letting batches pile up
+ * on the heap.
+ *
+ * <p>Work submitted with {@link #submitAsync(Supplier)} only needs a writer thread to get started
+ * and keeps its place in the pipeline until its writes complete, so up to {@code parallelism +
+ * depth} units can be waiting on the database at once.
+ *
+ * <p>Once any unit of work fails, the work still waiting in line is dropped without running.
+ * Anything that waits on dropped work, like a {@link Watermark}, should be told through {@link
+ * #onFailure}.
+ */
+public class Pipeline implements AutoCloseable {
+  private static final Logger logger = LoggerFactory.getLogger(Pipeline.class);
+
+  private final ExecutorService executor;
+  private final int capacity;
+  private final Semaphore permits;
+  private final AtomicReference<Throwable> failure = new AtomicReference<>();
+  private final List<Consumer<Throwable>> failureListeners = new CopyOnWriteArrayList<>();
+
+  public Pipeline(int parallelism, int depth) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1");
+    }
+    final AtomicInteger threadCnt = new AtomicInteger(0);
+    this.executor =
+        Executors.newFixedThreadPool(
+            parallelism,
+            r -> {
+              Thread thread = new Thread(r, "paysim-writer-" + threadCnt.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.capacity = parallelism + Math.max(depth, 0);
+    this.permits = new Semaphore(capacity);
+  }
+
+  /**
+   * Hand off a unit of work to the writer pool, blocking while the pipeline is full.
+   *
+   * @param work the work to run on a writer thread
+   * @throws InterruptedException if interrupted while waiting for room in the pipeline
+   * @throws IllegalStateException if previously submitted work has already failed
+   */
+  public void submit(Runnable work) throws InterruptedException {
+    checkFailure();
+    final long start = System.nanoTime();
+    permits.acquire();
+    Metrics.record(Metrics.Stage.PIPELINE_WAIT, start);
+    try {
+      executor.execute(
+          () -> {
+            try {
+              if (failure.get() == null) {
+                work.run();
+              }
+            } catch (Throwable t) {
+              fail(t);
+            } finally {
+              permits.release();
+            }
+          });
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Hand off asynchronous work to the writer pool, blocking while the pipeline is full. The work
+   * holds its place in the pipeline until the stage it returns completes.
+   *
+   * @param work starts the work on a writer thread, without blocking it
+   * @throws InterruptedException if interrupted while waiting for room in the pipeline
+   * @throws IllegalStateException if previously submitted work has already failed
+   */
+  public void submitAsync(Supplier<? extends CompletionStage<?>> work)
+      throws InterruptedException {
+    checkFailure();
+    final long start = System.nanoTime();
+    permits.acquire();
+    Metrics.record(Metrics.Stage.PIPELINE_WAIT, start);
+    try {
+      executor.execute(
+          () -> {
+            if (failure.get() != null) {
+              permits.release();
+              return;
+            }
+            try {
+              work.get()
+                  .whenComplete(
+                      (ignored, t) -> {
+                        if (t != null) {
+                          fail(Database.unwrap(t));
+                        }
+                        permits.release();
+                      });
+            } catch (Throwable t) {
+              fail(t);
+              permits.release();
+            }
+          });
+    } catch (RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Have the pipeline's first failure passed on, e.g. to {@link Watermark#fail}, so nothing waits
+   * forever on work that's going to be dropped. Called right away if it's already failed.
+   *
+   * @param listener called once with the first failure
+   */
+  public void onFailure(Consumer<Throwable> listener) {
+    failureListeners.add(listener);
+    final Throwable t = failure.get();
+    if (t != null && failureListeners.remove(listener)) {
+      listener.accept(t);
+    }
+  }
+
+  private void fail(Throwable t) {
+    if (failure.compareAndSet(null, t)) {
+      logger.error("pipeline writer failed", t);
+      for (Consumer<Throwable> listener : failureListeners) {
+        if (failureListeners.remove(listener)) {
+          listener.accept(t);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wait for all submitted work to finish and shut down the writer pool.
+   *
+   * @throws IllegalStateException if any submitted work failed
+   */
+  @Override
+  public void close() throws InterruptedException {
+    executor.shutdown();
+    while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      logger.info("waiting on pipeline writers to finish...");
+    }
+    // Async work may still be in flight once the writer threads are done with it.
+    permits.acquire(capacity);
+    permits.release(capacity);
+    checkFailure();
+  }
+
+  private void checkFailure() {
+    Throwable t = failure.get();
+    if (t != null) {
+      throw new IllegalStateException("pipeline writer failed", t);
+    }
+  }
+}
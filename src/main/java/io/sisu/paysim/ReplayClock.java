@@ -0,0 +1,54 @@
+package io.sisu.paysim;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces a replay of the simulation against the wall clock, so each PaySim step (an hour of
+ * simulated time) takes {@code 1 / speedup} of an hour to play out.
+ *
+ * <p>The clock starts at the first step it sees, and a speedup of 0 means no pacing at all.
+ */
+public class ReplayClock {
+  private static final long STEP_NANOS = TimeUnit.HOURS.toNanos(1);
+
+  private final double stepNanos;
+  private long firstStep = -1;
+  private long startNanos;
+
+  /** @param speedup how many times faster than real time to replay, or 0 for as fast as possible */
+  public ReplayClock(double speedup) {
+    if (speedup < 0) {
+      throw new IllegalArgumentException("speedup can't be negative");
+    }
+    this.stepNanos = speedup == 0 ? 0 : STEP_NANOS / speedup;
+  }
+
+  /**
+   * @param step step of the next event
+   * @return how many nanoseconds too early the next event would be, or 0 if it's due
+   */
+  public long delayNanos(long step) {
+    if (stepNanos == 0) {
+      return 0;
+    }
+    if (firstStep < 0) {
+      firstStep = step;
+      startNanos = System.nanoTime();
+    }
+    final long due = startNanos + (long) ((step - firstStep) * stepNanos);
+    return Math.max(0, due - System.nanoTime());
+  }
+
+  /**
+   * Block until an event at the given step is due.
+   *
+   * @param step step of the next event
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void await(long step) throws InterruptedException {
+    final long delay = delayNanos(step);
+    if (delay > 0) {
+      TimeUnit.NANOSECONDS.sleep(delay);
+    }
+  }
+}
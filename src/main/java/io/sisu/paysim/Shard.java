@@ -0,0 +1,151 @@
+package io.sisu.paysim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * One of {@code count} independent slices of a simulation.
+ *
+ * <p>Each shard runs its own PaySim with a seed derived from the configured one and a share of the
+ * Clients, Fraudsters, Merchants and Banks. Actor ids are prefixed with the shard and globalSteps
+ * are interleaved ({@code globalStep * count + index}), so the output of every shard can be merged
+ * into one dataset without collisions. The same seed and shard count always produce the same dataset.
+ */
+public class Shard {
+  public static final Shard NONE = new Shard(0, 1);
+
+  private static final String SEED = "seed";
+  private static final String[] SPLIT_PROPERTIES = {
+    "nbClients", "nbFraudsters", "nbMerchants", "nbBanks"
+  };
+  // Every shard's Clients need a bank to deal with, even when there are more shards than banks.
+  private static final String BANKS = "nbBanks";
+
+  public final int index;
+  public final int count;
+  private final String prefix;
+
+  public Shard(int index, int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("shard count must be at least 1");
+    }
+    if (index < 0 || index >= count) {
+      throw new IllegalArgumentException(
+          String.format("shard index must be between 0 and %d", count - 1));
+    }
+    this.index = index;
+    this.count = count;
+    this.prefix = "S" + index + "-";
+  }
+
+  public boolean isSharded() {
+    return count > 1;
+  }
+
+  /** @return the globally unique form of an actor id */
+  public String id(String actorId) {
+    if (!isSharded() || actorId == null) {
+      return actorId;
+    }
+    return prefix + actorId;
+  }
+
+  /** @return the globally unique form of a globalStep */
+  public long globalStep(long globalStep) {
+    return globalStep * count + index;
+  }
+
+  /** @return this shard's share of {@code total}, spreading any remainder over the first shards */
+  public int split(int total) {
+    return total / count + (index < total % count ? 1 : 0);
+  }
+
+  /**
+   * Derive this shard's seed from the configured one using a SplitMix64 step, so neighbouring
+   * shards get uncorrelated random streams.
+   *
+   * @param seed configured seed
+   * @return a non-negative seed that fits in an int
+   */
+  public long seed(long seed) {
+    if (!isSharded()) {
+      return seed;
+    }
+    long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return z & Integer.MAX_VALUE;
+  }
+
+  /** @return the directory this shard writes its files to under {@code base} */
+  public Path outputDirectory(Path base) {
+    if (!isSharded()) {
+      return base;
+    }
+    return base.resolve(String.format("shard-%d-of-%d", index, count));
+  }
+
+  /** @return a per-shard variant of a file name */
+  public String fileName(String name) {
+    if (!isSharded()) {
+      return name;
+    }
+    return String.format("%s.shard-%d-of-%d", name, index, count);
+  }
+
+  /**
+   * Write this shard's PaySim properties file next to the configured one, so the relative
+   * paramFiles paths still resolve. It's deleted when the JVM exits.
+   *
+   * @param propertiesFile configured PaySim properties file
+   * @return path of the properties file to run this shard with
+   * @throws IOException on failure to read or write the properties
+   */
+  public String writeProperties(String propertiesFile) throws IOException {
+    if (!isSharded()) {
+      return propertiesFile;
+    }
+    final Path source = Paths.get(propertiesFile).toAbsolutePath();
+    final Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(source)) {
+      props.load(in);
+    }
+
+    final String seed = props.getProperty(SEED, "").trim();
+    try {
+      props.setProperty(SEED, Long.toString(seed(Long.parseLong(seed))));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(
+          String.format("sharding needs a numeric seed to be reproducible, found '%s'", seed));
+    }
+    for (String key : SPLIT_PROPERTIES) {
+      final String value = props.getProperty(key);
+      if (value != null) {
+        final int total = Integer.parseInt(value.trim());
+        final int share =
+            BANKS.equals(key) ? Math.max(split(total), Math.min(total, 1)) : split(total);
+        props.setProperty(key, Integer.toString(share));
+      }
+    }
+
+    final Path target =
+        Files.createTempFile(
+            source.getParent(), String.format(".shard-%d-of-%d-", index, count), ".properties");
+    target.toFile().deleteOnExit();
+    try (OutputStream out = Files.newOutputStream(target)) {
+      props.store(out, String.format("PaySim shard %d of %d from %s", index, count, source));
+    }
+    return target.toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("shard %d of %d", index, count);
+  }
+}
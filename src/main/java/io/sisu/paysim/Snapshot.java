@@ -0,0 +1,468 @@
+package io.sisu.paysim;
+
+import org.paysim.actors.SuperActor;
+import org.paysim.base.Transaction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A simulation's Transactions, and the Clients that made them, recorded to a compact binary file
+ * so the same dataset can be loaded again without simulating it.
+ *
+ * <p>Transactions are stored back to back in the order the simulation produced them. Strings are
+ * UTF-8 with a 2-byte length prefix, as in {@link ActorStore}, and each action is only spelled out
+ * the first time it appears. The file is read through memory mappings a window at a time, so a
+ * replay is little more than a walk over the page cache.
+ *
+ * <p>A snapshot is tied to the properties file and shard it was made from by the same fingerprint
+ * as a {@link Checkpoint}, since only they give the same Merchants and Banks on replay.
+ */
+public class Snapshot {
+  // "PaySnap1"
+  private static final long MAGIC = 0x506179536e617031L;
+  private static final int VERSION = 1;
+  // Where the Transaction count and the offset of the Clients go once they're known.
+  private static final long COUNT_POSITION = 12;
+  private static final int FIXED_HEADER_BYTES = 30;
+
+  private static final int NULL_LENGTH = 0xffff;
+  private static final int BUFFER_SIZE = 1 << 20;
+  // Bigger than any record, even with every String at its longest.
+  private static final int MAX_RECORD = 1 << 19;
+  private static final long WINDOW_SIZE = 1L << 30;
+  private static final SuperActor.Type[] TYPES = SuperActor.Type.values();
+
+  /**
+   * Start recording a new snapshot, replacing any file already at the path.
+   *
+   * @param path snapshot file
+   * @param fingerprint fingerprint of the simulation being recorded, see {@link
+   *     Checkpoint#fingerprint}
+   * @return Writer
+   * @throws IOException on failure to create the file
+   */
+  public static Writer create(Path path, String fingerprint) throws IOException {
+    return new Writer(path, fingerprint);
+  }
+
+  /**
+   * Open a snapshot to replay.
+   *
+   * @param path snapshot file
+   * @param fingerprint fingerprint of the simulation the snapshot is expected to be of
+   * @return Reader positioned before the first Transaction
+   * @throws IOException on failure to read the file
+   * @throws IllegalStateException if the file isn't a complete snapshot of that simulation
+   */
+  public static Reader open(Path path, String fingerprint) throws IOException {
+    return new Reader(path, fingerprint);
+  }
+
+  private static void putString(ByteBuffer buf, String value) {
+    if (value == null) {
+      buf.putShort((short) NULL_LENGTH);
+      return;
+    }
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if (bytes.length >= NULL_LENGTH) {
+      throw new IllegalArgumentException("value too long to record: " + value);
+    }
+    buf.putShort((short) bytes.length);
+    buf.put(bytes);
+  }
+
+  private static String getString(ByteBuffer buf) {
+    final int length = buf.getShort() & 0xffff;
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Records Transactions, then the Clients, from a single thread. */
+  public static final class Writer implements AutoCloseable {
+    private final FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<String, Integer> actions = new HashMap<>();
+    private long count = 0;
+
+    private Writer(Path path, String fingerprint) throws IOException {
+      channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+      buf.putLong(MAGIC);
+      buf.putInt(VERSION);
+      // an incomplete snapshot until finish() says otherwise
+      buf.putLong(-1);
+      buf.putLong(-1);
+      putString(buf, fingerprint);
+    }
+
+    private void ensure(int n) throws IOException {
+      if (buf.remaining() < n) {
+        flush();
+      }
+    }
+
+    private void flush() throws IOException {
+      buf.flip();
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+      buf.clear();
+    }
+
+    public void write(Transaction t) throws IOException {
+      ensure(MAX_RECORD);
+      buf.putLong(t.getGlobalStep());
+      buf.putInt((int) t.getStep());
+      buf.putDouble(t.getAmount());
+      buf.put((byte) ((t.isFraud() ? 1 : 0) | (t.isFlaggedFraud() ? 2 : 0)));
+      final Integer action = actions.get(t.getAction());
+      if (action != null) {
+        buf.put(action.byteValue());
+      } else {
+        // a new action is numbered and spelled out in full
+        if (actions.size() == 0xff) {
+          throw new IllegalStateException("too many distinct actions to record");
+        }
+        buf.put((byte) actions.size());
+        putString(buf, t.getAction());
+        actions.put(t.getAction(), actions.size());
+      }
+      buf.put(type(t.getOrigType()));
+      putString(buf, t.getIdOrig());
+      buf.putDouble(t.getOldBalanceOrig());
+      buf.putDouble(t.getNewBalanceOrig());
+      buf.put(type(t.getDestType()));
+      putString(buf, t.getIdDest());
+      buf.putDouble(t.getOldBalanceDest());
+      buf.putDouble(t.getNewBalanceDest());
+      count++;
+    }
+
+    private static byte type(SuperActor.Type type) {
+      return type == null ? -1 : (byte) type.ordinal();
+    }
+
+    /**
+     * Record the Clients after the last Transaction and mark the snapshot complete. A snapshot
+     * that's closed without being finished can't be replayed.
+     *
+     * @param clients Clients as made by {@link ActorStore#ofClients}
+     * @throws IOException on failure to write the file
+     */
+    public void finish(ActorStore clients) throws IOException {
+      flush();
+      final long clientsOffset = channel.position();
+      buf.putInt(clients.size());
+      for (int row = 0; row < clients.size(); row++) {
+        ensure(MAX_RECORD);
+        for (int column = 0; column < ActorStore.CLIENT_COLUMNS; column++) {
+          putString(buf, clients.get(row, column));
+        }
+      }
+      flush();
+
+      final ByteBuffer header = ByteBuffer.allocate(16);
+      header.putLong(count);
+      header.putLong(clientsOffset);
+      header.flip();
+      long position = COUNT_POSITION;
+      while (header.hasRemaining()) {
+        position += channel.write(header, position);
+      }
+      channel.force(true);
+    }
+
+    /** @return number of Transactions written so far */
+    public long count() {
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Replays a snapshot's Transactions in order. The Reader is itself the {@link TxRow} returned by
+   * {@link #next()}, so a row is only valid until the next call. The file is closed once the last
+   * Transaction has been read, or by {@link #close()} if the replay stops early.
+   */
+  public static final class Reader implements Iterator<TxRow>, TxRow, AutoCloseable {
+    private final Path path;
+    private final FileChannel channel;
+    private final long count;
+    private final long clientsOffset;
+    private final Window window;
+    private final List<String> actions = new ArrayList<>();
+    private long read = 0;
+
+    private long globalStep;
+    private long step;
+    private double amount;
+    private boolean fraud;
+    private boolean flaggedFraud;
+    private String action;
+    private String idOrig;
+    private SuperActor.Type origType;
+    private double oldBalanceOrig;
+    private double newBalanceOrig;
+    private String idDest;
+    private SuperActor.Type destType;
+    private double oldBalanceDest;
+    private double newBalanceDest;
+
+    private Reader(Path path, String fingerprint) throws IOException {
+      this.path = path;
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      try {
+        final ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES);
+        readFully(header, 0);
+        if (header.getLong() != MAGIC) {
+          throw new IllegalStateException(path + " is not a snapshot");
+        }
+        final int version = header.getInt();
+        if (version != VERSION) {
+          throw new IllegalStateException(
+              String.format("snapshot %s has version %d, expected %d", path, version, VERSION));
+        }
+        count = header.getLong();
+        clientsOffset = header.getLong();
+        if (count < 0) {
+          throw new IllegalStateException(
+              String.format("snapshot %s is incomplete, record it again", path));
+        }
+        final ByteBuffer saved = ByteBuffer.allocate(header.getShort() & 0xffff);
+        readFully(saved, FIXED_HEADER_BYTES);
+        final String savedFingerprint = new String(saved.array(), StandardCharsets.UTF_8);
+        if (!fingerprint.equals(savedFingerprint)) {
+          throw new IllegalStateException(
+              String.format(
+                  "snapshot %s is of a different simulation (%s, expected %s)",
+                  path, savedFingerprint, fingerprint));
+        }
+        window = new Window(channel, FIXED_HEADER_BYTES + saved.capacity(), clientsOffset);
+      } catch (IOException | RuntimeException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    private void readFully(ByteBuffer buf, long position) throws IOException {
+      while (buf.hasRemaining()) {
+        if (channel.read(buf, position + buf.position()) < 0) {
+          throw new IllegalStateException(String.format("snapshot %s is truncated", path));
+        }
+      }
+      buf.flip();
+    }
+
+    /** @return number of Transactions in the snapshot */
+    public long size() {
+      return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return read < count;
+    }
+
+    @Override
+    public TxRow next() {
+      if (read == count) {
+        throw new NoSuchElementException();
+      }
+      final ByteBuffer buf;
+      try {
+        buf = window.next();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      globalStep = buf.getLong();
+      step = buf.getInt();
+      amount = buf.getDouble();
+      final byte flags = buf.get();
+      fraud = (flags & 1) != 0;
+      flaggedFraud = (flags & 2) != 0;
+      final int code = buf.get() & 0xff;
+      if (code == actions.size()) {
+        actions.add(getString(buf));
+      }
+      action = actions.get(code);
+      origType = type(buf.get());
+      idOrig = getString(buf);
+      oldBalanceOrig = buf.getDouble();
+      newBalanceOrig = buf.getDouble();
+      destType = type(buf.get());
+      idDest = getString(buf);
+      oldBalanceDest = buf.getDouble();
+      newBalanceDest = buf.getDouble();
+      if (++read == count) {
+        close();
+      }
+      return this;
+    }
+
+    private static SuperActor.Type type(byte b) {
+      return b < 0 ? null : TYPES[b];
+    }
+
+    /**
+     * Read the Clients recorded after the Transactions. Works whether or not the Transactions have
+     * been replayed yet.
+     *
+     * @return Clients, as made by {@link ActorStore#ofClients} when the snapshot was recorded
+     * @throws IOException on failure to read the file
+     */
+    public ActorStore clients() throws IOException {
+      try (FileChannel clientsChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+        final Window clientsWindow =
+            new Window(clientsChannel, clientsOffset, clientsChannel.size());
+        final int size = clientsWindow.next().getInt();
+        final ActorStore clients = new ActorStore(ActorStore.CLIENT_COLUMNS);
+        final String[] values = new String[ActorStore.CLIENT_COLUMNS];
+        for (int row = 0; row < size; row++) {
+          final ByteBuffer buf = clientsWindow.next();
+          for (int column = 0; column < values.length; column++) {
+            values[column] = getString(buf);
+          }
+          clients.add(values);
+        }
+        return clients;
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public long getGlobalStep() {
+      return globalStep;
+    }
+
+    @Override
+    public long getStep() {
+      return step;
+    }
+
+    @Override
+    public double getAmount() {
+      return amount;
+    }
+
+    @Override
+    public boolean isFraud() {
+      return fraud;
+    }
+
+    @Override
+    public boolean isFlaggedFraud() {
+      return flaggedFraud;
+    }
+
+    @Override
+    public String getAction() {
+      return action;
+    }
+
+    @Override
+    public String getIdOrig() {
+      return idOrig;
+    }
+
+    @Override
+    public SuperActor.Type getOrigType() {
+      return origType;
+    }
+
+    @Override
+    public double getOldBalanceOrig() {
+      return oldBalanceOrig;
+    }
+
+    @Override
+    public double getNewBalanceOrig() {
+      return newBalanceOrig;
+    }
+
+    @Override
+    public String getIdDest() {
+      return idDest;
+    }
+
+    @Override
+    public SuperActor.Type getDestType() {
+      return destType;
+    }
+
+    @Override
+    public double getOldBalanceDest() {
+      return oldBalanceDest;
+    }
+
+    @Override
+    public double getNewBalanceDest() {
+      return newBalanceDest;
+    }
+  }
+
+  /** A read-only mapping of part of a file that slides along as records are read from it. */
+  private static final class Window {
+    private final FileChannel channel;
+    private final long end;
+    private long start;
+    private MappedByteBuffer buf;
+
+    Window(FileChannel channel, long start, long end) throws IOException {
+      this.channel = channel;
+      this.end = end;
+      map(start);
+    }
+
+    private void map(long position) throws IOException {
+      start = position;
+      buf =
+          channel.map(
+              FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+    }
+
+    /** @return the mapping, moved along first if the next record could run past its end */
+    ByteBuffer next() throws IOException {
+      if (buf.remaining() < MAX_RECORD && start + buf.limit() < end) {
+        map(start + buf.position());
+      }
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package io.sisu.paysim;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/** Transaction events for the {@code stream} command, with the same fields as the csv output. */
+public class StreamExport {
+  public static final String STDOUT = "-";
+  private static final String TCP_SCHEME = "tcp";
+  private static final int SOCKET_BUFFER_SIZE = 1 << 20;
+
+  /**
+   * Open the stream's destination.
+   *
+   * @param output {@code -} for stdout, {@code tcp://host:port} for a socket, or a file path
+   * @return OutputStream
+   * @throws IOException if it can't be opened or connected to
+   */
+  public static OutputStream open(String output) throws IOException {
+    if (STDOUT.equals(output)) {
+      // System.out's PrintStream locks and flushes more than a plain stream of bytes needs.
+      return new FileOutputStream(FileDescriptor.out);
+    }
+    if (output.startsWith(TCP_SCHEME + "://")) {
+      final URI uri = URI.create(output);
+      if (uri.getHost() == null || uri.getPort() < 0) {
+        throw new IllegalArgumentException("expected tcp://host:port, got " + output);
+      }
+      final Socket socket = new Socket(uri.getHost(), uri.getPort());
+      socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+      // closing the socket's stream closes the socket
+      return socket.getOutputStream();
+    }
+    return Files.newOutputStream(Paths.get(output));
+  }
+
+  /**
+   * Write a batch of Transactions as events, holding each one back until the clock says it's due.
+   *
+   * @param writer JsonWriter
+   * @param batch batch of Transactions
+   * @param clock paces the events
+   * @throws IOException if the events can't be written
+   * @throws InterruptedException if interrupted while waiting on the clock
+   */
+  public static void writeTransactions(JsonWriter writer, TxBatch batch, ReplayClock clock)
+      throws IOException, InterruptedException {
+    for (int i = 0; i < batch.size(); i++) {
+      if (clock.delayNanos(batch.step(i)) > 0) {
+        // don't keep what's due already waiting in the buffer
+        writer.flush();
+        clock.await(batch.step(i));
+      }
+      writer
+          .longValue("step", batch.step(i))
+          .longValue("globalStep", batch.globalStep(i))
+          .string("action", batch.action(i))
+          .doubleValue("amount", batch.amount(i))
+          .string("idOrig", batch.senderId(i))
+          .string("origType", batch.senderType(i).toString())
+          .doubleValue("oldBalanceOrig", batch.oldBalanceOrig(i))
+          .doubleValue("newBalanceOrig", batch.newBalanceOrig(i))
+          .string("idDest", batch.receiverId(i))
+          .string("destType", batch.receiverType(i).toString())
+          .doubleValue("oldBalanceDest", batch.oldBalanceDest(i))
+          .doubleValue("newBalanceDest", batch.newBalanceDest(i))
+          .bool("isFraud", batch.fraud(i))
+          .bool("isFlaggedFraud", batch.flaggedFraud(i))
+          .endRecord();
+    }
+  }
+}
@@ -0,0 +1,345 @@
+package io.sisu.paysim;
+
+import org.paysim.actors.SuperActor;
+import org.paysim.base.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * A fixed-capacity, column-oriented batch of PaySim Transactions.
+ *
+ * <p>Each Transaction is copied field by field into primitive (or shared String) columns as it
+ * comes off the simulation, so a batch costs a handful of arrays instead of several maps per row
+ * and the Transaction itself can be collected right away.
+ */
+public class TxBatch {
+  private final long[] globalStep;
+  private final long[] step;
+  private final double[] amount;
+  private final boolean[] fraud;
+  private final boolean[] flaggedFraud;
+  private final String[] action;
+  private final String[] senderId;
+  private final SuperActor.Type[] senderType;
+  private final double[] oldBalanceOrig;
+  private final double[] newBalanceOrig;
+  private final String[] receiverId;
+  private final SuperActor.Type[] receiverType;
+  private final double[] oldBalanceDest;
+  private final double[] newBalanceDest;
+  private final long[] previous;
+  private final long[] senderKey;
+  private final long[] receiverKey;
+  private final Shard shard;
+  private int size = 0;
+
+  public TxBatch(int capacity) {
+    this(capacity, Shard.NONE);
+  }
+
+  /**
+   * @param capacity max number of Transactions
+   * @param shard shard the Transactions come from, used to make their ids globally unique
+   */
+  public TxBatch(int capacity, Shard shard) {
+    this.shard = shard;
+    globalStep = new long[capacity];
+    step = new long[capacity];
+    amount = new double[capacity];
+    fraud = new boolean[capacity];
+    flaggedFraud = new boolean[capacity];
+    action = new String[capacity];
+    senderId = new String[capacity];
+    senderType = new SuperActor.Type[capacity];
+    oldBalanceOrig = new double[capacity];
+    newBalanceOrig = new double[capacity];
+    receiverId = new String[capacity];
+    receiverType = new SuperActor.Type[capacity];
+    oldBalanceDest = new double[capacity];
+    newBalanceDest = new double[capacity];
+    previous = new long[capacity];
+    senderKey = new long[capacity];
+    receiverKey = new long[capacity];
+  }
+
+  public void add(Transaction t) {
+    final int i = size++;
+    globalStep[i] = shard.globalStep(t.getGlobalStep());
+    step[i] = t.getStep();
+    amount[i] = t.getAmount();
+    fraud[i] = t.isFraud();
+    flaggedFraud[i] = t.isFlaggedFraud();
+    action[i] = t.getAction();
+    senderId[i] = shard.id(t.getIdOrig());
+    senderType[i] = t.getOrigType();
+    oldBalanceOrig[i] = t.getOldBalanceOrig();
+    newBalanceOrig[i] = t.getNewBalanceOrig();
+    receiverId[i] = shard.id(t.getIdDest());
+    receiverType[i] = t.getDestType();
+    oldBalanceDest[i] = t.getOldBalanceDest();
+    newBalanceDest[i] = t.getNewBalanceDest();
+    previous[i] = TxChains.NONE;
+  }
+
+  /** Like {@link #add(Transaction)}, for a Transaction replayed from a {@link Snapshot}. */
+  public void add(TxRow t) {
+    final int i = size++;
+    globalStep[i] = shard.globalStep(t.getGlobalStep());
+    step[i] = t.getStep();
+    amount[i] = t.getAmount();
+    fraud[i] = t.isFraud();
+    flaggedFraud[i] = t.isFlaggedFraud();
+    action[i] = t.getAction();
+    senderId[i] = shard.id(t.getIdOrig());
+    senderType[i] = t.getOrigType();
+    oldBalanceOrig[i] = t.getOldBalanceOrig();
+    newBalanceOrig[i] = t.getNewBalanceOrig();
+    receiverId[i] = shard.id(t.getIdDest());
+    receiverType[i] = t.getDestType();
+    oldBalanceDest[i] = t.getOldBalanceDest();
+    newBalanceDest[i] = t.getNewBalanceDest();
+    previous[i] = TxChains.NONE;
+  }
+
+  /** Drop the row added last, e.g. one that turns out to be in the graph already. */
+  public void removeLast() {
+    size--;
+    action[size] = null;
+    senderId[size] = null;
+    receiverId[size] = null;
+  }
+
+  private void copyRow(TxBatch from, int i) {
+    final int j = size++;
+    globalStep[j] = from.globalStep[i];
+    step[j] = from.step[i];
+    amount[j] = from.amount[i];
+    fraud[j] = from.fraud[i];
+    flaggedFraud[j] = from.flaggedFraud[i];
+    action[j] = from.action[i];
+    senderId[j] = from.senderId[i];
+    senderType[j] = from.senderType[i];
+    oldBalanceOrig[j] = from.oldBalanceOrig[i];
+    newBalanceOrig[j] = from.newBalanceOrig[i];
+    receiverId[j] = from.receiverId[i];
+    receiverType[j] = from.receiverType[i];
+    oldBalanceDest[j] = from.oldBalanceDest[i];
+    newBalanceDest[j] = from.newBalanceDest[i];
+    previous[j] = from.previous[i];
+    senderKey[j] = from.senderKey[i];
+    receiverKey[j] = from.receiverKey[i];
+  }
+
+  /**
+   * Record each Client-sent row in the given chains and remember the globalStep of that Client's
+   * previous Transaction, so the batch can be threaded onto the chain later.
+   *
+   * @param chains chains of every Client's Transactions so far
+   */
+  public void thread(TxChains chains) {
+    for (int i = 0; i < size; i++) {
+      if (Util.isClient(senderType[i])) {
+        previous[i] = chains.append(senderId[i], globalStep[i]);
+      }
+    }
+  }
+
+  /**
+   * Look up each row's sender and receiver keys, numbering any actor seen for the first time.
+   *
+   * @param keys keys of every actor so far
+   */
+  public void key(ActorKeys keys) {
+    for (int i = 0; i < size; i++) {
+      senderKey[i] = keys.intern(senderId[i]);
+      receiverKey[i] = keys.intern(receiverId[i]);
+    }
+  }
+
+  /**
+   * Split this batch so that all rows sharing a key end up in the same, smaller batch.
+   *
+   * @param key function from row index to the key to partition on, e.g. {@code
+   *     batch::senderId}
+   * @param partitions number of partitions
+   * @return non-empty partitions, preserving the relative order of rows
+   */
+  public List<TxBatch> partition(IntFunction<String> key, int partitions) {
+    List<TxBatch> parts = new ArrayList<>(partitions);
+    if (partitions <= 1) {
+      parts.add(this);
+      return parts;
+    }
+
+    int[] buckets = new int[size];
+    int[] counts = new int[partitions];
+    for (int i = 0; i < size; i++) {
+      buckets[i] = PartitionedWriter.bucket(key.apply(i), partitions);
+      counts[buckets[i]]++;
+    }
+    TxBatch[] batches = new TxBatch[partitions];
+    for (int p = 0; p < partitions; p++) {
+      batches[p] = new TxBatch(counts[p]);
+    }
+    for (int i = 0; i < size; i++) {
+      batches[buckets[i]].copyRow(this, i);
+    }
+    for (TxBatch batch : batches) {
+      if (!batch.isEmpty()) {
+        parts.add(batch);
+      }
+    }
+    return parts;
+  }
+
+  /**
+   * Copy out a range of rows as a batch of its own, e.g. to retry a write in smaller pieces.
+   *
+   * @param from first row
+   * @param to row after the last
+   * @return the rows {@code [from, to)}, or this batch if that's every row
+   */
+  public TxBatch slice(int from, int to) {
+    if (from == 0 && to == size) {
+      return this;
+    }
+    TxBatch slice = new TxBatch(to - from);
+    for (int i = from; i < to; i++) {
+      slice.copyRow(this, i);
+    }
+    return slice;
+  }
+
+  /** Empty the batch so it can be refilled. Only safe once nothing else references it. */
+  public void clear() {
+    Arrays.fill(action, 0, size, null);
+    Arrays.fill(senderId, 0, size, null);
+    Arrays.fill(receiverId, 0, size, null);
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int capacity() {
+    return globalStep.length;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean isFull() {
+    return size == globalStep.length;
+  }
+
+  public long globalStep(int i) {
+    return globalStep[i];
+  }
+
+  public long step(int i) {
+    return step[i];
+  }
+
+  public double amount(int i) {
+    return amount[i];
+  }
+
+  public boolean fraud(int i) {
+    return fraud[i];
+  }
+
+  public boolean flaggedFraud(int i) {
+    return flaggedFraud[i];
+  }
+
+  public String action(int i) {
+    return action[i];
+  }
+
+  public String senderId(int i) {
+    return senderId[i];
+  }
+
+  public SuperActor.Type senderType(int i) {
+    return senderType[i];
+  }
+
+  public double oldBalanceOrig(int i) {
+    return oldBalanceOrig[i];
+  }
+
+  public double newBalanceOrig(int i) {
+    return newBalanceOrig[i];
+  }
+
+  public String receiverId(int i) {
+    return receiverId[i];
+  }
+
+  public SuperActor.Type receiverType(int i) {
+    return receiverType[i];
+  }
+
+  public double oldBalanceDest(int i) {
+    return oldBalanceDest[i];
+  }
+
+  public double newBalanceDest(int i) {
+    return newBalanceDest[i];
+  }
+
+  /**
+   * @return globalStep of the sending Client's previous Transaction, or {@link TxChains#NONE} if
+   *     this is its first (or the batch hasn't been {@link #thread threaded})
+   */
+  public long previous(int i) {
+    return previous[i];
+  }
+
+  /** @return the sender's {@link ActorKeys key}, once the batch has been {@link #key keyed} */
+  public long senderKey(int i) {
+    return senderKey[i];
+  }
+
+  /** @return the receiver's {@link ActorKeys key}, once the batch has been {@link #key keyed} */
+  public long receiverKey(int i) {
+    return receiverKey[i];
+  }
+
+  /**
+   * @return a copy of the globalStep column, trimmed to the batch's size, so the driver can encode
+   *     it straight from the primitive array; likewise for the other column getters below
+   */
+  public long[] globalSteps() {
+    return Arrays.copyOf(globalStep, size);
+  }
+
+  public long[] steps() {
+    return Arrays.copyOf(step, size);
+  }
+
+  public double[] amounts() {
+    return Arrays.copyOf(amount, size);
+  }
+
+  public boolean[] frauds() {
+    return Arrays.copyOf(fraud, size);
+  }
+
+  public boolean[] flaggedFrauds() {
+    return Arrays.copyOf(flaggedFraud, size);
+  }
+
+  public long[] senderKeys() {
+    return Arrays.copyOf(senderKey, size);
+  }
+
+  public long[] receiverKeys() {
+    return Arrays.copyOf(receiverKey, size);
+  }
+}
@@ -0,0 +1,126 @@
+package io.sisu.paysim;
+
+import java.util.Arrays;
+
+/**
+ * Tracks the first and most recent Transaction (by globalStep) performed by each Client while the
+ * Transaction stream is consumed, so the FIRST_TX, LAST_TX and NEXT relationships can be produced
+ * without a separate sort over every Client's Transactions afterwards.
+ *
+ * <p>This is an open-addressing hash map from client id to a pair of primitive longs, so each
+ * Client costs a String reference and two longs rather than a boxed map entry. Transactions must
+ * be appended in globalStep order, which is the order PaySim produces them in. Not thread-safe.
+ */
+public class TxChains {
+  public static final long NONE = -1L;
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private String[] keys;
+  private long[] first;
+  private long[] last;
+  private int size = 0;
+
+  /** Receives a Client's chain endpoints. */
+  @FunctionalInterface
+  public interface ChainConsumer {
+    void accept(String clientId, long firstGlobalStep, long lastGlobalStep);
+  }
+
+  public TxChains() {
+    this(1 << 14);
+  }
+
+  public TxChains(int expectedClients) {
+    int capacity = Integer.highestOneBit(Math.max((int) (expectedClients / LOAD_FACTOR), 16) - 1);
+    allocate(capacity << 1);
+  }
+
+  private void allocate(int capacity) {
+    keys = new String[capacity];
+    first = new long[capacity];
+    last = new long[capacity];
+  }
+
+  private int slot(String[] table, String key) {
+    final int mask = table.length - 1;
+    int i = mix(key.hashCode()) & mask;
+    while (table[i] != null && !table[i].equals(key)) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Record that a Client performed the Transaction with the given globalStep.
+   *
+   * @param clientId id of the Client
+   * @param globalStep globalStep of the Transaction
+   * @return globalStep of the Client's previous Transaction, or {@link #NONE} if this is its first
+   */
+  public long append(String clientId, long globalStep) {
+    int i = slot(keys, clientId);
+    if (keys[i] == null) {
+      if (size + 1 > keys.length * LOAD_FACTOR) {
+        grow();
+        i = slot(keys, clientId);
+      }
+      keys[i] = clientId;
+      first[i] = globalStep;
+      last[i] = globalStep;
+      size++;
+      return NONE;
+    }
+    final long previous = last[i];
+    last[i] = globalStep;
+    return previous;
+  }
+
+  /**
+   * Look up the globalStep of the most recent Transaction recorded for a Client.
+   *
+   * @param clientId id of the Client
+   * @return the globalStep, or {@link #NONE} if the Client hasn't performed any Transactions
+   */
+  public long last(String clientId) {
+    int i = slot(keys, clientId);
+    return keys[i] == null ? NONE : last[i];
+  }
+
+  private void grow() {
+    final String[] oldKeys = keys;
+    final long[] oldFirst = first;
+    final long[] oldLast = last;
+    allocate(oldKeys.length << 1);
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != null) {
+        int i = slot(keys, oldKeys[j]);
+        keys[i] = oldKeys[j];
+        first[i] = oldFirst[j];
+        last[i] = oldLast[j];
+      }
+    }
+  }
+
+  /** Visit every Client with at least one Transaction. */
+  public void forEach(ChainConsumer consumer) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        consumer.accept(keys[i], first[i], last[i]);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public void clear() {
+    Arrays.fill(keys, null);
+    size = 0;
+  }
+}
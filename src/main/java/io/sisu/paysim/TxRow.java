@@ -0,0 +1,37 @@
+package io.sisu.paysim;
+
+import org.paysim.actors.SuperActor;
+
+/**
+ * The fields of a Transaction that get loaded or exported, as replayed from a {@link Snapshot}.
+ * Transactions from a running simulation are read straight off PaySim's own {@code Transaction}.
+ */
+public interface TxRow {
+  long getGlobalStep();
+
+  long getStep();
+
+  double getAmount();
+
+  boolean isFraud();
+
+  boolean isFlaggedFraud();
+
+  String getAction();
+
+  String getIdOrig();
+
+  SuperActor.Type getOrigType();
+
+  double getOldBalanceOrig();
+
+  double getNewBalanceOrig();
+
+  String getIdDest();
+
+  SuperActor.Type getDestType();
+
+  double getOldBalanceDest();
+
+  double getNewBalanceDest();
+}
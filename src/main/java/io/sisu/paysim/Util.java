@@ -1,17 +1,23 @@
 package io.sisu.paysim;
 
-import org.neo4j.driver.Query;
-import org.neo4j.driver.Values;
 import org.paysim.actors.SuperActor;
-import org.paysim.base.Transaction;
-import org.paysim.identity.ClientIdentity;
-import org.paysim.identity.Properties;
 
 import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 public class Util {
+  private static final Map<SuperActor.Type, String> ACTOR_LABELS =
+      new EnumMap<>(SuperActor.Type.class);
+  private static final ConcurrentMap<String, String> ACTION_LABELS = new ConcurrentHashMap<>();
+
+  static {
+    for (SuperActor.Type type : SuperActor.Type.values()) {
+      ACTOR_LABELS.put(type, capitalize(type.toString()));
+    }
+  }
 
   protected static String capitalize(String string) {
     return Arrays.stream(string.split("_"))
@@ -19,80 +25,27 @@ public class Util {
         .collect(Collectors.joining(""));
   }
 
-  protected static Map<String, Object> propsFromTx(Transaction t) {
-    Map<String, Object> map = new HashMap<>();
-    map.put("amount", t.getAmount());
-    map.put("fraud", t.isFraud());
-    map.put("flaggedFraud", t.isFlaggedFraud());
-    map.put("senderId", t.getIdOrig());
-    map.put("receiverId", t.getIdDest());
-    map.put("id", String.format("tx-%s", t.getGlobalStep()));
-    map.put("ts", t.getStep()); // TODO: convert to datetime
-    map.put("step", t.getStep());
-    map.put("globalStep", t.getGlobalStep());
-    return map;
-  }
-
-  public static Query compileNodeTransactionQuery(List<Transaction> transactions) {
-    Map<String, Object> propMap = new HashMap<>();
-    List<Map<String, Object>> unwindList = new ArrayList<>(transactions.size());
-
-    for (Transaction transaction : transactions) {
-      Map<String, Object> sender = new HashMap<>();
-      Map<String, Object> receiver = new HashMap<>();
-      Map<String, Object> tx = new HashMap<>();
-
-      sender.put("label", capitalize(transaction.getOrigType().toString()));
-      sender.put("id", transaction.getIdOrig());
-
-      receiver.put("label", capitalize(transaction.getDestType().toString()));
-      receiver.put("id", transaction.getIdDest());
-
-      tx.put("label", capitalize(transaction.getAction()));
-      tx.put("id", String.format("tx-%s", transaction.getGlobalStep()));
-      tx.put("props", propsFromTx(transaction));
-
-      unwindList.add(sender);
-      unwindList.add(receiver);
-      unwindList.add(tx);
-    }
-
-    propMap.put("nodes", unwindList);
-    return new Query(Cypher.BULK_NODE_QUERY_STRING, propMap);
+  /**
+   * Node label for an actor type, e.g. "Client" for CLIENT. There's only a handful of these, so
+   * they're computed once up front.
+   */
+  public static String actorLabel(SuperActor.Type type) {
+    return ACTOR_LABELS.get(type);
   }
 
-  public static Query compileBulkTransactionQuery(String cypher, List<Transaction> transactions) {
-    Map<String, Object> propMap = new HashMap<>();
-    List<Map<String, Object>> unwindList = new ArrayList<>(transactions.size());
-    for (Transaction transaction : transactions) {
-      unwindList.add(propsFromTx(transaction));
-    }
-    propMap.put("txs", unwindList);
-    return new Query(cypher, propMap);
+  /** Node label for a Transaction action, e.g. "CashIn" for CASH_IN, cached after first use. */
+  public static String actionLabel(String action) {
+    return ACTION_LABELS.computeIfAbsent(action, Util::capitalize);
   }
 
-  public static Query compilePropertyUpdateQuery(SuperActor actor) {
-    final String label = capitalize(actor.getType().toString());
-
-    // TODO: right now we're shoving id into the Identity, so to prevent collision remove it...yes
-    // this is wasteful
-    final Map<String, Object> props = actor.getIdentityAsMap();
-    props.remove(Properties.ID);
-
-    return new Query(
-        Cypher.UPDATE_NODE_PROPS.replace(Cypher.LABEL_PLACEHOLDER, label),
-        Values.parameters("id", actor.getId(), "props", props));
+  /** Whether an actor of this type is a :Client in the graph (Mules are Clients, too). */
+  public static boolean isClient(SuperActor.Type type) {
+    return type == SuperActor.Type.CLIENT || type == SuperActor.Type.MULE;
   }
 
-  public static Query compileClientIdentityQuery(ClientIdentity identity) {
-    return new Query(
-        Cypher.CREATE_IDENTITY,
-        Values.parameters(
-            "ssn", identity.ssn,
-            "email", identity.email,
-            "name", identity.name,
-            "phoneNumber", identity.phoneNumber,
-            "clientId", identity.id));
+  /** Node id for the Transaction with the given globalStep. */
+  public static String txId(long globalStep) {
+    return "tx-" + globalStep;
   }
 
   /**
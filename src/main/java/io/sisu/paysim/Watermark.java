@@ -0,0 +1,114 @@
+package io.sisu.paysim;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Tracks the highest sequence number below which every unit of work has completed, even when
+ * the work completes out of order on different writer threads.
+ *
+ * <p>Sequence numbers start at 0 and must each be completed exactly once, unless the work as a
+ * whole {@link #fail fails}, after which nothing waiting on it will ever be satisfied.
+ */
+public class Watermark {
+  private final BitSet pending = new BitSet();
+  private final TreeMap<Long, CompletableFuture<Void>> waiters = new TreeMap<>();
+  private long next = 0;
+  private Throwable failure = null;
+
+  /** Mark the work with the given sequence number as done. */
+  public void complete(long seq) {
+    final List<CompletableFuture<Void>> ready;
+    synchronized (this) {
+      if (seq < next) {
+        return;
+      }
+      pending.set((int) (seq - next));
+      if (!pending.get(0)) {
+        return;
+      }
+      int done = pending.nextClearBit(0);
+      next += done;
+      // shift the window down past everything that's now contiguous
+      BitSet rest = pending.get(done, Math.max(pending.length(), done));
+      pending.clear();
+      pending.or(rest);
+      notifyAll();
+
+      final SortedMap<Long, CompletableFuture<Void>> passed = waiters.headMap(next);
+      ready = new ArrayList<>(passed.values());
+      passed.clear();
+    }
+    // Completing runs whatever is chained on, so do it outside the lock.
+    ready.forEach(waiter -> waiter.complete(null));
+  }
+
+  /**
+   * Give up on every sequence number that hasn't completed yet, e.g. because the work that was to
+   * complete them was dropped. Anything waiting on one fails with the given cause.
+   *
+   * @param cause why the work failed
+   */
+  public void fail(Throwable cause) {
+    final List<CompletableFuture<Void>> failed;
+    synchronized (this) {
+      if (failure != null) {
+        return;
+      }
+      failure = cause;
+      notifyAll();
+      failed = new ArrayList<>(waiters.values());
+      waiters.clear();
+    }
+    failed.forEach(waiter -> waiter.completeExceptionally(cause));
+  }
+
+  /**
+   * Block until all work up to and including the given sequence number has completed.
+   *
+   * @param seq sequence number to wait for
+   * @throws InterruptedException if interrupted while waiting
+   * @throws IllegalStateException if the work failed before getting that far
+   */
+  public synchronized void await(long seq) throws InterruptedException {
+    while (next <= seq) {
+      checkFailure(seq);
+      wait();
+    }
+  }
+
+  /**
+   * Like {@link #await(long)}, but without blocking.
+   *
+   * @param seq sequence number to wait for
+   * @return completes once all work up to and including the given sequence number has completed,
+   *     or exceptionally if the work fails before getting that far
+   */
+  public synchronized CompletionStage<Void> completed(long seq) {
+    if (next > seq) {
+      return CompletableFuture.completedFuture(null);
+    }
+    if (failure != null) {
+      final CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(failure);
+      return failed;
+    }
+    return waiters.computeIfAbsent(seq, s -> new CompletableFuture<>());
+  }
+
+  private void checkFailure(long seq) {
+    if (failure != null) {
+      throw new IllegalStateException("gave up waiting on " + seq, failure);
+    }
+  }
+
+  /** @return how many sequence numbers, starting at 0, have all completed */
+  public synchronized long get() {
+    return next;
+  }
+}
@@ -0,0 +1,48 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+class ActorKeysTest {
+
+  @Test
+  void numbersActorsInOrderAndTellsThePopulationApart() {
+    ActorKeys keys = new ActorKeys(Shard.NONE, 2);
+    Assertions.assertEquals(-1, keys.intern("C1"));
+    Assertions.assertEquals(-2, keys.intern("M1"));
+    Assertions.assertEquals(-1, keys.intern("C1"));
+    keys.sealPopulation();
+
+    long mule = keys.intern("C9");
+    Assertions.assertEquals(-3, mule);
+    Assertions.assertEquals(mule, keys.key("C9"));
+    Assertions.assertTrue(keys.isWritten("M1"));
+    Assertions.assertTrue(keys.isWritten(keys.key("M1")));
+    Assertions.assertFalse(keys.isWritten("C9"));
+    Assertions.assertFalse(keys.isWritten(mule));
+    Assertions.assertFalse(keys.isWritten("C10"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> keys.key("C10"));
+    Assertions.assertEquals(3, keys.size());
+  }
+
+  @Test
+  void keysNeverCollideAcrossShards() {
+    Set<Long> seen = new HashSet<>();
+    for (int index = 0; index < 3; index++) {
+      ActorKeys keys = new ActorKeys(new Shard(index, 3));
+      for (int i = 0; i < 10_000; i++) {
+        long key = keys.intern("C" + i);
+        Assertions.assertTrue(key < 0);
+        Assertions.assertTrue(seen.add(key));
+      }
+      keys.sealPopulation();
+      long mule = keys.intern("C" + 10_000);
+      Assertions.assertFalse(keys.isWritten(mule));
+      Assertions.assertTrue(keys.isWritten(keys.key("C9999")));
+      Assertions.assertEquals(keys.key("C42"), keys.intern("C42"));
+    }
+  }
+}
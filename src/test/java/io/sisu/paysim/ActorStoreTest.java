@@ -0,0 +1,39 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ActorStoreTest {
+
+  @Test
+  void readsBackWhatWasAdded() {
+    ActorStore store = new ActorStore(3, 64);
+    for (int i = 0; i < 100; i++) {
+      Assertions.assertEquals(i, store.add("C" + i, i % 2 == 0 ? null : "Zo\u00eb", "x" + (i % 7)));
+    }
+    Assertions.assertEquals(100, store.size());
+    for (int i = 0; i < 100; i++) {
+      Assertions.assertEquals("C" + i, store.get(i, 0));
+      Assertions.assertEquals(i % 2 == 0 ? null : "Zo\u00eb", store.get(i, 1));
+      Assertions.assertEquals("x" + (i % 7), store.get(i, 2));
+    }
+  }
+
+  @Test
+  void equalValuesHashTheSame() {
+    ActorStore store = new ActorStore(1, 64);
+    store.add("shared");
+    store.add("other");
+    store.add("shared");
+    Assertions.assertEquals(store.hash(0, 0), store.hash(2, 0));
+    Assertions.assertTrue(store.hash(0, 0) != store.hash(1, 0));
+  }
+
+  @Test
+  void rejectsRowsThatDontFitAChunk() {
+    ActorStore store = new ActorStore(1, 16);
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> store.add("more than sixteen bytes"));
+    Assertions.assertThrows(IndexOutOfBoundsException.class, () -> store.get(0, 0));
+  }
+}
@@ -0,0 +1,134 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.exceptions.TransientException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+class AdaptiveBatchSizeTest {
+
+  private static long agoMillis(long millis) {
+    return System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+  @Test
+  void growsUnderTargetAndShrinksOverIt() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 1_000, 100, 10_000, 1_000);
+
+    size.committed(1_000, agoMillis(100));
+    Assertions.assertEquals(1_250, size.get());
+
+    // within the dead band, nothing changes
+    size.committed(1_250, agoMillis(900));
+    Assertions.assertEquals(1_250, size.get());
+
+    size.committed(1_250, agoMillis(5_000));
+    Assertions.assertEquals(625, size.get());
+
+    // a short trailing batch is ignored
+    size.committed(10, agoMillis(5_000));
+    Assertions.assertEquals(625, size.get());
+  }
+
+  @Test
+  void timesEachCommitOfABatch() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 1_000, 100, 10_000, 1_000);
+
+    // three commits in 2.7s is 900ms each, within the dead band
+    size.committed(1_000, agoMillis(2_700), 3);
+    Assertions.assertEquals(1_000, size.get());
+
+    size.committed(1_000, agoMillis(300), 3);
+    Assertions.assertEquals(1_250, size.get());
+  }
+
+  @Test
+  void staysWithinLimits() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 1_000, 800, 1_100, 1_000);
+    size.committed(1_000, agoMillis(1));
+    size.committed(1_100, agoMillis(1));
+    Assertions.assertEquals(1_100, size.get());
+    size.committed(1_100, agoMillis(60_000));
+    size.committed(1_100, agoMillis(60_000));
+    Assertions.assertEquals(800, size.get());
+  }
+
+  @Test
+  void fixedWithoutATarget() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 1_000, 100, 10_000, 0);
+    size.committed(1_000, agoMillis(1));
+    size.committed(1_000, agoMillis(60_000));
+    Assertions.assertEquals(1_000, size.get());
+  }
+
+  @Test
+  void splitsBatchesThatRunOutOfMemory() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 8, 2, 100, 1_000);
+    List<String> written = new ArrayList<>();
+    boolean whole =
+        size.write(
+            0,
+            8,
+            (from, to) -> {
+              if (to - from > 2) {
+                throw new TransientException(
+                    "Neo.TransientError.General.MemoryPoolOutOfMemoryError", "out of memory");
+              }
+              written.add(from + "-" + to);
+            });
+
+    Assertions.assertFalse(whole);
+    Assertions.assertEquals(Arrays.asList("0-2", "2-4", "4-6", "6-8"), written);
+    Assertions.assertEquals(2, size.get());
+  }
+
+  @Test
+  void splitsAsyncBatchesThatRunOutOfMemory() throws Exception {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 8, 2, 100, 1_000);
+    List<String> written = new ArrayList<>();
+    boolean whole =
+        size.writeAsync(
+                0,
+                8,
+                (from, to) -> {
+                  CompletableFuture<Void> write = new CompletableFuture<>();
+                  if (to - from > 2) {
+                    write.completeExceptionally(
+                        new TransientException(
+                            "Neo.TransientError.General.MemoryPoolOutOfMemoryError",
+                            "out of memory"));
+                  } else {
+                    written.add(from + "-" + to);
+                    write.complete(null);
+                  }
+                  return write;
+                })
+            .toCompletableFuture()
+            .get();
+
+    Assertions.assertFalse(whole);
+    Assertions.assertEquals(Arrays.asList("0-2", "2-4", "4-6", "6-8"), written);
+    Assertions.assertEquals(2, size.get());
+  }
+
+  @Test
+  void rethrowsOtherFailures() {
+    AdaptiveBatchSize size = new AdaptiveBatchSize("test", 8, 2, 100, 1_000);
+    Assertions.assertThrows(
+        TransientException.class,
+        () ->
+            size.write(
+                0,
+                8,
+                (from, to) -> {
+                  throw new TransientException(
+                      "Neo.TransientError.Transaction.DeadlockDetected", "deadlock");
+                }));
+    Assertions.assertEquals(8, size.get());
+  }
+}
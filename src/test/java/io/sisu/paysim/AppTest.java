@@ -2,12 +2,16 @@ package io.sisu.paysim;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.paysim.actors.SuperActor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class AppTest {
 
@@ -19,6 +23,14 @@ class AppTest {
     Assertions.assertEquals("Transfer", Util.capitalize("TRANSFER"));
   }
 
+  @Test
+  void testCachedLabels() {
+    Assertions.assertEquals("CashOut", Util.actionLabel("CASH_OUT"));
+    Assertions.assertSame(Util.actionLabel("CASH_OUT"), Util.actionLabel("CASH_OUT"));
+    Assertions.assertEquals("Merchant", Util.actorLabel(SuperActor.Type.MERCHANT));
+    Assertions.assertEquals("tx-42", Util.txId(42));
+  }
+
   @Test
   void testDurationCalc() {
     ZonedDateTime start = ZonedDateTime.now();
@@ -36,4 +48,52 @@ class AppTest {
             "estimated load rate: %.2f paysim-transactions/second",
             (float) 415_252 / totalSeconds));
   }
+
+  @Test
+  void asyncChainsStopAtTheFirstFailedBatch() {
+    Watermark written = new Watermark();
+    AtomicInteger chained = new AtomicInteger();
+    CompletableFuture<Void> first = new CompletableFuture<>();
+    CompletableFuture<Void> second = new CompletableFuture<>();
+
+    CompletableFuture<Void> firstChain =
+        App.afterWritten(first, written, 0, () -> chain(chained)).toCompletableFuture();
+    CompletableFuture<Void> secondChain =
+        App.afterWritten(second, written, 1, () -> chain(chained)).toCompletableFuture();
+    // the later batch is written first, then waits on the earlier one, which fails
+    second.complete(null);
+    Assertions.assertFalse(secondChain.isDone());
+    first.completeExceptionally(new IllegalStateException("batch 0 failed"));
+
+    Assertions.assertTrue(firstChain.isCompletedExceptionally());
+    Assertions.assertTrue(secondChain.isCompletedExceptionally());
+    Assertions.assertTrue(
+        App.afterWritten(CompletableFuture.completedFuture(null), written, 2, () -> chain(chained))
+            .toCompletableFuture()
+            .isCompletedExceptionally());
+    Assertions.assertEquals(0, chained.get());
+  }
+
+  @Test
+  void asyncChainsRunInOrderOnceWritten() {
+    Watermark written = new Watermark();
+    AtomicInteger chained = new AtomicInteger();
+    CompletableFuture<Void> first = new CompletableFuture<>();
+
+    CompletableFuture<Void> secondChain =
+        App.afterWritten(CompletableFuture.completedFuture(null), written, 1, () -> chain(chained))
+            .toCompletableFuture();
+    Assertions.assertFalse(secondChain.isDone());
+    App.afterWritten(first, written, 0, () -> chain(chained));
+    first.complete(null);
+
+    Assertions.assertTrue(secondChain.isDone());
+    Assertions.assertFalse(secondChain.isCompletedExceptionally());
+    Assertions.assertEquals(2, chained.get());
+  }
+
+  private static CompletionStage<Void> chain(AtomicInteger chained) {
+    chained.incrementAndGet();
+    return CompletableFuture.completedFuture(null);
+  }
 }
@@ -0,0 +1,124 @@
+package io.sisu.paysim;
+
+import org.apache.arrow.compression.CommonsCompressionFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+class ArrowExportTest {
+
+  private static String string(VectorSchemaRoot root, String column, int row) {
+    VarCharVector vector = (VarCharVector) root.getVector(column);
+    return vector.isNull(row) ? null : new String(vector.get(row), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  void recordBatchesRoundTrip() throws IOException {
+    Path file = Files.createTempFile("paysim", ".arrow");
+    try {
+      try (ArrowTable table =
+          new ArrowTable(
+              file,
+              Arrays.asList(
+                  ArrowTable.field("n", ArrowTable.INT64),
+                  ArrowTable.field("d", ArrowTable.FLOAT64),
+                  ArrowTable.field("s", ArrowTable.UTF8),
+                  ArrowTable.field("b", ArrowTable.BOOL)))) {
+        table.setLong(0, 0, -42);
+        table.setDouble(1, 0, 181.5);
+        table.setString(2, 0, "Zo\u00eb");
+        table.setBool(3, 0, true);
+        table.flush(1);
+
+        table.setLong(0, 0, Long.MAX_VALUE);
+        table.setDouble(1, 0, -9839.646);
+        table.setString(2, 0, null);
+        table.setBool(3, 0, false);
+        table.setValue(0, 1, 7);
+        table.setValue(1, 1, 0.5);
+        table.setValue(2, 1, "x");
+        table.setValue(3, 1, true);
+        table.flush(2);
+      }
+
+      try (BufferAllocator allocator = new RootAllocator();
+          FileChannel channel = FileChannel.open(file);
+          ArrowFileReader reader =
+              new ArrowFileReader(channel, allocator, CommonsCompressionFactory.INSTANCE)) {
+        VectorSchemaRoot root = reader.getVectorSchemaRoot();
+
+        Assertions.assertTrue(reader.loadNextBatch());
+        Assertions.assertEquals(1, root.getRowCount());
+        Assertions.assertEquals(-42, ((BigIntVector) root.getVector("n")).get(0));
+        Assertions.assertEquals(181.5, ((Float8Vector) root.getVector("d")).get(0));
+        Assertions.assertEquals("Zo\u00eb", string(root, "s", 0));
+        Assertions.assertEquals(1, ((BitVector) root.getVector("b")).get(0));
+
+        Assertions.assertTrue(reader.loadNextBatch());
+        Assertions.assertEquals(2, root.getRowCount());
+        Assertions.assertEquals(Long.MAX_VALUE, ((BigIntVector) root.getVector("n")).get(0));
+        Assertions.assertEquals(-9839.646, ((Float8Vector) root.getVector("d")).get(0));
+        Assertions.assertNull(string(root, "s", 0));
+        Assertions.assertEquals(0, ((BitVector) root.getVector("b")).get(0));
+        Assertions.assertEquals(7, ((BigIntVector) root.getVector("n")).get(1));
+        Assertions.assertEquals(0.5, ((Float8Vector) root.getVector("d")).get(1));
+        Assertions.assertEquals("x", string(root, "s", 1));
+        Assertions.assertEquals(1, ((BitVector) root.getVector("b")).get(1));
+
+        Assertions.assertFalse(reader.loadNextBatch());
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  void transactionsRoundTrip() throws IOException {
+    TxBatch batch = Fixtures.sampleBatch(100);
+    Path file = Files.createTempFile("paysim", ".arrow");
+    try {
+      try (ArrowTable table = ArrowExport.newTransactionTable(file)) {
+        ArrowExport.writeTransactions(table, batch);
+      }
+
+      try (BufferAllocator allocator = new RootAllocator();
+          FileChannel channel = FileChannel.open(file);
+          ArrowFileReader reader =
+              new ArrowFileReader(channel, allocator, CommonsCompressionFactory.INSTANCE)) {
+        VectorSchemaRoot root = reader.getVectorSchemaRoot();
+        Assertions.assertTrue(reader.loadNextBatch());
+        Assertions.assertEquals(batch.size(), root.getRowCount());
+        for (int i = 0; i < batch.size(); i++) {
+          Assertions.assertEquals(
+              batch.globalStep(i), ((BigIntVector) root.getVector("globalStep")).get(i));
+          Assertions.assertEquals(batch.action(i), string(root, "action", i));
+          Assertions.assertEquals(
+              batch.amount(i), ((Float8Vector) root.getVector("amount")).get(i));
+          Assertions.assertEquals(batch.senderId(i), string(root, "idOrig", i));
+          Assertions.assertEquals(batch.receiverType(i).toString(), string(root, "destType", i));
+          Assertions.assertEquals(
+              batch.newBalanceDest(i), ((Float8Vector) root.getVector("newBalanceDest")).get(i));
+          Assertions.assertEquals(
+              batch.fraud(i) ? 1 : 0, ((BitVector) root.getVector("isFraud")).get(i));
+        }
+        Assertions.assertFalse(reader.loadNextBatch());
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Value;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class BatchEncoderTest {
+
+  @Test
+  void matchedListsEachNewActorOnce() {
+    TxBatch batch = Fixtures.sampleBatch(100);
+    String sender = batch.senderId(0);
+
+    Value none = BatchEncoder.encodeMatched(batch, id -> true);
+    Assertions.assertEquals(0, none.get("newId").size());
+    Assertions.assertEquals(0, none.get("newLabel").size());
+    Assertions.assertEquals(batch.size(), none.get("senderId").size());
+
+    Value one = BatchEncoder.encodeMatched(batch, id -> !id.equals(sender));
+    Assertions.assertEquals(List.of(sender), one.get("newId").asList(Value::asString));
+    Assertions.assertEquals(
+        List.of(Util.actorLabel(batch.senderType(0))),
+        one.get("newLabel").asList(Value::asString));
+
+    Set<String> actors = new HashSet<>();
+    for (int i = 0; i < batch.size(); i++) {
+      actors.add(batch.senderId(i));
+      actors.add(batch.receiverId(i));
+    }
+    Value all = BatchEncoder.encodeMatched(batch, id -> false);
+    Assertions.assertEquals(actors, new HashSet<>(all.get("newId").asList(Value::asString)));
+    Assertions.assertEquals(actors.size(), all.get("newId").size());
+    Assertions.assertEquals(actors.size(), all.get("newLabel").size());
+  }
+
+  @Test
+  void keyedOnlySendsTheIdsOfNewActors() {
+    TxBatch batch = Fixtures.sampleBatch(100);
+    ActorKeys keys = new ActorKeys(Shard.NONE);
+    keys.intern(batch.senderId(0));
+    keys.sealPopulation();
+    batch.key(keys);
+
+    Value params = BatchEncoder.encodeKeyed(batch, keys::isWritten);
+    Assertions.assertFalse(params.containsKey("senderId"));
+    Assertions.assertFalse(params.containsKey("receiverId"));
+    Assertions.assertFalse(params.containsKey("senderLabel"));
+    Assertions.assertFalse(params.containsKey("receiverLabel"));
+    Assertions.assertEquals(batch.size(), params.get("senderKey").size());
+    Assertions.assertEquals(batch.size(), params.get("receiverKey").size());
+
+    // everyone but the one written actor is new, and listed once
+    List<String> newIds = params.get("newId").asList(Value::asString);
+    Assertions.assertFalse(newIds.contains(batch.senderId(0)));
+    Assertions.assertEquals(keys.size() - 1, newIds.size());
+    Assertions.assertEquals(newIds.size(), params.get("newKey").size());
+    Assertions.assertEquals(newIds.size(), params.get("newLabel").size());
+    for (int j = 0; j < newIds.size(); j++) {
+      Assertions.assertEquals(keys.key(newIds.get(j)), params.get("newKey").get(j).asLong());
+    }
+  }
+
+  @Test
+  void identityNodesAreOneListOfValues() {
+    Query query = BatchEncoder.compileIdentityNodeQuery(Cypher.MERGE_SSNS, List.of("1", "2"));
+    Assertions.assertEquals(Cypher.MERGE_SSNS, query.text());
+    Assertions.assertEquals(
+        List.of("1", "2"), query.parameters().get("values").asList(Value::asString));
+  }
+
+  @Test
+  void identitiesCoverTheRangeAndKeysOnlyWhenAsked() {
+    ActorStore clients = new ActorStore(5);
+    for (int i = 0; i < 4; i++) {
+      clients.add("C" + i, "Name " + i, "ssn" + i, "email" + i, "phone" + i);
+    }
+    ActorKeys keys = new ActorKeys(Shard.NONE);
+    for (int i = 0; i < 4; i++) {
+      keys.intern("C" + i);
+    }
+
+    Query plain = BatchEncoder.compileIdentityQuery(clients, 1, 3);
+    Assertions.assertEquals(Cypher.COLUMNAR_IDENTITY_QUERY_STRING, plain.text());
+    Value params = plain.parameters();
+    Assertions.assertEquals(
+        List.of("C1", "C2"), params.get("clientId").asList(Value::asString));
+    Assertions.assertEquals(
+        List.of("Name 1", "Name 2"), params.get("name").asList(Value::asString));
+    Assertions.assertEquals(
+        List.of("ssn1", "ssn2"), params.get("ssn").asList(Value::asString));
+    Assertions.assertEquals(
+        List.of("email1", "email2"), params.get("email").asList(Value::asString));
+    Assertions.assertEquals(
+        List.of("phone1", "phone2"), params.get("phoneNumber").asList(Value::asString));
+    Assertions.assertFalse(params.containsKey("key"));
+
+    Query keyed = BatchEncoder.compileIdentityQuery(clients, keys, 1, 3);
+    Assertions.assertEquals(Cypher.KEYED_IDENTITY_QUERY_STRING, keyed.text());
+    Assertions.assertEquals(
+        List.of(keys.key("C1"), keys.key("C2")),
+        keyed.parameters().get("key").asList(Value::asLong));
+  }
+}
@@ -0,0 +1,189 @@
+package io.sisu.paysim;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Session;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/** Runs small Bolt loads against an in-process Neo4j and checks the graph they leave behind. */
+class BoltLoadTest {
+  private static Neo4j neo4j;
+  private static Driver driver;
+
+  @BeforeAll
+  static void start() {
+    neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build();
+    driver = Database.connect(neo4j.boltURI().toString(), "neo4j", "password", false);
+  }
+
+  @AfterAll
+  static void stop() {
+    driver.close();
+    neo4j.close();
+  }
+
+  /** @param settings pairs of Config keys and values */
+  private static Config config(Path properties, Path checkpoint, Object... settings) {
+    final Map<String, Object> args = new HashMap<>();
+    args.put(Config.KEY_PROPERTIES_FILE, properties.toString());
+    args.put(Config.KEY_BOLT_URI, neo4j.boltURI().toString());
+    args.put(Config.KEY_CHECKPOINT, checkpoint.toString());
+    args.put(Config.KEY_BATCH_SIZE, "200");
+    args.put(Config.KEY_PARALLELISM, "2");
+    args.put(Config.KEY_METRICS_INTERVAL, "0");
+    for (int i = 0; i < settings.length; i += 2) {
+      args.put((String) settings[i], settings[i + 1]);
+    }
+    return new Config(Optional.of(new Namespace(args)));
+  }
+
+  private static long count(String query) {
+    try (Session session = driver.session()) {
+      return session.run(query).single().get(0).asLong();
+    }
+  }
+
+  private static void clear() {
+    try (Session session = driver.session()) {
+      session.run("MATCH (n) DETACH DELETE n").consume();
+    }
+  }
+
+  @Test
+  void appendedMulesGetTheirIdentities() throws Exception {
+    clear();
+    final Path first = Fixtures.writeProperties(12);
+    final Path more = Fixtures.writeProperties(24);
+    final Path checkpoint = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      App.runBolt(config(first, checkpoint));
+      App.runBolt(config(more, checkpoint, Config.KEY_FROM_STEP, "12"));
+
+      final long appended =
+          count(
+              "MATCH (m:Mule) WHERE NOT EXISTS {"
+                  + " MATCH (m)-[:PERFORMED|TO]-(t:Transaction) WHERE t.step < 12 }"
+                  + " RETURN count(m)");
+      Assertions.assertTrue(appended > 0, "no Mule joined in the appended steps");
+      Assertions.assertEquals(
+          0,
+          count(
+              "MATCH (m:Mule) WHERE NOT (m)-[:HAS_SSN]->() OR NOT (m)-[:HAS_EMAIL]->()"
+                  + " OR NOT (m)-[:HAS_PHONE]->() RETURN count(m)"));
+    } finally {
+      Files.deleteIfExists(first);
+      Files.deleteIfExists(more);
+      Files.deleteIfExists(checkpoint);
+    }
+  }
+
+  @Test
+  void actorsFirstLinksEveryTransactionAndCheckpointsEveryClient() throws Exception {
+    clear();
+    final Path properties = Fixtures.writeProperties(12);
+    final Path checkpoint = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      App.runBolt(config(properties, checkpoint, Config.KEY_ACTORS_FIRST, "true"));
+
+      final long transactions = count("MATCH (t:Transaction) RETURN count(t)");
+      Assertions.assertTrue(transactions > 0);
+      Assertions.assertEquals(
+          transactions, count("MATCH (:Node)-[:PERFORMED]->(t:Transaction) RETURN count(t)"));
+      Assertions.assertEquals(
+          transactions, count("MATCH (t:Transaction)-[:TO]->(:Node) RETURN count(t)"));
+      Assertions.assertTrue(count("MATCH (m:Mule) RETURN count(m)") > 0);
+
+      // the second pass over the identities, for Mules, is checkpointed too
+      final Checkpoint saved =
+          Checkpoint.open(
+              checkpoint, Checkpoint.fingerprint(properties.toString(), Shard.NONE), true);
+      Assertions.assertEquals(
+          count("MATCH (c:Client) RETURN count(c)"), saved.get(Checkpoint.IDENTITIES));
+    } finally {
+      Files.deleteIfExists(properties);
+      Files.deleteIfExists(checkpoint);
+    }
+  }
+
+  @Test
+  void keyedLoadLinksTransactionsToTheirActors() throws Exception {
+    clear();
+    final Path properties = Fixtures.writeProperties(12);
+    final Path checkpoint = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      App.runBolt(config(properties, checkpoint, Config.KEY_KEYS, "true"));
+
+      final long transactions = count("MATCH (t:Transaction) RETURN count(t)");
+      Assertions.assertTrue(transactions > 0);
+      Assertions.assertEquals(0, count("MATCH (n:Node) WHERE n.key IS NULL RETURN count(n)"));
+      Assertions.assertEquals(
+          transactions,
+          count(
+              "MATCH (s:Node)-[:PERFORMED]->(t:Transaction)-[:TO]->(r:Node)"
+                  + " WHERE t.key = t.globalStep AND t.id = 'tx-' + t.globalStep"
+                  + " AND t.senderId = s.id AND t.receiverId = r.id"
+                  + " RETURN count(t)"));
+    } finally {
+      Files.deleteIfExists(properties);
+      Files.deleteIfExists(checkpoint);
+    }
+  }
+
+  @Test
+  void keysCannotExtendAGraphLoadedWithoutThem() throws Exception {
+    clear();
+    final Path first = Fixtures.writeProperties(12);
+    final Path more = Fixtures.writeProperties(24);
+    final Path checkpoint = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      App.runBolt(config(first, checkpoint, Config.KEY_ACTORS_FIRST, "true"));
+      final long transactions = count("MATCH (t:Transaction) RETURN count(t)");
+
+      App.runBolt(
+          config(more, checkpoint, Config.KEY_KEYS, "true", Config.KEY_FROM_STEP, "12"));
+      Assertions.assertEquals(transactions, count("MATCH (t:Transaction) RETURN count(t)"));
+    } finally {
+      Files.deleteIfExists(first);
+      Files.deleteIfExists(more);
+      Files.deleteIfExists(checkpoint);
+    }
+  }
+
+  @Test
+  void clientsMissingAnIdentityKeepTheirOtherLinks() {
+    clear();
+    final ActorStore clients = new ActorStore(2);
+    clients.add("C0", "Name 0", "ssn0", "email0", "phone0");
+    clients.add("C1", "Name 1", "ssn1", null, "phone1");
+    final Query[] identityNodes = {
+      BatchEncoder.compileIdentityNodeQuery(Cypher.MERGE_SSNS, List.of("ssn0", "ssn1")),
+      BatchEncoder.compileIdentityNodeQuery(Cypher.MERGE_EMAILS, List.of("email0")),
+      BatchEncoder.compileIdentityNodeQuery(Cypher.MERGE_PHONES, List.of("phone0", "phone1"))
+    };
+    for (Query query : identityNodes) {
+      Database.executeWithRetry(driver, query, 0);
+    }
+    Database.executeWithRetry(driver, BatchEncoder.compileIdentityQuery(clients, 0, 2), 0);
+
+    Assertions.assertEquals(
+        1,
+        count(
+            "MATCH (c:Client {id: 'C1', name: 'Name 1'})-[:HAS_SSN]->(:SSN {ssn: 'ssn1'}),"
+                + " (c)-[:HAS_PHONE]->(:Phone {phoneNumber: 'phone1'})"
+                + " WHERE NOT (c)-[:HAS_EMAIL]->() RETURN count(c)"));
+    Assertions.assertEquals(3, count("MATCH (:Client {id: 'C0'})-[r]->() RETURN count(r)"));
+  }
+}
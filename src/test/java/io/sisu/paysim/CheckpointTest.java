@@ -0,0 +1,71 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class CheckpointTest {
+
+  @Test
+  void advancesOnlyPastContiguousCommits() throws Exception {
+    Path path = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      Checkpoint checkpoint = Checkpoint.open(path, "abc", false);
+      Assertions.assertEquals(Checkpoint.NONE, checkpoint.get(Checkpoint.TRANSACTIONS));
+
+      checkpoint.commit(Checkpoint.TRANSACTIONS, 1, 199);
+      Assertions.assertEquals(Checkpoint.NONE, checkpoint.get(Checkpoint.TRANSACTIONS));
+      checkpoint.commit(Checkpoint.TRANSACTIONS, 0, 99);
+      Assertions.assertEquals(199, checkpoint.get(Checkpoint.TRANSACTIONS));
+      checkpoint.commit(Checkpoint.TRANSACTIONS, 3, 399);
+      Assertions.assertEquals(199, checkpoint.get(Checkpoint.TRANSACTIONS));
+
+      checkpoint.set(Checkpoint.IDENTITIES, 500);
+      Assertions.assertEquals(500, checkpoint.get(Checkpoint.IDENTITIES));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  void resumesFromSavedState() throws Exception {
+    Path path = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      Checkpoint started = Checkpoint.open(path, "abc", false);
+      Assertions.assertFalse(started.isResumed());
+      started.commit(Checkpoint.TRANSACTIONS, 0, 42);
+
+      Checkpoint resumed = Checkpoint.open(path, "abc", true);
+      Assertions.assertTrue(resumed.isResumed());
+      Assertions.assertEquals(42, resumed.get(Checkpoint.TRANSACTIONS));
+      Assertions.assertThrows(
+          IllegalStateException.class, () -> Checkpoint.open(path, "xyz", true));
+
+      // starting over resets the checkpoint
+      Assertions.assertEquals(
+          Checkpoint.NONE, Checkpoint.open(path, "abc", false).get(Checkpoint.TRANSACTIONS));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  void laterPassesCarryOnNumbering() throws Exception {
+    Path path = Files.createTempFile("paysim", ".checkpoint");
+    try {
+      Checkpoint checkpoint = Checkpoint.open(path, "abc", false);
+      Assertions.assertEquals(0, checkpoint.committed(Checkpoint.IDENTITIES));
+      checkpoint.commit(Checkpoint.IDENTITIES, 0, 100);
+      checkpoint.commit(Checkpoint.IDENTITIES, 1, 200);
+
+      long seq = checkpoint.committed(Checkpoint.IDENTITIES);
+      Assertions.assertEquals(2, seq);
+      checkpoint.commit(Checkpoint.IDENTITIES, seq, 210);
+      Assertions.assertEquals(210, checkpoint.get(Checkpoint.IDENTITIES));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+class CsvWriterTest {
+
+  private static String render(CsvWriterConsumer rows) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (CsvWriter writer = new CsvWriter(out, 8)) {
+      rows.accept(writer);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @FunctionalInterface
+  private interface CsvWriterConsumer {
+    void accept(CsvWriter writer) throws IOException;
+  }
+
+  @Test
+  void formatsFieldsWithoutQuotingUnlessNeeded() throws IOException {
+    String csv =
+        render(
+            w ->
+                w.longValue(-42)
+                    .longValue(Long.MAX_VALUE)
+                    .string("plain")
+                    .string("a,b")
+                    .string("say \"hi\"")
+                    .string(null)
+                    .bool(true)
+                    .bool(false)
+                    .string("Zo\u00eb")
+                    .endRow());
+    Assertions.assertEquals(
+        "-42,9223372036854775807,plain,\"a,b\",\"say \"\"hi\"\"\",,true,false,Zo\u00eb\n", csv);
+  }
+
+  @Test
+  void writesDoublesInFull() throws IOException {
+    String csv =
+        render(
+            w ->
+                w.doubleValue(181.5)
+                    .doubleValue(0.004)
+                    .doubleValue(-9839.646)
+                    .doubleValue(1e30)
+                    .doubleValue(-Double.MAX_VALUE)
+                    .longValue(Long.MIN_VALUE)
+                    .endRow());
+    Assertions.assertEquals(
+        "181.5,0.004,-9839.646,1.0E30,-1.7976931348623157E308,-9223372036854775808\n", csv);
+  }
+
+  @Test
+  void asyncGzipRoundTrips() throws IOException {
+    Path file = Files.createTempFile("paysim", ".csv.gz");
+    StringBuilder expected = new StringBuilder();
+    try (CsvWriter writer = new CsvWriter(new AsyncGzipOutputStream(file, 1024, 2), 100)) {
+      for (int i = 0; i < 10_000; i++) {
+        writer.longValue(i).string("row").endRow();
+        expected.append(i).append(",row\n");
+      }
+    }
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+      byte[] buf = new byte[4096];
+      for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+        actual.write(buf, 0, n);
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+    Assertions.assertEquals(
+        expected.toString(), new String(actual.toByteArray(), StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,95 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.driver.Values;
+import org.neo4j.driver.exceptions.ClientException;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+
+import java.util.List;
+
+/** Runs the schema and rollback statements against an in-process Neo4j. */
+class DatabaseTest {
+  private static Neo4j neo4j;
+  private static Driver driver;
+
+  @BeforeAll
+  static void start() {
+    neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build();
+    driver = Database.connect(neo4j.boltURI().toString(), "neo4j", "password", false);
+  }
+
+  @AfterAll
+  static void stop() {
+    driver.close();
+    neo4j.close();
+  }
+
+  private static long count(Session session, String query) {
+    return session.run(query).single().get(0).asLong();
+  }
+
+  @Test
+  void rollsBackOnlyTheResumedShard() {
+    final Shard first = new Shard(0, 2);
+    final Shard second = new Shard(1, 2);
+    try (Session session = driver.session()) {
+      session.run("MATCH (n) DETACH DELETE n").consume();
+      // ten steps of interleaved Transactions from each shard
+      for (long globalStep = 0; globalStep < 10; globalStep++) {
+        for (Shard shard : new Shard[] {first, second}) {
+          session
+              .run(
+                  "CREATE (:Node:Transaction {globalStep: $globalStep, step: $step})",
+                  Values.parameters(
+                      "globalStep", shard.globalStep(globalStep), "step", globalStep))
+              .consume();
+        }
+      }
+
+      // the second shard checkpointed up to its sixth Transaction
+      final long deleted =
+          Database.deleteTransactionsAfter(driver, second.globalStep(5), 0, second, 3);
+
+      Assertions.assertEquals(4, deleted);
+      Assertions.assertEquals(
+          10, count(session, "MATCH (t:Transaction) WHERE t.globalStep % 2 = 0 RETURN count(t)"));
+      Assertions.assertEquals(
+          6, count(session, "MATCH (t:Transaction) WHERE t.globalStep % 2 = 1 RETURN count(t)"));
+    }
+  }
+
+  @Test
+  void replacesAPlainIndexInTheWayOfAConstraint() {
+    try (Session session = driver.session()) {
+      session.run("CREATE INDEX leftover FOR (n:Leftover) ON (n.id)").consume();
+
+      Database.enforcePaySimSchema(
+          driver,
+          List.of("CREATE CONSTRAINT IF NOT EXISTS ON (n:Leftover) ASSERT n.id IS UNIQUE"),
+          30);
+
+      Assertions.assertEquals(
+          List.of("UNIQUE"),
+          session
+              .run(
+                  "CALL db.indexes() YIELD uniqueness, labelsOrTypes"
+                      + " WHERE labelsOrTypes = ['Leftover'] RETURN uniqueness")
+              .list(r -> r.get(0).asString()));
+    }
+  }
+
+  @Test
+  void failsOnAnyOtherSchemaFailure() {
+    Assertions.assertThrows(
+        ClientException.class,
+        () ->
+            Database.enforcePaySimSchema(
+                driver, List.of("CREATE CONSTRAINT ON (n:Broken) ASSERT n.id IS NOT A THING"), 30));
+  }
+}
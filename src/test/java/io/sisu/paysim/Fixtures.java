@@ -0,0 +1,77 @@
+package io.sisu.paysim;
+
+import org.paysim.IteratingPaySim;
+import org.paysim.base.Transaction;
+import org.paysim.parameters.Parameters;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/** Shared test and benchmark data pulled from a real, seeded PaySim run. */
+class Fixtures {
+
+  /**
+   * Run the default seeded simulation just long enough to collect the first {@code n}
+   * Transactions.
+   */
+  static List<Transaction> sampleTransactions(int n) {
+    IteratingPaySim sim = new IteratingPaySim(new Parameters(Config.DEFAULT_PROPERTIES_FILE), n);
+    List<Transaction> transactions = new ArrayList<>(n);
+    sim.run();
+    while (transactions.size() < n && sim.hasNext()) {
+      transactions.add(sim.next());
+    }
+    try {
+      sim.abort();
+    } catch (IllegalStateException ise) {
+      // already finished
+    }
+    return transactions;
+  }
+
+  static TxBatch sampleBatch(int n) {
+    return sampleBatch(sampleTransactions(n));
+  }
+
+  static TxBatch sampleBatch(List<Transaction> transactions) {
+    TxBatch batch = new TxBatch(transactions.size());
+    transactions.forEach(batch::add);
+    return batch;
+  }
+
+  /** Write a small copy of PaySim.properties, with 200 clients, 50 fraudsters and 50 merchants. */
+  static Path writeProperties(int nbSteps) throws IOException {
+    return writeProperties(nbSteps, 200, 50, 50);
+  }
+
+  /**
+   * Write a copy of PaySim.properties with a fixed seed and the given size, next to the original so
+   * the relative paramFiles paths still resolve. The same size always gives the same contents.
+   */
+  static Path writeProperties(int nbSteps, int nbClients, int nbFraudsters, int nbMerchants)
+      throws IOException {
+    final Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(Paths.get(Config.DEFAULT_PROPERTIES_FILE))) {
+      props.load(in);
+    }
+    props.setProperty("seed", "123456");
+    props.setProperty("nbSteps", Integer.toString(nbSteps));
+    props.setProperty("nbClients", Integer.toString(nbClients));
+    props.setProperty("nbFraudsters", Integer.toString(nbFraudsters));
+    props.setProperty("nbMerchants", Integer.toString(nbMerchants));
+
+    final Path path = Files.createTempFile(Paths.get("."), ".paysim-test-", ".properties");
+    try (OutputStream out = Files.newOutputStream(path)) {
+      // no timestamp comment, so the checkpoint fingerprint only depends on the settings
+      props.store(out, null);
+    }
+    return path;
+  }
+}
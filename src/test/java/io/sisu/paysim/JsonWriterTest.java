@@ -0,0 +1,66 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class JsonWriterTest {
+
+  @Test
+  void writesOneEscapedObjectPerLine() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonWriter writer = new JsonWriter(out, JsonWriter.FRAMING_NDJSON, 8)) {
+      writer
+          .longValue("n", -42)
+          .string("s", "say \"hi\"\\\n")
+          .string("z", "Zo\u00eb \u20ac\ud83d\ude00 \"")
+          .string("nil", null)
+          .doubleValue("m", 181.5)
+          .doubleValue("d", -9839.646)
+          .doubleValue("nan", Double.NaN)
+          .bool("b", true)
+          .endRecord();
+      writer.longValue("n", Long.MAX_VALUE).longValue("min", Long.MIN_VALUE).endRecord();
+    }
+    Assertions.assertEquals(
+        "{\"n\":-42,\"s\":\"say \\\"hi\\\"\\\\\\u000a\","
+            + "\"z\":\"Zo\u00eb \u20ac\ud83d\ude00 \\\"\",\"nil\":null,"
+            + "\"m\":181.5,\"d\":-9839.646,\"nan\":null,\"b\":true}\n"
+            + "{\"n\":9223372036854775807,\"min\":-9223372036854775808}\n",
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void prefixesRecordsWithTheirLength() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonWriter writer = new JsonWriter(out, JsonWriter.FRAMING_LENGTH, 32)) {
+      for (int i = 0; i < 100; i++) {
+        writer.longValue("i", i).string("padding", "abcdefghijklmnopqrstuvwxyz").endRecord();
+      }
+    }
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    for (int i = 0; i < 100; i++) {
+      byte[] record = new byte[in.readInt()];
+      in.readFully(record);
+      Assertions.assertEquals(
+          "{\"i\":" + i + ",\"padding\":\"abcdefghijklmnopqrstuvwxyz\"}",
+          new String(record, StandardCharsets.UTF_8));
+    }
+    Assertions.assertEquals(-1, in.read());
+  }
+
+  @Test
+  void onlyWritesCompleteRecords() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonWriter writer = new JsonWriter(out, JsonWriter.FRAMING_NDJSON, 32);
+    writer.longValue("a", 1).endRecord();
+    writer.string("b", "a value that doesn't fit in what's left of the buffer");
+    writer.flush();
+    Assertions.assertEquals("{\"a\":1}\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+}
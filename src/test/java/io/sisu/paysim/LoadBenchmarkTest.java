@@ -0,0 +1,102 @@
+package io.sisu.paysim;
+
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Session;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Runs a complete Bolt load against an in-process Neo4j and logs the wall time of each phase, so
+ * end-to-end write throughput can be compared between changes without a running database.
+ *
+ * <p>Excluded from {@code test}; run it with {@code ./gradlew loadBenchmark}. The simulation size,
+ * batch size, parallelism and async writes can be set with {@code -Ppaysim.bench.*} properties.
+ */
+@Tag("benchmark")
+class LoadBenchmarkTest {
+  static Logger logger = LoggerFactory.getLogger(LoadBenchmarkTest.class);
+
+  private static String setting(String name, String defaultValue) {
+    return System.getProperty("paysim.bench." + name, defaultValue);
+  }
+
+  private static int size(String name, String defaultValue) {
+    return Integer.parseInt(setting(name, defaultValue));
+  }
+
+  @Test
+  void loadIntoEmbeddedNeo4j() throws Exception {
+    final Path properties =
+        Fixtures.writeProperties(
+            size("nbSteps", "24"),
+            size("nbClients", "1000"),
+            size("nbFraudsters", "100"),
+            size("nbMerchants", "350"));
+    final Path checkpoint = Files.createTempFile("paysim-bench", ".checkpoint");
+    try (Neo4j neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build()) {
+      final Map<String, Object> args = new HashMap<>();
+      args.put(Config.KEY_PROPERTIES_FILE, properties.toString());
+      args.put(Config.KEY_BOLT_URI, neo4j.boltURI().toString());
+      args.put(Config.KEY_CHECKPOINT, checkpoint.toString());
+      args.put(Config.KEY_BATCH_SIZE, setting("batchSize", "500"));
+      args.put(Config.KEY_PARALLELISM, setting("parallelism", "4"));
+      args.put(Config.KEY_ASYNC, Boolean.valueOf(setting("async", "false")));
+      args.put(Config.KEY_IN_FLIGHT, setting("inFlight", "16"));
+      args.put(Config.KEY_METRICS_INTERVAL, "0");
+      final Config config = new Config(Optional.of(new Namespace(args)));
+
+      final long start = System.nanoTime();
+      App.runBolt(config);
+      final double seconds = (System.nanoTime() - start) / 1e9;
+
+      try (Driver driver =
+              Database.connect(
+                  config.boltUri, config.username, config.password, config.useEncryption);
+          Session session = driver.session()) {
+        final long transactions =
+            session.run("MATCH (tx:Transaction) RETURN count(tx)").single().get(0).asLong();
+        final long multipleLastTx =
+            session
+                .run(
+                    "MATCH (c:Client)-[r:LAST_TX]->() WITH c, count(r) AS n WHERE n > 1"
+                        + " RETURN count(c)")
+                .single()
+                .get(0)
+                .asLong();
+
+        logger.info(
+            String.format(
+                "loaded %,d transactions in %.1fs (%.0f tx/s), batchSize=%d parallelism=%d"
+                    + " async=%b",
+                transactions,
+                seconds,
+                transactions / seconds,
+                config.batchSize,
+                config.parallelism,
+                config.async));
+        Metrics.get()
+            .getPhaseMillis()
+            .forEach(
+                (phase, millis) -> logger.info(String.format("  %-12s %,10.0fms", phase, millis)));
+
+        Assertions.assertTrue(transactions > 0);
+        Assertions.assertEquals(0, multipleLastTx);
+      }
+    } finally {
+      Files.deleteIfExists(properties);
+      Files.deleteIfExists(checkpoint);
+    }
+  }
+}
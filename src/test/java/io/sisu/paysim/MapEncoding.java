@@ -0,0 +1,119 @@
+package io.sisu.paysim;
+
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Query;
+import org.neo4j.driver.Session;
+import org.paysim.base.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The original map-per-row encoding of Transactions and the queries it feeds, which the load no
+ * longer uses. Kept for the tests and benchmarks that compare {@link BatchEncoder} against it.
+ */
+class MapEncoding {
+
+  static final String BULK_NODE_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND $nodes AS n",
+            "  WITH n, coalesce(n.props, {}) AS props",
+            "  MERGE (a:Node {id: n.id })",
+            "    ON CREATE SET a += props, a.new = true",
+            "WITH n, a WHERE a.new",
+            "FOREACH(_ IN CASE n.label WHEN 'Client' THEN [1] ELSE [] END | SET a:Client)",
+            "FOREACH(_ IN CASE n.label WHEN 'Mule' THEN [1] ELSE [] END | SET a:Client, a:Mule)",
+            "FOREACH(_ IN CASE n.label WHEN 'Merchant' THEN [1] ELSE [] END | SET a:Merchant)",
+            "FOREACH(_ IN CASE n.label WHEN 'Bank' THEN [1] ELSE [] END | SET a:Bank)",
+            "FOREACH(_ IN CASE n.label WHEN 'Payment' THEN [1] ELSE [] END | SET a:Transaction, a:Payment)",
+            "FOREACH(_ IN CASE n.label WHEN 'Transfer' THEN [1] ELSE [] END | SET a:Transaction, a:Transfer)",
+            "FOREACH(_ IN CASE n.label WHEN 'Debit' THEN [1] ELSE [] END | SET a:Transaction, a:Debit)",
+            "FOREACH(_ IN CASE n.label WHEN 'CashIn' THEN [1] ELSE [] END | SET a:Transaction, a:CashIn)",
+            "FOREACH(_ IN CASE n.label WHEN 'CashOut' THEN [1] ELSE [] END | SET a:Transaction, a:CashOut)",
+            "REMOVE a.new",
+            "RETURN count(a)",
+          });
+
+  static final String BULK_TX_PERFORMED_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND $txs AS tx",
+            "  MATCH (s:Node {id: tx.senderId})",
+            "  MATCH (t:Node {id: tx.id})",
+            "  CREATE (s)-[:PERFORMED]->(t)",
+          });
+
+  static final String BULK_TX_TO_QUERY_STRING =
+      String.join(
+          "\n",
+          new String[] {
+            "UNWIND $txs AS tx",
+            "  MATCH (r:Node {id: tx.receiverId})",
+            "  MATCH (t:Node {id: tx.id})",
+            "  CREATE (t)-[:TO]->(r)",
+          });
+
+  static Map<String, Object> propsFromTx(Transaction t) {
+    Map<String, Object> map = new HashMap<>();
+    map.put("amount", t.getAmount());
+    map.put("fraud", t.isFraud());
+    map.put("flaggedFraud", t.isFlaggedFraud());
+    map.put("senderId", t.getIdOrig());
+    map.put("receiverId", t.getIdDest());
+    map.put("id", Util.txId(t.getGlobalStep()));
+    map.put("ts", t.getStep()); // TODO: convert to datetime
+    map.put("step", t.getStep());
+    map.put("globalStep", t.getGlobalStep());
+    return map;
+  }
+
+  static Query compileNodeTransactionQuery(List<Transaction> transactions) {
+    Map<String, Object> propMap = new HashMap<>();
+    List<Map<String, Object>> unwindList = new ArrayList<>(transactions.size());
+
+    for (Transaction transaction : transactions) {
+      Map<String, Object> sender = new HashMap<>();
+      Map<String, Object> receiver = new HashMap<>();
+      Map<String, Object> tx = new HashMap<>();
+
+      sender.put("label", Util.actorLabel(transaction.getOrigType()));
+      sender.put("id", transaction.getIdOrig());
+
+      receiver.put("label", Util.actorLabel(transaction.getDestType()));
+      receiver.put("id", transaction.getIdDest());
+
+      tx.put("label", Util.actionLabel(transaction.getAction()));
+      tx.put("id", Util.txId(transaction.getGlobalStep()));
+      tx.put("props", propsFromTx(transaction));
+
+      unwindList.add(sender);
+      unwindList.add(receiver);
+      unwindList.add(tx);
+    }
+
+    propMap.put("nodes", unwindList);
+    return new Query(BULK_NODE_QUERY_STRING, propMap);
+  }
+
+  static Query compileBulkTransactionQuery(String cypher, List<Transaction> transactions) {
+    Map<String, Object> propMap = new HashMap<>();
+    List<Map<String, Object>> unwindList = new ArrayList<>(transactions.size());
+    for (Transaction transaction : transactions) {
+      unwindList.add(propsFromTx(transaction));
+    }
+    propMap.put("txs", unwindList);
+    return new Query(cypher, propMap);
+  }
+
+  /** Run a query in a write transaction of its own. */
+  static void execute(Driver driver, Query query) {
+    try (Session session = driver.session()) {
+      session.writeTransaction(tx -> tx.run(query).consume());
+    }
+  }
+}
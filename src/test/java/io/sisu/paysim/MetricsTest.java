@@ -0,0 +1,24 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+class MetricsTest {
+
+  @Test
+  void recordsLatenciesAndCounters() {
+    Metrics metrics = Metrics.get();
+    final double before = metrics.getLatencyMillis().get("encode.count");
+    final long retries = metrics.getCounters().get("retries");
+
+    Metrics.record(Metrics.Stage.ENCODE, System.nanoTime() - 2_000_000);
+    Metrics.add(Metrics.Counter.RETRIES, 3);
+
+    Map<String, Double> latencies = metrics.getLatencyMillis();
+    Assertions.assertEquals(before + 1, (double) latencies.get("encode.count"));
+    Assertions.assertTrue(latencies.get("encode.max") >= 2.0);
+    Assertions.assertEquals(retries + 3, (long) metrics.getCounters().get("retries"));
+  }
+}
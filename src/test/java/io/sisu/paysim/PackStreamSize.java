@@ -0,0 +1,77 @@
+package io.sisu.paysim;
+
+import org.neo4j.driver.Query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates how many bytes a Query occupies on the wire, following the Bolt PackStream encoding
+ * rules for the value types our queries use.
+ */
+class PackStreamSize {
+
+  static long of(Query query) {
+    return of(query.text()) + of(query.parameters().asMap());
+  }
+
+  static long of(Object value) {
+    if (value == null || value instanceof Boolean) {
+      return 1;
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return 9;
+    }
+    if (value instanceof Number) {
+      long n = ((Number) value).longValue();
+      if (n >= -16 && n <= 127) {
+        return 1;
+      }
+      if (n >= Byte.MIN_VALUE && n <= Byte.MAX_VALUE) {
+        return 2;
+      }
+      if (n >= Short.MIN_VALUE && n <= Short.MAX_VALUE) {
+        return 3;
+      }
+      if (n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE) {
+        return 5;
+      }
+      return 9;
+    }
+    if (value instanceof String) {
+      int len = ((String) value).getBytes(StandardCharsets.UTF_8).length;
+      return header(len) + len;
+    }
+    if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      long size = header(list.size());
+      for (Object item : list) {
+        size += of(item);
+      }
+      return size;
+    }
+    if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      long size = header(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        size += of(entry.getKey()) + of(entry.getValue());
+      }
+      return size;
+    }
+    throw new IllegalArgumentException("unsupported type: " + value.getClass());
+  }
+
+  private static int header(int size) {
+    if (size < 16) {
+      return 1;
+    }
+    if (size < 256) {
+      return 2;
+    }
+    if (size < 65536) {
+      return 3;
+    }
+    return 5;
+  }
+}
@@ -0,0 +1,49 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class PartitionedWriterTest {
+
+  @Test
+  void bucketIsStableAndInRange() {
+    for (String id : new String[] {"C1", "M1", "B1", "tx-42", ""}) {
+      int bucket = PartitionedWriter.bucket(id, 4);
+      Assertions.assertTrue(bucket >= 0 && bucket < 4);
+      Assertions.assertEquals(bucket, PartitionedWriter.bucket(new String(id), 4));
+    }
+  }
+
+  @Test
+  void partitionsDoNotShareSenders() {
+    TxBatch batch = Fixtures.sampleBatch(1_000);
+    List<TxBatch> parts = batch.partition(batch::senderId, 4);
+
+    Set<String> seen = new HashSet<>();
+    int total = 0;
+    for (TxBatch part : parts) {
+      Assertions.assertFalse(part.isEmpty());
+      Set<String> senders = new HashSet<>();
+      for (int i = 0; i < part.size(); i++) {
+        senders.add(part.senderId(i));
+      }
+      for (String id : senders) {
+        Assertions.assertTrue(seen.add(id), id + " landed in more than one partition");
+      }
+      total += part.size();
+    }
+    Assertions.assertEquals(batch.size(), total);
+  }
+
+  @Test
+  void singlePartitionIsTheWholeBatch() {
+    TxBatch batch = Fixtures.sampleBatch(10);
+    List<TxBatch> parts = batch.partition(batch::receiverId, 1);
+    Assertions.assertEquals(1, parts.size());
+    Assertions.assertSame(batch, parts.get(0));
+  }
+}
@@ -0,0 +1,81 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+class PipelineTest {
+
+  @Test
+  void closeRethrowsRatherThanWaitingOnDroppedWork() {
+    Assertions.assertTimeoutPreemptively(
+        Duration.ofSeconds(10),
+        () -> {
+          final Watermark written = new Watermark();
+          final CountDownLatch failing = new CountDownLatch(1);
+          final CountDownLatch waiting = new CountDownLatch(1);
+          final Pipeline pipeline = new Pipeline(2, 4);
+          pipeline.onFailure(written::fail);
+
+          // batch 0 fails once batch 1's chain is already waiting on it
+          pipeline.submit(
+              () -> {
+                try {
+                  failing.await();
+                  throw new IllegalStateException("batch 0 failed");
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                } finally {
+                  written.complete(0);
+                }
+              });
+          pipeline.submit(
+              () -> {
+                waiting.countDown();
+                try {
+                  written.await(1);
+                } catch (InterruptedException e) {
+                  throw new IllegalStateException(e);
+                }
+              });
+          waiting.await();
+          // queued behind both, so it's dropped and never completes batch 1
+          pipeline.submit(() -> written.complete(1));
+          failing.countDown();
+
+          Assertions.assertThrows(IllegalStateException.class, pipeline::close);
+        });
+  }
+
+  @Test
+  void closeRethrowsAsyncFailures() {
+    Assertions.assertTimeoutPreemptively(
+        Duration.ofSeconds(10),
+        () -> {
+          final Watermark written = new Watermark();
+          final Pipeline pipeline = new Pipeline(1, 2);
+          pipeline.onFailure(written::fail);
+
+          final CountDownLatch failing = new CountDownLatch(1);
+          pipeline.submitAsync(
+              () ->
+                  CompletableFuture.runAsync(
+                      () -> {
+                        try {
+                          failing.await();
+                        } catch (InterruptedException e) {
+                          throw new IllegalStateException(e);
+                        }
+                        throw new IllegalStateException("batch 0 failed");
+                      }));
+          // batch 1 holds its place until batch 0 is written, which it never will be
+          pipeline.submitAsync(() -> written.completed(0));
+          failing.countDown();
+
+          Assertions.assertThrows(IllegalStateException.class, pipeline::close);
+        });
+  }
+}
@@ -0,0 +1,90 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+class ShardTest {
+
+  @Test
+  void splitsAddUpToTheTotal() {
+    for (int count = 1; count <= 7; count++) {
+      int sum = 0;
+      for (int index = 0; index < count; index++) {
+        sum += new Shard(index, count).split(10_003);
+      }
+      Assertions.assertEquals(10_003, sum);
+    }
+  }
+
+  @Test
+  void globalStepsAndIdsDontCollide() {
+    Set<Long> globalSteps = new HashSet<>();
+    Set<String> ids = new HashSet<>();
+    for (int index = 0; index < 3; index++) {
+      Shard shard = new Shard(index, 3);
+      for (long gs = 0; gs < 100; gs++) {
+        Assertions.assertTrue(globalSteps.add(shard.globalStep(gs)));
+      }
+      Assertions.assertTrue(ids.add(shard.id("C123")));
+    }
+    Assertions.assertEquals("C123", Shard.NONE.id("C123"));
+    Assertions.assertEquals(42, Shard.NONE.globalStep(42));
+  }
+
+  @Test
+  void seedsAreDeterministicAndDistinct() {
+    Set<Long> seeds = new HashSet<>();
+    for (int index = 0; index < 8; index++) {
+      long seed = new Shard(index, 8).seed(123456);
+      Assertions.assertEquals(seed, new Shard(index, 8).seed(123456));
+      Assertions.assertTrue(seed >= 0 && seed <= Integer.MAX_VALUE);
+      seeds.add(seed);
+    }
+    Assertions.assertEquals(8, seeds.size());
+    Assertions.assertEquals(123456, Shard.NONE.seed(123456));
+  }
+
+  @Test
+  void rejectsBadIndexes() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new Shard(2, 2));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new Shard(-1, 2));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new Shard(0, 0));
+  }
+
+  @Test
+  void writesDerivedProperties() throws Exception {
+    Shard shard = new Shard(1, 4);
+    Path path = Paths.get(shard.writeProperties("PaySim.properties"));
+    try {
+      Properties original = new Properties();
+      try (InputStream in = Files.newInputStream(Paths.get("PaySim.properties"))) {
+        original.load(in);
+      }
+      Properties derived = new Properties();
+      try (InputStream in = Files.newInputStream(path)) {
+        derived.load(in);
+      }
+      Assertions.assertEquals(
+          shard.seed(Long.parseLong(original.getProperty("seed"))),
+          Long.parseLong(derived.getProperty("seed")));
+      Assertions.assertEquals(
+          shard.split(Integer.parseInt(original.getProperty("nbClients"))),
+          Integer.parseInt(derived.getProperty("nbClients")));
+      Assertions.assertEquals(
+          shard.split(Integer.parseInt(original.getProperty("nbBanks"))),
+          Integer.parseInt(derived.getProperty("nbBanks")));
+      Assertions.assertEquals(
+          original.getProperty("transactionsTypes"), derived.getProperty("transactionsTypes"));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
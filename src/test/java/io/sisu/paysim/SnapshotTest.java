@@ -0,0 +1,82 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.paysim.base.Transaction;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class SnapshotTest {
+
+  @Test
+  void replaysWhatWasRecorded() throws Exception {
+    List<Transaction> transactions = Fixtures.sampleTransactions(1_000);
+    ActorStore clients = new ActorStore(ActorStore.CLIENT_COLUMNS);
+    clients.add("C1", "Zo\u00eb", "123-45-6789", "zoe@example.com", null);
+    clients.add("C2", "Bob", null, "bob@example.com", "555-0100");
+
+    Path path = Files.createTempFile("paysim", ".snapshot");
+    try {
+      try (Snapshot.Writer writer = Snapshot.create(path, "abc")) {
+        for (Transaction t : transactions) {
+          writer.write(t);
+        }
+        writer.finish(clients);
+      }
+
+      Snapshot.Reader replay = Snapshot.open(path, "abc");
+      Assertions.assertEquals(transactions.size(), replay.size());
+      for (Transaction t : transactions) {
+        Assertions.assertTrue(replay.hasNext());
+        TxRow row = replay.next();
+        Assertions.assertEquals(t.getGlobalStep(), row.getGlobalStep());
+        Assertions.assertEquals(t.getStep(), row.getStep());
+        Assertions.assertEquals(t.getAmount(), row.getAmount());
+        Assertions.assertEquals(t.isFraud(), row.isFraud());
+        Assertions.assertEquals(t.isFlaggedFraud(), row.isFlaggedFraud());
+        Assertions.assertEquals(t.getAction(), row.getAction());
+        Assertions.assertEquals(t.getIdOrig(), row.getIdOrig());
+        Assertions.assertEquals(t.getOrigType(), row.getOrigType());
+        Assertions.assertEquals(t.getOldBalanceOrig(), row.getOldBalanceOrig());
+        Assertions.assertEquals(t.getNewBalanceOrig(), row.getNewBalanceOrig());
+        Assertions.assertEquals(t.getIdDest(), row.getIdDest());
+        Assertions.assertEquals(t.getDestType(), row.getDestType());
+        Assertions.assertEquals(t.getOldBalanceDest(), row.getOldBalanceDest());
+        Assertions.assertEquals(t.getNewBalanceDest(), row.getNewBalanceDest());
+      }
+      Assertions.assertFalse(replay.hasNext());
+
+      ActorStore replayed = replay.clients();
+      Assertions.assertEquals(2, replayed.size());
+      Assertions.assertEquals("Zo\u00eb", replayed.get(0, ActorStore.NAME));
+      Assertions.assertNull(replayed.get(0, ActorStore.PHONE_NUMBER));
+      Assertions.assertNull(replayed.get(1, ActorStore.SSN));
+      Assertions.assertEquals("555-0100", replayed.get(1, ActorStore.PHONE_NUMBER));
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+
+  @Test
+  void refusesIncompleteOrForeignSnapshots() throws Exception {
+    List<Transaction> transactions = Fixtures.sampleTransactions(10);
+    Path path = Files.createTempFile("paysim", ".snapshot");
+    try {
+      try (Snapshot.Writer writer = Snapshot.create(path, "abc")) {
+        writer.write(transactions.get(0));
+      }
+      Assertions.assertThrows(IllegalStateException.class, () -> Snapshot.open(path, "abc"));
+
+      try (Snapshot.Writer writer = Snapshot.create(path, "abc")) {
+        writer.write(transactions.get(0));
+        writer.finish(new ActorStore(ActorStore.CLIENT_COLUMNS));
+      }
+      Assertions.assertThrows(IllegalStateException.class, () -> Snapshot.open(path, "xyz"));
+      Assertions.assertEquals(1, Snapshot.open(path, "abc").size());
+    } finally {
+      Files.deleteIfExists(path);
+    }
+  }
+}
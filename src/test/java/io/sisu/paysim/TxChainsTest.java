@@ -0,0 +1,38 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class TxChainsTest {
+
+  @Test
+  void tracksPreviousTransactionPerClient() {
+    TxChains chains = new TxChains(4);
+    Assertions.assertEquals(TxChains.NONE, chains.append("C1", 1));
+    Assertions.assertEquals(TxChains.NONE, chains.append("C2", 2));
+    Assertions.assertEquals(1, chains.append("C1", 3));
+    Assertions.assertEquals(3, chains.append("C1", 7));
+    Assertions.assertEquals(7, chains.last("C1"));
+    Assertions.assertEquals(TxChains.NONE, chains.last("C3"));
+    Assertions.assertEquals(2, chains.size());
+  }
+
+  @Test
+  void survivesGrowing() {
+    TxChains chains = new TxChains(2);
+    for (int i = 0; i < 10_000; i++) {
+      chains.append("C" + i, i);
+    }
+    for (int i = 0; i < 10_000; i++) {
+      Assertions.assertEquals(i, chains.append("C" + i, 10_000 + i));
+    }
+
+    Map<String, long[]> seen = new HashMap<>();
+    chains.forEach((id, first, last) -> seen.put(id, new long[] {first, last}));
+    Assertions.assertEquals(10_000, seen.size());
+    Assertions.assertArrayEquals(new long[] {42, 10_042}, seen.get("C42"));
+  }
+}
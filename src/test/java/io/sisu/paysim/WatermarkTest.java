@@ -0,0 +1,74 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+class WatermarkTest {
+
+  @Test
+  void advancesOnlyOverContiguousWork() {
+    Watermark watermark = new Watermark();
+    watermark.complete(1);
+    watermark.complete(2);
+    Assertions.assertEquals(0, watermark.get());
+
+    watermark.complete(0);
+    Assertions.assertEquals(3, watermark.get());
+
+    watermark.complete(5);
+    watermark.complete(3);
+    Assertions.assertEquals(4, watermark.get());
+    watermark.complete(4);
+    Assertions.assertEquals(6, watermark.get());
+  }
+
+  @Test
+  void awaitReturnsOnceCompleted() throws InterruptedException {
+    Watermark watermark = new Watermark();
+    Thread writer =
+        new Thread(
+            () -> {
+              watermark.complete(1);
+              watermark.complete(0);
+            });
+    writer.start();
+    watermark.await(1);
+    Assertions.assertEquals(2, watermark.get());
+    writer.join();
+  }
+
+  @Test
+  void completedStageCompletesOnceCompleted() {
+    Watermark watermark = new Watermark();
+    watermark.complete(0);
+    Assertions.assertTrue(watermark.completed(0).toCompletableFuture().isDone());
+
+    CompletableFuture<Void> second = watermark.completed(2).toCompletableFuture();
+    watermark.complete(2);
+    Assertions.assertFalse(second.isDone());
+    watermark.complete(1);
+    Assertions.assertTrue(second.isDone());
+  }
+
+  @Test
+  void failingReleasesEveryoneWaiting() throws InterruptedException {
+    Watermark watermark = new Watermark();
+    watermark.complete(0);
+    CompletableFuture<Void> pending = watermark.completed(1).toCompletableFuture();
+    Thread waiter =
+        new Thread(
+            () ->
+                Assertions.assertThrows(IllegalStateException.class, () -> watermark.await(2)));
+    waiter.start();
+
+    watermark.fail(new IllegalStateException("dropped"));
+    waiter.join();
+    Assertions.assertTrue(pending.isCompletedExceptionally());
+    Assertions.assertTrue(watermark.completed(3).toCompletableFuture().isCompletedExceptionally());
+    // what already completed stays completed
+    Assertions.assertTrue(watermark.completed(0).toCompletableFuture().isDone());
+    watermark.await(0);
+  }
+}
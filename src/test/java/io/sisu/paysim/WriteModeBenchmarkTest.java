@@ -0,0 +1,117 @@
+package io.sisu.paysim;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.neo4j.configuration.GraphDatabaseSettings;
+import org.neo4j.driver.Driver;
+import org.neo4j.driver.Query;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventListener;
+import org.neo4j.graphdb.event.TransactionEventListenerAdapter;
+import org.neo4j.harness.Neo4j;
+import org.neo4j.harness.Neo4jBuilders;
+import org.paysim.base.Transaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the payload and commits of the different write paths for a 1k Transaction batch.
+ *
+ * <p>Excluded from {@code test}; run it with {@code ./gradlew loadBenchmark}.
+ */
+@Tag("benchmark")
+class WriteModeBenchmarkTest {
+  static Logger logger = LoggerFactory.getLogger(WriteModeBenchmarkTest.class);
+
+  private static final AtomicInteger committed = new AtomicInteger();
+  private static final TransactionEventListener<Object> counter =
+      new TransactionEventListenerAdapter<Object>() {
+        @Override
+        public void afterCommit(
+            TransactionData data, Object state, GraphDatabaseService databaseService) {
+          committed.incrementAndGet();
+        }
+      };
+  private static Neo4j neo4j;
+  private static Driver driver;
+
+  @BeforeAll
+  static void start() {
+    neo4j = Neo4jBuilders.newInProcessBuilder().withDisabledServer().build();
+    neo4j
+        .databaseManagementService()
+        .registerTransactionEventListener(GraphDatabaseSettings.DEFAULT_DATABASE_NAME, counter);
+    driver = Database.connect(neo4j.boltURI().toString(), "neo4j", "password", false);
+  }
+
+  @AfterAll
+  static void stop() {
+    driver.close();
+    neo4j.close();
+  }
+
+  /** @return how many transactions the server committed to write the queries, in order */
+  private static int commits(Query... queries) {
+    final int before = committed.get();
+    for (Query query : queries) {
+      MapEncoding.execute(driver, query);
+    }
+    return committed.get() - before;
+  }
+
+  @Test
+  void combinedModeSendsLessAndCommitsLess() {
+    List<Transaction> transactions = Fixtures.sampleTransactions(1_000);
+    Assertions.assertEquals(1_000, transactions.size());
+    TxBatch batch = new TxBatch(transactions.size());
+    transactions.forEach(batch::add);
+
+    final Query[] maps = {
+      MapEncoding.compileNodeTransactionQuery(transactions),
+      MapEncoding.compileBulkTransactionQuery(
+          MapEncoding.BULK_TX_PERFORMED_QUERY_STRING, transactions),
+      MapEncoding.compileBulkTransactionQuery(
+          MapEncoding.BULK_TX_TO_QUERY_STRING, transactions)
+    };
+    final Query[] split = {
+      BatchEncoder.compileNodeQuery(batch),
+      BatchEncoder.compilePerformedQuery(batch),
+      BatchEncoder.compileToQuery(batch)
+    };
+    final Query combined = BatchEncoder.compileCombinedQuery(batch);
+
+    final long mapBytes =
+        PackStreamSize.of(maps[0]) + PackStreamSize.of(maps[1]) + PackStreamSize.of(maps[2]);
+    final long splitBytes =
+        PackStreamSize.of(split[0]) + PackStreamSize.of(split[1]) + PackStreamSize.of(split[2]);
+    final long combinedBytes = PackStreamSize.of(combined);
+    final int mapCommits = commits(maps);
+    final int splitCommits = commits(split);
+    final int combinedCommits = commits(combined);
+
+    logger.info(
+        String.format(
+            "per 1k transactions: maps=%,d bytes / %d commits, columnar split=%,d bytes / %d"
+                + " commits, combined=%,d bytes / %d commits (%.1f%% fewer bytes than maps)",
+            mapBytes,
+            mapCommits,
+            splitBytes,
+            splitCommits,
+            combinedBytes,
+            combinedCommits,
+            100.0 * (mapBytes - combinedBytes) / mapBytes));
+
+    Assertions.assertTrue(splitBytes < mapBytes);
+    Assertions.assertTrue(combinedBytes < splitBytes);
+    Assertions.assertEquals(1, combinedCommits);
+    Assertions.assertTrue(combinedCommits < splitCommits);
+    Assertions.assertEquals(mapCommits, splitCommits);
+  }
+}